@@ -0,0 +1,71 @@
+package uk.gemwire.waitress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic data for the benchmarks and the load test.
+ *
+ * Everything is generated from a fixed seed, so two runs (ie. before and after a change) see exactly the same
+ *  repository, users and files, and their results can be compared.
+ * These are small and quick to make. For repositories that look like real ones, see {@link RepositoryGenerator}.
+ *
+ * @author Curle
+ */
+public final class Fixtures {
+
+    public static final long SEED = 0x5741495452455353L;
+
+    private static final String[] WORDS = { "core", "api", "common", "util", "client", "server", "gradle", "plugin",
+            "loader", "data", "event", "network", "render", "test", "annotations", "config" };
+
+    private static final String[] CLASSIFIERS = { "", "", "", "sources", "javadoc" };
+
+    /**
+     * The files of a repository, as paths relative to its root, ie. "com/example/core/1.2.0/core-1.2.0.jar".
+     * Each version of each artifact has a pom and a jar, and sometimes sources and javadoc jars.
+     * @param artifacts How many group/artifact pairs there are.
+     * @param versions How many versions each artifact has.
+     */
+    public static List<String> paths(int artifacts, int versions) {
+        Random random = new Random(SEED);
+        List<String> paths = new ArrayList<>(artifacts * versions * 3);
+        for (int a = 0; a < artifacts; a++) {
+            String group = group(random, a);
+            String artifact = word(random) + "-" + word(random) + "-" + a;
+            for (int v = 0; v < versions; v++) {
+                String version = v / 10 + "." + v % 10 + "." + random.nextInt(5);
+                String base = group + "/" + artifact + "/" + version + "/" + artifact + "-" + version;
+                paths.add(base + ".pom");
+                paths.add(base + ".jar");
+                String classifier = CLASSIFIERS[random.nextInt(CLASSIFIERS.length)];
+                if (!classifier.isEmpty())
+                    paths.add(base + "-" + classifier + ".jar");
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return size bytes of random, incompressible content.
+     */
+    public static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(SEED).nextBytes(content);
+        return content;
+    }
+
+    private static String group(Random random, int artifact) {
+        // A few dozen organizations, each with several projects, as on a real repository.
+        return switch (artifact % 3) {
+            case 0 -> "com/example" + artifact % 40;
+            case 1 -> "net/" + word(random) + artifact % 40 + "/" + word(random);
+            default -> "io/github/user" + artifact % 40 + "/" + word(random);
+        };
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
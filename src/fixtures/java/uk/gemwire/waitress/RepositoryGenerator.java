@@ -0,0 +1,461 @@
+package uk.gemwire.waitress;
+
+import at.favre.lib.crypto.bcrypt.BCrypt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Generates repositories that look like real ones, at any size, to test how Waitress scales.
+ *
+ * Real repositories are lopsided: most groups have a couple of artifacts and most artifacts a handful of versions, but
+ *  a few have hundreds. Counts are drawn from long-tailed distributions to match, and file sizes from log-normal ones.
+ * Every version has a POM (with dependencies on artifacts generated before it), most have a jar, and some have sources,
+ *  javadoc, natives or Gradle module files. Every artifact has a maven-metadata.xml listing its versions.
+ *
+ * POMs, metadata and module files have real content, as Waitress reads them. Binary files can be written
+ *  {@link Content#FULL in full}, or as {@link Content#SPARSE sparse files} of the right size that take no disk space.
+ * Every file can also be left {@link Content#EMPTY empty}, so that a repository of a million artifacts fits on a laptop.
+ *
+ * Users and permissions files to go with it are generated too, with users spread over many teams and organizations.
+ * Everything is generated from a seed, so the same options always give the same repository.
+ *
+ * Run with "gradle generateRepository -PgeneratorArgs="--output=DIR --groups=1000"". See {@link #DEFAULTS} for options.
+ *
+ * @author Curle
+ */
+public class RepositoryGenerator {
+
+    /**
+     * How files are written.
+     * FULL and SPARSE files have their real size, but sparse binary files are holes, which take no disk space.
+     * EMPTY files (text too) have no content at all, for when only the index matters.
+     */
+    public enum Content { FULL, SPARSE, EMPTY }
+
+    /**
+     * A file of the generated repository.
+     * @param path The path relative to the repository root.
+     * @param size The size of the file in bytes.
+     * @param text The content of the file, if it's text. Binary files are null, and should be filled with {@link #content(long)}.
+     */
+    public record GeneratedFile(String path, long size, byte[] text) {}
+
+    // The password of every generated user.
+    public static final String PASSWORD = "password";
+
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        // Where to write the repository ("data"), and the "users" and "permissions" files.
+        DEFAULTS.put("output", "");
+        // How many groups the repository has. Artifacts and versions follow from this. 1000 groups is about 8000 artifacts.
+        DEFAULTS.put("groups", "1000");
+        // How files are written: full, sparse (binary files take no space) or empty (every file is empty).
+        DEFAULTS.put("content", "sparse");
+        // Whether every file has .sha1 and .md5 checksums. Triples the number of files.
+        DEFAULTS.put("checksums", "false");
+        // The shape of the users file.
+        DEFAULTS.put("organizations", "50");
+        DEFAULTS.put("teams", "8");
+        DEFAULTS.put("users", "2000");
+        DEFAULTS.put("teams-per-user", "6");
+        // The cost of the users' password hash. Every user shares the same one, so it's only computed once.
+        DEFAULTS.put("bcrypt-cost", "12");
+        DEFAULTS.put("seed", Long.toString(Fixtures.SEED));
+    }
+
+    private static final String[] TLDS = { "com", "com", "com", "org", "org", "net", "io", "dev" };
+    private static final String[] WORDS = { "core", "api", "common", "util", "client", "server", "gradle", "plugin",
+            "loader", "data", "event", "network", "render", "test", "annotations", "config", "cloud", "stream", "json",
+            "http", "log", "cache", "mod", "forge", "minecraft", "kotlin", "scala", "android", "spring", "jdbc" };
+    private static final String[] NATIVES = { "natives-linux", "natives-windows", "natives-macos" };
+
+    // Binary content is cut from this, so that full files don't cost a random number per byte.
+    private static final byte[] NOISE = Fixtures.content(1024 * 1024);
+
+    private final int groups;
+    private final boolean checksums;
+    private final long seed;
+
+    // Filled in by generate.
+    private final List<String> groupNames = new ArrayList<>();
+    private final List<String> artifactNames = new ArrayList<>();
+
+    /**
+     * @param groups How many groups to generate.
+     * @param checksums Whether every file gets .sha1 and .md5 checksums.
+     * @param seed The seed everything is generated from.
+     */
+    public RepositoryGenerator(int groups, boolean checksums, long seed) {
+        this.groups = groups;
+        this.checksums = checksums;
+        this.seed = seed;
+    }
+
+    /**
+     * Generate every file of the repository, in order, without writing anything.
+     * Afterwards, {@link #groups()} and {@link #artifacts()} list what was generated.
+     */
+    public void generate(Consumer<GeneratedFile> out) {
+        Random random = new Random(seed);
+        groupNames.clear();
+        artifactNames.clear();
+        // Coordinates of every artifact so far, for POMs to depend on.
+        List<String[]> published = new ArrayList<>();
+
+        for (int g = 0; g < groups; g++) {
+            String group = groupName(random, g);
+            groupNames.add(group);
+            int artifacts = longTail(random, 3, 1.5, 500);
+            Set<String> names = new HashSet<>();
+            for (int a = 0; a < artifacts; a++) {
+                String artifact = a == 0 ? word(random) : word(random) + "-" + word(random);
+                // Two made up names may clash. Only the first is used.
+                if (!names.add(artifact))
+                    continue;
+                artifactNames.add(group + "/" + artifact);
+
+                int versions = longTail(random, 4, 1.8, 300);
+                List<String> versionList = new ArrayList<>(versions);
+                int major = 0, minor = random.nextInt(3), patch = 0;
+                for (int v = 0; v < versions; v++) {
+                    double bump = random.nextDouble();
+                    if (v > 0 && bump < 0.1) { major++; minor = 0; patch = 0; }
+                    else if (v > 0 && bump < 0.4) { minor++; patch = 0; }
+                    else if (v > 0) patch++;
+                    String version = major + "." + minor + "." + patch + (random.nextDouble() < 0.05 ? "-rc" + (1 + random.nextInt(3)) : "");
+                    versionList.add(version);
+                    version(random, out, group, artifact, version, published);
+                }
+
+                file(out, group + "/" + artifact + "/maven-metadata.xml", metadata(group, artifact, versionList));
+                published.add(new String[] { group, artifact, versionList.get(versionList.size() - 1) });
+            }
+        }
+    }
+
+    /**
+     * @return The groups of the last {@link #generate}, with slashes, ie. "com/example".
+     */
+    public List<String> groups() {
+        return groupNames;
+    }
+
+    /**
+     * @return The artifacts of the last {@link #generate}, as group/artifact.
+     */
+    public List<String> artifacts() {
+        return artifactNames;
+    }
+
+    /**
+     * Write the repository as a data directory tree, as file storage keeps it.
+     * @return How many files were written.
+     */
+    public long writeTree(Path root, Content content) throws IOException {
+        long[] files = { 0 };
+        try {
+            generate(file -> {
+                try {
+                    Path path = root.resolve(file.path());
+                    Files.createDirectories(path.getParent());
+                    if (file.text() != null && content != Content.EMPTY)
+                        Files.write(path, file.text());
+                    else if (content == Content.FULL)
+                        try (InputStream stream = content(file.size()); OutputStream output = Files.newOutputStream(path)) {
+                            stream.transferTo(output);
+                        }
+                    else
+                        try (RandomAccessFile output = new RandomAccessFile(path.toFile(), "rw")) {
+                            // Extending a file without writing leaves a hole, which takes no disk space.
+                            output.setLength(content == Content.SPARSE ? file.size() : 0);
+                        }
+                    files[0]++;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException io)
+                throw io;
+            throw e;
+        }
+        return files[0];
+    }
+
+    /**
+     * @return size bytes of incompressible content, for a binary file.
+     */
+    public static InputStream content(long size) {
+        return new InputStream() {
+            long remaining = size;
+
+            @Override
+            public int read() {
+                if (remaining == 0)
+                    return -1;
+                return NOISE[(int) ((size - remaining--) % NOISE.length)] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (remaining == 0)
+                    return -1;
+                int position = (int) ((size - remaining) % NOISE.length);
+                int count = (int) Math.min(Math.min(length, remaining), NOISE.length - position);
+                System.arraycopy(NOISE, position, buffer, offset, count);
+                remaining -= count;
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Write a users file (in the format {@link uk.gemwire.waitress.authentication.Auth#loadUsers} reads).
+     * User i is named "user-i" and is a member of teamsPerUser teams, each in a different organization.
+     * Team t of organization o is named "team-o-t".
+     * @param hash The password hash every user has.
+     */
+    public static void writeUsers(Path file, int organizations, int teamsPerOrganization, int users, int teamsPerUser, String hash) throws IOException {
+        Random random = new Random(Fixtures.SEED);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("ORGN");
+            for (int o = 0; o < organizations; o++)
+                writer.write(" org-" + o);
+
+            writer.write("\nTEAM");
+            for (int o = 0; o < organizations; o++)
+                for (int t = 0; t < teamsPerOrganization; t++)
+                    writer.write(" team-" + o + "-" + t + "[org-" + o + "]");
+            writer.write("\n\n");
+
+            for (int u = 0; u < users; u++) {
+                writer.write("user-" + u + " " + hash);
+                // One team from each of the next few organizations, so no team is listed twice.
+                for (int t = 0; t < Math.min(teamsPerUser, organizations); t++)
+                    writer.write(" team-" + (u + t) % organizations + "-" + random.nextInt(teamsPerOrganization));
+                writer.write("\n");
+            }
+        }
+    }
+
+    /**
+     * Write a permissions file (in the format {@link uk.gemwire.waitress.authentication.Auth#loadPermissions} reads)
+     *  for the last {@link #generate}d repository, and the users of {@link #writeUsers}.
+     *
+     * Each group is owned by an organization, which may read it, and one or two of its teams, which may write to it.
+     * Most groups may be read anonymously, and a few are blocked. Some artifacts have overrides for single users or teams.
+     */
+    public void writePermissions(Path file, int organizations, int teamsPerOrganization, int users) throws IOException {
+        Random random = new Random(seed);
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            int artifact = 0;
+            for (String group : groupNames) {
+                int org = random.nextInt(organizations);
+                double anonymous = random.nextDouble();
+                writer.write(group + " 2 [org-" + org + "]" + (anonymous < 0.7 ? " (anonymous)" : "") + "\n");
+                if (anonymous > 0.9)
+                    writer.write(group + " 0 (anonymous)\n");
+
+                writer.write(group + " 3 {team-" + org + "-" + random.nextInt(teamsPerOrganization) + "}");
+                if (random.nextBoolean())
+                    writer.write(" {team-" + org + "-" + random.nextInt(teamsPerOrganization) + "}");
+                writer.write("\n");
+
+                // Overrides for some of this group's artifacts.
+                for (; artifact < artifactNames.size() && artifactNames.get(artifact).startsWith(group + "/"); artifact++) {
+                    String name = artifactNames.get(artifact).substring(group.length() + 1);
+                    double roll = random.nextDouble();
+                    if (roll < 0.1)
+                        writer.write(group + " " + name + " 4 (user-" + random.nextInt(users) + ")\n");
+                    else if (roll < 0.15)
+                        writer.write(group + " " + name + " 0 {team-" + org + "-" + random.nextInt(teamsPerOrganization) + "}\n");
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            if (parts.length != 2 || !DEFAULTS.containsKey(parts[0])) {
+                System.err.println("Unknown option " + arg + ". Options are " + new TreeSet<>(DEFAULTS.keySet()));
+                System.exit(-1);
+            }
+            options.put(parts[0], parts[1]);
+        }
+        if (options.get("output").isEmpty()) {
+            System.err.println("The --output=DIR option is required.");
+            System.exit(-1);
+        }
+
+        long started = System.currentTimeMillis();
+        Path output = Paths.get(options.get("output"));
+        Path data = Files.createDirectories(output.resolve("data"));
+        RepositoryGenerator generator = new RepositoryGenerator(Integer.parseInt(options.get("groups")),
+                Boolean.parseBoolean(options.get("checksums")), Long.parseLong(options.get("seed")));
+        long files = generator.writeTree(data, Content.valueOf(options.get("content").toUpperCase()));
+
+        int organizations = Integer.parseInt(options.get("organizations"));
+        int teams = Integer.parseInt(options.get("teams"));
+        int users = Integer.parseInt(options.get("users"));
+        String hash = new String(BCrypt.withDefaults().hash(Integer.parseInt(options.get("bcrypt-cost")), PASSWORD.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+        writeUsers(output.resolve("users"), organizations, teams, users, Integer.parseInt(options.get("teams-per-user")), hash);
+        generator.writePermissions(output.resolve("permissions"), organizations, teams, users);
+
+        System.out.println("Generated " + generator.groups().size() + " groups, " + generator.artifacts().size() + " artifacts and "
+                + files + " files in " + (System.currentTimeMillis() - started) + "ms.");
+        System.out.println("data_dir=" + data.toAbsolutePath() + "/");
+        System.out.println("user_data=" + output.resolve("users").toAbsolutePath());
+        System.out.println("permission_data=" + output.resolve("permissions").toAbsolutePath());
+        System.out.println("Every user's password is \"" + PASSWORD + "\".");
+    }
+
+    private void version(Random random, Consumer<GeneratedFile> out, String group, String artifact, String version, List<String[]> published) {
+        String base = group + "/" + artifact + "/" + version + "/" + artifact + "-" + version;
+        // Parents and BOMs are only a POM.
+        boolean pomOnly = random.nextDouble() < 0.08;
+        file(out, base + ".pom", pom(random, group, artifact, version, pomOnly, published));
+        if (pomOnly)
+            return;
+
+        long jar = logNormal(random, 40 * 1024, 1.6);
+        binary(out, base + ".jar", jar);
+        if (random.nextDouble() < 0.25)
+            file(out, base + ".module", module(group, artifact, version, jar));
+        if (random.nextDouble() < 0.6)
+            binary(out, base + "-sources.jar", (long) (jar * (0.3 + random.nextDouble() * 0.4)));
+        if (random.nextDouble() < 0.35)
+            binary(out, base + "-javadoc.jar", (long) (jar * (0.8 + random.nextDouble() * 0.8)));
+        if (random.nextDouble() < 0.03)
+            for (String natives : NATIVES)
+                binary(out, base + "-" + natives + ".jar", logNormal(random, 2 * 1024 * 1024, 1.0));
+    }
+
+    private void file(Consumer<GeneratedFile> out, String path, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.accept(new GeneratedFile(path, bytes.length, bytes));
+        checksums(out, path);
+    }
+
+    private void binary(Consumer<GeneratedFile> out, String path, long size) {
+        out.accept(new GeneratedFile(path, size, null));
+        checksums(out, path);
+    }
+
+    /**
+     * The checksums are made up, as binary files may not have real content to sum.
+     */
+    private void checksums(Consumer<GeneratedFile> out, String path) {
+        if (!checksums)
+            return;
+        int hash = path.hashCode();
+        out.accept(new GeneratedFile(path + ".sha1", 40, hex(hash, 40)));
+        out.accept(new GeneratedFile(path + ".md5", 32, hex(hash, 32)));
+    }
+
+    private static byte[] hex(int hash, int length) {
+        String digits = String.format("%08x", hash);
+        return digits.repeat(length / 8).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String pom(Random random, String group, String artifact, String version, boolean pomOnly, List<String[]> published) {
+        StringBuilder pom = new StringBuilder(1024);
+        pom.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project>\n  <modelVersion>4.0.0</modelVersion>\n")
+                .append("  <groupId>").append(group.replace('/', '.')).append("</groupId>\n")
+                .append("  <artifactId>").append(artifact).append("</artifactId>\n")
+                .append("  <version>").append(version).append("</version>\n");
+        if (pomOnly)
+            pom.append("  <packaging>pom</packaging>\n");
+
+        // Depend on a few artifacts from before this one, so the dependency graph has no cycles.
+        int dependencies = published.isEmpty() ? 0 : random.nextInt(7);
+        if (dependencies > 0) {
+            pom.append("  <dependencies>\n");
+            for (int i = 0; i < dependencies; i++) {
+                String[] dependency = published.get(random.nextInt(published.size()));
+                pom.append("    <dependency>\n")
+                        .append("      <groupId>").append(dependency[0].replace('/', '.')).append("</groupId>\n")
+                        .append("      <artifactId>").append(dependency[1]).append("</artifactId>\n")
+                        .append("      <version>").append(dependency[2]).append("</version>\n")
+                        .append("    </dependency>\n");
+            }
+            pom.append("  </dependencies>\n");
+        }
+        return pom.append("</project>\n").toString();
+    }
+
+    private static String metadata(String group, String artifact, List<String> versions) {
+        String latest = versions.get(versions.size() - 1);
+        String release = latest;
+        for (int i = versions.size() - 1; i >= 0; i--)
+            if (!versions.get(i).contains("-rc")) {
+                release = versions.get(i);
+                break;
+            }
+
+        StringBuilder metadata = new StringBuilder(256 + versions.size() * 32);
+        metadata.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata>\n")
+                .append("  <groupId>").append(group.replace('/', '.')).append("</groupId>\n")
+                .append("  <artifactId>").append(artifact).append("</artifactId>\n")
+                .append("  <versioning>\n")
+                .append("    <latest>").append(latest).append("</latest>\n")
+                .append("    <release>").append(release).append("</release>\n")
+                .append("    <versions>\n");
+        for (String version : versions)
+            metadata.append("      <version>").append(version).append("</version>\n");
+        return metadata.append("    </versions>\n    <lastUpdated>20240101120000</lastUpdated>\n  </versioning>\n</metadata>\n").toString();
+    }
+
+    private static String module(String group, String artifact, String version, long jarSize) {
+        return "{\n  \"formatVersion\": \"1.1\",\n  \"component\": { \"group\": \"" + group.replace('/', '.') + "\", \"module\": \""
+                + artifact + "\", \"version\": \"" + version + "\" },\n  \"variants\": [ { \"name\": \"runtimeElements\", \"files\": [ { \"name\": \""
+                + artifact + "-" + version + ".jar\", \"url\": \"" + artifact + "-" + version + ".jar\", \"size\": " + jarSize + " } ] } ]\n}\n";
+    }
+
+    private static String groupName(Random random, int index) {
+        String tld = TLDS[random.nextInt(TLDS.length)];
+        String organization = word(random) + index;
+        // Half of all groups are a project under an organization's domain.
+        return random.nextBoolean() ? tld + "/" + organization : tld + "/" + organization + "/" + word(random);
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    /**
+     * A whole number from 1 to max, usually small, sometimes very large (a Lomax distribution, shifted by one).
+     * @param scale Roughly how large most numbers are.
+     * @param shape How long the tail is. Smaller is longer.
+     */
+    private static int longTail(Random random, double scale, double shape, int max) {
+        double u = 1 - random.nextDouble();
+        return (int) Math.min(max, 1 + scale * (Math.pow(u, -1 / shape) - 1));
+    }
+
+    /**
+     * A file size that is usually near the median, but is sometimes many times larger or smaller.
+     */
+    private static long logNormal(Random random, long median, double sigma) {
+        return Math.max(64, Math.min(200L * 1024 * 1024, (long) (median * Math.exp(sigma * random.nextGaussian()))));
+    }
+}
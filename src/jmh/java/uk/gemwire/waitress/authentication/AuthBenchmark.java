@@ -0,0 +1,81 @@
+package uk.gemwire.waitress.authentication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gemwire.waitress.RepositoryGenerator;
+import uk.gemwire.waitress.authentication.entity.User;
+import uk.gemwire.waitress.config.Config;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding a user by name, which every authenticated request does before its password is checked.
+ * The users are loaded from a generated users file, the same way the server loads them.
+ *
+ * Users are global, so each count runs in its own fork.
+ *
+ * @author Curle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+// Loading users logs every organization, with every member.
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class AuthBenchmark {
+
+    @Param({ "10", "1000", "10000" })
+    public int users;
+
+    // A user in the middle of the list.
+    private String existing;
+
+    @Setup
+    public void setup() throws IOException {
+        Path directory = Files.createTempDirectory("waitress-auth");
+        directory.toFile().deleteOnExit();
+        Path userFile = directory.resolve("users");
+        Path permFile = directory.resolve("permissions");
+        // The hash is never checked, it only has to be there.
+        RepositoryGenerator.writeUsers(userFile, 16, 8, users, 4, "$2a$12$benchmark");
+        Files.createFile(permFile);
+        userFile.toFile().deleteOnExit();
+        permFile.toFile().deleteOnExit();
+
+        Config.ADMIN_USERNAME = "admin";
+        Config.ADMIN_HASH = "$2a$12$benchmark";
+        Config.USER_DATA = userFile.toString();
+        Config.PERM_DATA = permFile.toString();
+        Auth.setupAuth();
+        existing = "user-" + users / 2;
+    }
+
+    @Benchmark
+    public Optional<User> existing() throws CalledTooEarlyException {
+        return Auth.getUser(existing);
+    }
+
+    @Benchmark
+    public Optional<User> missing() throws CalledTooEarlyException {
+        return Auth.getUser("nobody");
+    }
+
+    @Benchmark
+    public Optional<User> anonymous() throws CalledTooEarlyException {
+        return Auth.getUser("anonymous");
+    }
+}
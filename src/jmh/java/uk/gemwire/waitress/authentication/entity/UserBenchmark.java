@@ -0,0 +1,90 @@
+package uk.gemwire.waitress.authentication.entity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gemwire.waitress.authentication.PermissionLevel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving a user's permission on an artifact, for users in one team up to users in dozens of teams across as many
+ *  organizations, each with a realistic number of overrides of their own.
+ *
+ * @author Curle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserBenchmark {
+
+    // How many teams the user is in. Each team is in its own organization.
+    @Param({ "1", "8", "64" })
+    public int teams;
+
+    // How many group and artifact overrides every team and organization has, besides the ones being looked up.
+    @Param({ "64" })
+    public int overrides;
+
+    private User user;
+
+    @Setup
+    public void setup() {
+        user = new User("user");
+        user.addGroupOverride("user/group", PermissionLevel.WRITE);
+
+        Organization org = null;
+        for (int t = 0; t < teams; t++) {
+            org = new Organization("org-" + t);
+            Team team = new Team("team-" + t, org);
+            org.addTeam(team);
+            team.addUser(user);
+            user.addTeam(team);
+
+            for (int o = 0; o < overrides; o++) {
+                team.addGroupOverride("team" + t + "/group" + o, PermissionLevel.READ);
+                team.addArtifactOverride("team" + t + "/group" + o, "artifact" + o, PermissionLevel.WRITE);
+                org.addGroupOverride("org" + t + "/group" + o, PermissionLevel.READ);
+                org.addArtifactOverride("org" + t + "/group" + o, "artifact" + o, PermissionLevel.WRITE);
+            }
+        }
+
+        // Only the last organization knows about this group, so every team has to be asked.
+        org.addGroupOverride("shared/group", PermissionLevel.MANAGE);
+    }
+
+    /**
+     * The user has an override of their own, so no team is asked.
+     */
+    @Benchmark
+    public PermissionLevel userOverride() {
+        return user.getPermissionFor("user/group", "artifact");
+    }
+
+    /**
+     * Granted by the organization of the last team.
+     */
+    @Benchmark
+    public PermissionLevel organizationGrant() {
+        return user.getPermissionFor("shared/group", "artifact");
+    }
+
+    /**
+     * Nothing applies, which is what most anonymous and unrelated lookups are.
+     */
+    @Benchmark
+    public PermissionLevel noGrant() {
+        return user.getPermissionFor("unrelated/group", "artifact");
+    }
+}
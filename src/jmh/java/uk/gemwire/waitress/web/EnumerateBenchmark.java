@@ -0,0 +1,70 @@
+package uk.gemwire.waitress.web;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gemwire.waitress.Fixtures;
+import uk.gemwire.waitress.RepositoryGenerator;
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.web.storage.Storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Indexing the data directory on startup, for generated repositories of a few thousand to a few hundred thousand
+ *  artifacts. Files are empty, as only their names are read.
+ *
+ * The first run reads the disk cold-ish, later ones from the page cache, as a restart would.
+ *
+ * @author Curle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class EnumerateBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int groups;
+
+    private Path directory;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("waitress-enumerate");
+        new RepositoryGenerator(groups, false, Fixtures.SEED).writeTree(directory, RepositoryGenerator.Content.EMPTY);
+        Config.DATA_DIR = directory + "/";
+        Config.STORAGE = "file";
+        Config.BLOB_STORE = false;
+        Waitress.storage = Storage.create();
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void enumerate() {
+        RepoCache.enumerate();
+    }
+}
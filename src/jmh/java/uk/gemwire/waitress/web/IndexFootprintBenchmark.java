@@ -0,0 +1,87 @@
+package uk.gemwire.waitress.web;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gemwire.waitress.Fixtures;
+import uk.gemwire.waitress.config.Config;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How much heap the index takes, and how long it takes to fill, at a million files.
+ * The mapped index is written to a new temporary folder in each fork, so only what it keeps on the heap is counted.
+ *
+ * The heap is measured after a full collection, before and after every file is tracked, and reported as the
+ *  "heapBytes" counter. The index and its string tables are global, so each measurement is a fork of its own.
+ *
+ * @author Curle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 3, jvmArgsAppend = { "-Xmx4g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+public class IndexFootprintBenchmark {
+
+    // 84000 artifacts of 5 versions is about a million files.
+    @Param({ "84000" })
+    public int artifacts;
+
+    @Param({ "5" })
+    public int versions;
+
+    // Which index to fill. See Config.INDEX.
+    @Param({ "heap", "mapped" })
+    public String index;
+
+    private List<String> paths;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long files;
+        public long heapBytes;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        if (index.equals("mapped")) {
+            Config.INDEX = index;
+            Config.DATA_DIR = Files.createTempDirectory("waitress-index") + "/";
+            RepoCache.open();
+        }
+        paths = Fixtures.paths(artifacts, versions);
+    }
+
+    @Benchmark
+    public void track(Footprint footprint) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long before = used(memory);
+        paths.forEach(RepoCache::track);
+        footprint.files = paths.size();
+        footprint.heapBytes = used(memory) - before;
+    }
+
+    private static long used(MemoryMXBean memory) {
+        // A few times, as one collection may not free everything that is unreachable.
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,100 @@
+package uk.gemwire.waitress.web;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gemwire.waitress.Fixtures;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.web.repository.Artifact;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up requested files in the index, at the sizes of a small, a medium and a large repository.
+ *
+ * The index is global, so each size and kind of index runs in its own fork.
+ *
+ * @author Curle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepoCacheBenchmark {
+
+    // Must be a power of two.
+    private static final int LOOKUPS = 4096;
+
+    @Param({ "1000", "20000", "200000" })
+    public int artifacts;
+
+    // How many versions each artifact has.
+    @Param({ "5" })
+    public int versions;
+
+    // Which index to fill. See Config.INDEX.
+    @Param({ "heap", "mapped" })
+    public String index;
+
+    private MavenCoordinate[] hits;
+    private MavenCoordinate[] misses;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = 0;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        if (index.equals("mapped")) {
+            Config.INDEX = index;
+            Config.DATA_DIR = Files.createTempDirectory("waitress-index") + "/";
+            RepoCache.open();
+        }
+        List<String> paths = Fixtures.paths(artifacts, versions);
+        paths.forEach(RepoCache::track);
+
+        // Spread the lookups over the whole index, so they aren't all answered from the CPU cache.
+        hits = new MavenCoordinate[LOOKUPS];
+        misses = new MavenCoordinate[LOOKUPS];
+        int stride = Math.max(1, paths.size() / LOOKUPS);
+        for (int i = 0; i < LOOKUPS; i++) {
+            MavenCoordinate coordinate = MavenCoordinate.parse("/" + paths.get((i * stride) % paths.size()));
+            hits[i] = coordinate;
+            // A version of a tracked artifact that isn't.
+            misses[i] = new MavenCoordinate(coordinate.groupID(), coordinate.artifactID(), "999.0.0", "", "jar");
+        }
+    }
+
+    @Benchmark
+    public boolean containsHit(Cursor cursor) {
+        MavenCoordinate c = hits[cursor.next++ & (LOOKUPS - 1)];
+        return RepoCache.contains(c.groupID(), c.artifactID(), c.version(), c.classifier(), c.extension());
+    }
+
+    @Benchmark
+    public boolean containsMiss(Cursor cursor) {
+        MavenCoordinate c = misses[cursor.next++ & (LOOKUPS - 1)];
+        return RepoCache.contains(c.groupID(), c.artifactID(), c.version(), c.classifier(), c.extension());
+    }
+
+    @Benchmark
+    public Artifact get(Cursor cursor) {
+        MavenCoordinate c = hits[cursor.next++ & (LOOKUPS - 1)];
+        return RepoCache.get(c.groupID(), c.artifactID());
+    }
+}
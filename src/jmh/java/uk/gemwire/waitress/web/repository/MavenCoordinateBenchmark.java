@@ -0,0 +1,73 @@
+package uk.gemwire.waitress.web.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gemwire.waitress.Fixtures;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the path of every request into a coordinate.
+ * This is all that Server.parseCoordinate does for a request that is a coordinate, so it stands in for it.
+ *
+ * @author Curle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MavenCoordinateBenchmark {
+
+    // Must be a power of two.
+    private static final int PATHS = 1024;
+
+    private String[] releases;
+    private String[] snapshots;
+    private String[] others;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        List<String> paths = Fixtures.paths(PATHS, 1);
+        releases = new String[PATHS];
+        snapshots = new String[PATHS];
+        others = new String[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            String path = "/" + paths.get(i);
+            releases[i] = path;
+            // The same files, as timestamped snapshots.
+            String folder = path.substring(0, path.lastIndexOf('/'));
+            String version = folder.substring(folder.lastIndexOf('/') + 1);
+            String file = path.substring(folder.length());
+            snapshots[i] = folder + "-SNAPSHOT" + file.replace("-" + version, "-" + version + "-20240101.120000-" + (i + 1));
+            // Not coordinates, which fall through to the endpoints.
+            others[i] = folder + "/maven-metadata.xml";
+        }
+    }
+
+    @Benchmark
+    public MavenCoordinate release() {
+        return MavenCoordinate.parse(releases[next++ & (PATHS - 1)]);
+    }
+
+    @Benchmark
+    public MavenCoordinate snapshot() {
+        return MavenCoordinate.parse(snapshots[next++ & (PATHS - 1)]);
+    }
+
+    @Benchmark
+    public MavenCoordinate notCoordinate() {
+        return MavenCoordinate.parse(others[next++ & (PATHS - 1)]);
+    }
+}
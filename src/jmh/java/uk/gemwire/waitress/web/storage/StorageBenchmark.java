@@ -0,0 +1,78 @@
+package uk.gemwire.waitress.web.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gemwire.waitress.Fixtures;
+import uk.gemwire.waitress.config.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Serving a stored file: opening it and copying every byte out, as a response does.
+ * Small files are the size of a POM or checksum, large ones the size of a big jar.
+ *
+ * The network isn't involved, so this is the cost the server itself adds to a cache hit.
+ *
+ * @author Curle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+    private static final String PATH = "com/example/core/1.0.0/core-1.0.0.jar";
+
+    @Param({ "file", "packed" })
+    public String storage;
+
+    @Param({ "2048", "33554432" })
+    public int size;
+
+    private Path directory;
+    private Storage store;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("waitress-storage");
+        Config.DATA_DIR = directory + "/";
+        Config.STORAGE = storage;
+        Config.BLOB_STORE = false;
+        store = Storage.create();
+        store.write(PATH, new ByteArrayInputStream(Fixtures.content(size)));
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long serve() throws IOException {
+        try (InputStream stream = store.read(PATH)) {
+            return stream.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+}
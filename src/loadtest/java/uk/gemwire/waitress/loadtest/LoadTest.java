@@ -0,0 +1,364 @@
+package uk.gemwire.waitress.loadtest;
+
+import at.favre.lib.crypto.bcrypt.BCrypt;
+import uk.gemwire.waitress.Fixtures;
+import uk.gemwire.waitress.RepositoryGenerator;
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.authentication.Auth;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.AccessLog;
+import uk.gemwire.waitress.web.ProxyChecker;
+import uk.gemwire.waitress.web.RepoCache;
+import uk.gemwire.waitress.web.Server;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.storage.Storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Load tests a Waitress server, all on one machine, without touching the network.
+ *
+ * A repository is generated (by {@link RepositoryGenerator}) into a temporary data directory, and a {@link Server} is started on it in this process,
+ *  proxying an {@link Upstream} that is also in this process. Then a number of threads send requests as fast as the
+ *  server answers them, for a fixed time, and the throughput and latency of each kind of request is reported.
+ *
+ * The kinds of request are:
+ *  - hot: a GET for a file that is already cached.
+ *  - head: a HEAD for a file that is already cached.
+ *  - cold: a GET for a file that has never been requested, so it has to be fetched from upstream.
+ *  - put: an upload of a new file.
+ *  - large: a GET for one of the largest cached files. Only sent by their own threads, to see how the large
+ *     downloads of a few clients affect everyone else's.
+ * Some GETs and HEADs are sent with credentials, which costs a password check. Uploads and large GETs always are.
+ *
+ * Options are given as --name=value. See {@link #DEFAULTS} for the names and their defaults.
+ *
+ * @author Curle
+ */
+public class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        // How many threads send requests, and for how long, after how long warming up (which isn't measured).
+        DEFAULTS.put("threads", "32");
+        // How many more threads only send cold requests. With a slow upstream, these tie up the server while the
+        //  others measure how well it keeps answering everything else.
+        DEFAULTS.put("slow-threads", "0");
+        // How many more threads only download files larger than the bandwidth scheduler's bypass size.
+        DEFAULTS.put("large-threads", "0");
+        DEFAULTS.put("seconds", "30");
+        DEFAULTS.put("warmup", "5");
+        // The size of the generated repository (see RepositoryGenerator), and the largest file it may have.
+        DEFAULTS.put("groups", "10");
+        DEFAULTS.put("max-file-bytes", "4194304");
+        // The size of the jars upstream.
+        DEFAULTS.put("jar-bytes", "65536");
+        // How often each kind of request is sent, relative to the others.
+        DEFAULTS.put("hot", "70");
+        DEFAULTS.put("head", "15");
+        DEFAULTS.put("cold", "5");
+        DEFAULTS.put("put", "10");
+        // The fraction of GETs and HEADs that are sent with credentials, and the cost of checking them.
+        DEFAULTS.put("authenticated", "0.2");
+        DEFAULTS.put("bcrypt-cost", "12");
+        // How the upstream behaves.
+        DEFAULTS.put("latency-ms", "50");
+        DEFAULTS.put("error-rate", "0.01");
+        // How the server is configured.
+        DEFAULTS.put("storage", "file");
+        DEFAULTS.put("execution", "platform");
+        DEFAULTS.put("precompress", "false");
+        DEFAULTS.put("bandwidth-scheduling", "false");
+        DEFAULTS.put("egress-bytes-per-second", "0");
+    }
+
+    private static final String USERNAME = "loader";
+    private static final String PASSWORD = "loadtest";
+    private static final String UPLOAD_GROUP = "loadtest/upload";
+
+    private enum Kind { HOT, HEAD, COLD, PUT, LARGE }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            if (parts.length != 2 || !DEFAULTS.containsKey(parts[0])) {
+                System.err.println("Unknown option " + arg + ". Options are " + new TreeSet<>(DEFAULTS.keySet()));
+                System.exit(-1);
+            }
+            options.put(parts[0], parts[1]);
+        }
+
+        Path directory = Files.createTempDirectory("waitress-loadtest");
+        Upstream upstream = new Upstream(Long.parseLong(options.get("latency-ms")), Double.parseDouble(options.get("error-rate")),
+                Integer.parseInt(options.get("jar-bytes")));
+        upstream.start();
+
+        int exitCode = 0;
+        try {
+            List<String> large = new ArrayList<>();
+            List<String> hot = setup(directory, options, upstream.url(), large);
+            Server.start();
+
+            Map<Kind, Recorder> results = new HashMap<>();
+            Map<Boolean, Recorder> byAuthentication = new HashMap<>();
+            double seconds = run(options, hot, large, results, byAuthentication);
+            report(options, seconds, results, byAuthentication, upstream);
+        } catch (Exception e) {
+            e.printStackTrace();
+            exitCode = -1;
+        } finally {
+            Server.stop();
+            upstream.stop();
+            delete(directory);
+        }
+
+        // The server leaves background threads behind.
+        System.exit(exitCode);
+    }
+
+    /**
+     * Generate the repository, users and permissions, and load them the same way the server does on startup.
+     * @param large Filled with the paths of the cached files that are larger than the bandwidth scheduler's bypass size.
+     * @return The paths of the cached files.
+     */
+    private static List<String> setup(Path directory, Map<String, String> options, String upstream, List<String> large) throws Exception {
+        Path data = Files.createDirectories(directory.resolve("data"));
+        Config.DATA_DIR = data + "/";
+        Config.STORAGE = options.get("storage");
+        Config.EXECUTION = options.get("execution");
+        Config.PRECOMPRESS = Boolean.parseBoolean(options.get("precompress"));
+        Config.BANDWIDTH_SCHEDULING = Boolean.parseBoolean(options.get("bandwidth-scheduling"));
+        Config.EGRESS_BYTES_PER_SECOND = Long.parseLong(options.get("egress-bytes-per-second"));
+        Config.SHOULD_PROXY = true;
+        Config.PROXY_REPO = upstream;
+        Config.PREFETCH = false;
+        Config.ACCESS_LOG = directory.resolve("access.log").toString();
+        Config.SLOW_REQUEST_MILLIS = -1;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            Config.LISTEN_PORT = socket.getLocalPort();
+        }
+
+        Waitress.storage = Storage.create();
+        RepositoryGenerator generator = new RepositoryGenerator(Integer.parseInt(options.get("groups")), true, Fixtures.SEED);
+        long maxSize = Long.parseLong(options.get("max-file-bytes"));
+        List<String> paths = new ArrayList<>();
+        generator.generate(file -> {
+            try (InputStream content = file.text() != null ? new ByteArrayInputStream(file.text()) : RepositoryGenerator.content(Math.min(file.size(), maxSize))) {
+                Waitress.storage.write(file.path(), content);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // Only coordinates are requested. Metadata and checksums are there to be realistic.
+            if (MavenCoordinate.parse("/" + file.path()) != null && !file.path().endsWith(".sha1") && !file.path().endsWith(".md5")) {
+                paths.add(file.path());
+                if (Math.min(file.size(), maxSize) > Config.BANDWIDTH_BYPASS_SIZE)
+                    large.add(file.path());
+            }
+        });
+
+        String hash = new String(BCrypt.withDefaults().hash(Integer.parseInt(options.get("bcrypt-cost")), PASSWORD.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+        Path users = directory.resolve("users");
+        Files.writeString(users, "ORGN loadtest\nTEAM loaders[loadtest]\n\n" + USERNAME + " " + hash + " loaders\n");
+
+        // Group overrides are per group, so every generated group has to be listed.
+        Path permissions = directory.resolve("permissions");
+        try (Writer writer = Files.newBufferedWriter(permissions)) {
+            for (String group : generator.groups())
+                writer.write(group + " " + 2 + " (anonymous) {loaders}\n");
+            writer.write(UPLOAD_GROUP + " " + 3 + " {loaders}\n");
+        }
+
+        Config.ADMIN_USERNAME = "admin";
+        Config.ADMIN_HASH = hash;
+        Config.USER_DATA = users.toString();
+        Config.PERM_DATA = permissions.toString();
+
+        Auth.setupAuth();
+        RepoCache.enumerate();
+        Waitress.checker = new ProxyChecker(() -> {});
+        if (!Waitress.checker.check())
+            throw new IllegalStateException("The stand-in upstream at " + upstream + " isn't answering.");
+        AccessLog.start();
+        return paths;
+    }
+
+    /**
+     * Send requests from every thread until the time is up.
+     * @return How many seconds were measured.
+     */
+    private static double run(Map<String, String> options, List<String> hot, List<String> large, Map<Kind, Recorder> results, Map<Boolean, Recorder> byAuthentication) throws InterruptedException {
+        int threads = Integer.parseInt(options.get("threads"));
+        int slowThreads = Integer.parseInt(options.get("slow-threads"));
+        int largeThreads = Integer.parseInt(options.get("large-threads"));
+        if (largeThreads > 0 && large.isEmpty())
+            throw new IllegalArgumentException("No generated file is larger than " + Config.BANDWIDTH_BYPASS_SIZE + " bytes. Raise --max-file-bytes.");
+        int[] mixed = new int[Kind.values().length];
+        for (Kind kind : Kind.values())
+            if (kind != Kind.LARGE)
+                mixed[kind.ordinal()] = Integer.parseInt(options.get(kind.name().toLowerCase()));
+        int[] coldOnly = new int[Kind.values().length];
+        coldOnly[Kind.COLD.ordinal()] = 1;
+        int[] largeOnly = new int[Kind.values().length];
+        largeOnly[Kind.LARGE.ordinal()] = 1;
+        double authenticated = Double.parseDouble(options.get("authenticated"));
+
+        String base = "http://127.0.0.1:" + Config.LISTEN_PORT + "/";
+        String credentials = "Basic " + Base64.getEncoder().encodeToString((USERNAME + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(10)).build();
+
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("warmup")));
+        long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("seconds")));
+
+        List<Thread> workers = new ArrayList<>();
+        List<Recorder[]> recorders = new ArrayList<>();
+        for (int t = 0; t < threads + slowThreads + largeThreads; t++) {
+            final int thread = t;
+            final int[] weights = t < threads ? mixed : t < threads + slowThreads ? coldOnly : largeOnly;
+            final Recorder[] recorder = new Recorder[Kind.values().length * 2];
+            for (int i = 0; i < recorder.length; i++)
+                recorder[i] = new Recorder();
+            recorders.add(recorder);
+
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long sequence = 0;
+                while (true) {
+                    long started = System.nanoTime();
+                    if (started >= measureUntil)
+                        return;
+
+                    Kind kind = pick(weights, random);
+                    boolean authenticate = kind == Kind.PUT || kind == Kind.LARGE || random.nextDouble() < authenticated;
+                    HttpRequest.Builder request = switch (kind) {
+                        case HOT -> HttpRequest.newBuilder(URI.create(base + hot.get(random.nextInt(hot.size())))).GET();
+                        case HEAD -> HttpRequest.newBuilder(URI.create(base + hot.get(random.nextInt(hot.size()))))
+                                .method("HEAD", HttpRequest.BodyPublishers.noBody());
+                        case COLD -> HttpRequest.newBuilder(URI.create(base + "cold/t" + thread + "/a" + sequence + "/1.0/a" + sequence + "-1.0.jar")).GET();
+                        case PUT -> upload(base, "a-" + thread + "-" + sequence);
+                        case LARGE -> HttpRequest.newBuilder(URI.create(base + large.get(random.nextInt(large.size())))).GET();
+                    };
+                    sequence++;
+                    if (authenticate)
+                        request.header("Authorization", credentials);
+
+                    int status;
+                    try {
+                        status = client.send(request.timeout(Duration.ofSeconds(60)).build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        status = 0;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    long ended = System.nanoTime();
+                    if (started >= measureFrom && ended <= measureUntil)
+                        recorder[kind.ordinal() * 2 + (authenticate ? 1 : 0)].record(ended - started, status);
+                }
+            }, "load " + t);
+            worker.start();
+            workers.add(worker);
+        }
+
+        for (Thread worker : workers)
+            worker.join();
+
+        for (Kind kind : Kind.values()) {
+            Recorder total = new Recorder();
+            for (Recorder[] recorder : recorders) {
+                for (int auth = 0; auth < 2; auth++) {
+                    Recorder part = recorder[kind.ordinal() * 2 + auth];
+                    total.merge(part);
+                    byAuthentication.computeIfAbsent(auth == 1, a -> new Recorder()).merge(part);
+                }
+            }
+            results.put(kind, total);
+        }
+        return (measureUntil - measureFrom) / 1e9;
+    }
+
+    private static Kind pick(int[] weights, ThreadLocalRandom random) {
+        int total = 0;
+        for (int weight : weights)
+            total += weight;
+        int roll = random.nextInt(total);
+        for (Kind kind : Kind.values()) {
+            roll -= weights[kind.ordinal()];
+            if (roll < 0)
+                return kind;
+        }
+        return Kind.HOT;
+    }
+
+    /**
+     * An upload of a small jar, as a multipart form with the file named as the server expects.
+     */
+    private static HttpRequest.Builder upload(String base, String artifact) {
+        String name = artifact + "-1.0.jar";
+        String boundary = "waitress" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + name + "\"; filename=\"" + name
+                + "\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(Fixtures.content(4096));
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        return HttpRequest.newBuilder(URI.create(base + UPLOAD_GROUP + "/" + artifact + "/1.0/" + name))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()));
+    }
+
+    private static void report(Map<String, String> options, double seconds, Map<Kind, Recorder> results, Map<Boolean, Recorder> byAuthentication, Upstream upstream) {
+        System.out.println();
+        System.out.println("Waitress load test: " + new TreeMap<>(options));
+        System.out.printf("%-14s %9s %9s %9s %9s %9s %9s %9s  %s%n", "request", "count", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "statuses");
+
+        Recorder all = new Recorder();
+        for (Kind kind : Kind.values()) {
+            row(kind.name().toLowerCase(), results.get(kind), seconds);
+            all.merge(results.get(kind));
+        }
+        row("anonymous", byAuthentication.get(false), seconds);
+        row("authenticated", byAuthentication.get(true), seconds);
+        row("all", all, seconds);
+
+        System.out.printf("Upstream: %d requests, %d failed on purpose.%n", upstream.requests.sum(), upstream.errors.sum());
+    }
+
+    private static void row(String name, Recorder recorder, double seconds) {
+        long[] values = recorder.percentiles(0.5, 0.9, 0.99, 0.999, 1);
+        System.out.printf("%-14s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f  %s%n", name, recorder.count(), recorder.count() / seconds,
+                values[0] / 1e6, values[1] / 1e6, values[2] / 1e6, values[3] / 1e6, values[4] / 1e6, recorder.statuses());
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
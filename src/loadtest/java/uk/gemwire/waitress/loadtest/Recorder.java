@@ -0,0 +1,57 @@
+package uk.gemwire.waitress.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Every latency measured for one kind of request, by one load thread.
+ * Latencies are kept exactly rather than bucketed, so the percentiles are exact too. A few million longs is nothing.
+ *
+ * Recorders are only touched by their own thread until the run is over, and are then merged.
+ *
+ * @author Curle
+ */
+class Recorder {
+
+    private long[] latencies = new long[4096];
+    private int count = 0;
+    // Status code -> how many responses had it. 0 is a request that failed without a response.
+    private final Map<Integer, Long> statuses = new TreeMap<>();
+
+    void record(long nanos, int status) {
+        if (count == latencies.length)
+            latencies = Arrays.copyOf(latencies, count * 2);
+        latencies[count++] = nanos;
+        statuses.merge(status, 1L, Long::sum);
+    }
+
+    void merge(Recorder other) {
+        if (count + other.count > latencies.length)
+            latencies = Arrays.copyOf(latencies, count + other.count);
+        System.arraycopy(other.latencies, 0, latencies, count, other.count);
+        count += other.count;
+        other.statuses.forEach((status, n) -> statuses.merge(status, n, Long::sum));
+    }
+
+    int count() {
+        return count;
+    }
+
+    Map<Integer, Long> statuses() {
+        return statuses;
+    }
+
+    /**
+     * @param fractions The percentiles to read, as fractions, ie. 0.99.
+     * @return The latency, in nanoseconds, at each percentile.
+     */
+    long[] percentiles(double... fractions) {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        long[] values = new long[fractions.length];
+        for (int i = 0; i < fractions.length; i++)
+            values[i] = count == 0 ? 0 : sorted[(int) Math.max(0, Math.min(count - 1, Math.ceil(fractions[i] * count) - 1))];
+        return values;
+    }
+}
@@ -0,0 +1,116 @@
+package uk.gemwire.waitress.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import uk.gemwire.waitress.Fixtures;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stand-in for the proxied repository, so the load test never leaves the machine.
+ *
+ * Every coordinate exists: the file is made up on the spot, with a size that depends on its extension.
+ * Anything else (ie. metadata) is a 404.
+ *
+ * Each response is held back by the configured latency, give or take half of it, and a configured fraction of
+ *  requests fail with a 500 instead, to see how the server copes with a slow or unreliable upstream.
+ *
+ * @author Curle
+ */
+public class Upstream {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final double errorRate;
+    private final byte[] pom;
+    private final byte[] jar;
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder errors = new LongAdder();
+
+    /**
+     * @param latencyMillis How long each response takes, on average.
+     * @param errorRate The fraction of requests, from 0 to 1, that fail.
+     * @param jarBytes How large jars are. POMs are always 2KB.
+     */
+    public Upstream(long latencyMillis, double errorRate, int jarBytes) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.pom = Fixtures.content(2048);
+        this.jar = Fixtures.content(jarBytes);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        // Latency is spent sleeping, so there must be enough threads that it doesn't turn into queueing.
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "upstream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return The URL to configure as the proxied repository, with a trailing slash.
+     */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            // The proxy checker asks for the root.
+            if (path.equals("/")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (latencyMillis > 0)
+                Thread.sleep(latencyMillis / 2 + random.nextLong(latencyMillis + 1));
+
+            if (random.nextDouble() < errorRate) {
+                errors.increment();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            MavenCoordinate coordinate = MavenCoordinate.parse(path);
+            if (coordinate == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            byte[] content = coordinate.extension().equals("jar") ? jar : pom;
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            exchange.sendResponseHeaders(200, head ? -1 : content.length);
+            if (!head) {
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(content);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
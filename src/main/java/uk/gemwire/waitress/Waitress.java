@@ -5,9 +5,21 @@ import org.slf4j.LoggerFactory;
 import uk.gemwire.waitress.authentication.Auth;
 import uk.gemwire.waitress.config.Config;
 import uk.gemwire.waitress.config.TOMLReader;
+import uk.gemwire.waitress.metrics.AccessLog;
+import uk.gemwire.waitress.metrics.Tracer;
+import uk.gemwire.waitress.web.Peers;
 import uk.gemwire.waitress.web.ProxyChecker;
+import uk.gemwire.waitress.web.RateLimiter;
 import uk.gemwire.waitress.web.RepoCache;
+import uk.gemwire.waitress.web.Replication;
+import uk.gemwire.waitress.web.Repositories;
 import uk.gemwire.waitress.web.Server;
+import uk.gemwire.waitress.web.SnapshotCleaner;
+import uk.gemwire.waitress.web.WarmupJob;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.storage.BlobStore;
+import uk.gemwire.waitress.web.storage.PackedStorage;
+import uk.gemwire.waitress.web.storage.Storage;
 
 import java.io.FileReader;
 import java.io.IOException;
@@ -15,6 +27,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Entry point to the Waitress repository manager.
@@ -42,10 +55,13 @@ public class Waitress {
     // Anonymous logger instance for the tool.
     public static final Logger LOGGER = LoggerFactory.getLogger("Waitress");
     public static ProxyChecker checker;
+    // Where the repository files live. See {@link Storage#create()}.
+    public static Storage storage;
 
     /**
      * Requires one argument.
      * If hash-password, then jump to the {@link #hashPassword(String)} function.
+     * If warmup (alongside cfg), then jump to the {@link #warmup(String, String)} function.
      * If cfg, then jump to the {@link #setup(String)} function.
      * If none, then jump to the {@link #instructUsage} function.
      *
@@ -53,6 +69,14 @@ public class Waitress {
      *
      */
     public static void main(String[] args) {
+        // Warm-up needs the config too, so it has to be found before cfg starts the server.
+        for(String arg : args) {
+            if(arg.startsWith("-warmup"))
+                for(String cfg : args)
+                    if(cfg.startsWith("-cfg"))
+                        warmup(cfg, arg);
+        }
+
         for(String arg : args) {
             if(arg.startsWith("-hash-password"))
                 hashPassword(arg);
@@ -73,28 +97,25 @@ public class Waitress {
      * @param argument the command line argument to parse.
      */
     private static void setup(String argument) {
-        // Get the directory from the argument
-        String[] parts = argument.split("=");
-        if(parts.length != 2) {
-            System.err.println("The cfg argument requires a =PATH_TO_FILE segment.");
-            return;
-        }
-
         try {
-            // Read Config
-            HashMap<String, String> map = TOMLReader.read(new FileReader(parts[1]));
-            // Read config into the {@link Config} fields
-            Config.set(map);
-            // Prepare password authentication maps.
-            Auth.setupAuth();
-            // Cache all known repositories.
-            RepoCache.enumerate();
+            if(!bootstrap(argument))
+                return;
 
             LOGGER.info("Set up. Starting route management.");
             // Start the server with the loaded config.
             checker = new ProxyChecker(() -> Waitress.LOGGER.warn("Proxy checker thread has interrupted!"));
             checker.start();
+            BlobStore.startCollector();
+            Tracer.startExporter();
+            AccessLog.start();
+            RateLimiter.startSweeper();
+            Replication.start();
+            SnapshotCleaner.start();
+            if(storage instanceof PackedStorage packed)
+                packed.startCompactor();
             Server.start();
+            // The server runs on its own threads. Keep this one alive until we're killed.
+            Thread.currentThread().join();
         } catch (Exception exc) {
             System.err.println(exc.getMessage());
         }
@@ -102,6 +123,84 @@ public class Waitress {
         System.exit(0);
     }
 
+    /**
+     * Read the config file, then download every file in the given list into the cache and exit.
+     * The server is not started.
+     *
+     * The arguments are expected to be in the form <code>cfg=FILE_LOCATION</code> and <code>warmup=FILE_LOCATION</code>.
+     * @param cfgArgument the cfg command line argument.
+     * @param listArgument the warmup command line argument.
+     */
+    private static void warmup(String cfgArgument, String listArgument) {
+        String[] parts = listArgument.split("=");
+        if(parts.length != 2) {
+            System.err.println("The warmup argument requires a =PATH_TO_FILE segment.");
+            System.exit(0);
+        }
+
+        int exitCode = 0;
+        try {
+            if(!bootstrap(cfgArgument))
+                System.exit(0);
+
+            List<MavenCoordinate> coordinates = WarmupJob.parse(Files.readAllLines(Paths.get(parts[1])));
+
+            checker = new ProxyChecker(() -> Waitress.LOGGER.warn("Proxy checker thread has interrupted!"));
+            if(!checker.check()) {
+                System.err.println("The proxy at " + Config.PROXY_REPO + " is not reachable. Nothing can be warmed up.");
+                System.exit(-1);
+            }
+
+            WarmupJob job = new WarmupJob(coordinates, Config.WARMUP_THREADS, Config.WARMUP_RETRIES);
+            job.start();
+            job.await();
+            if(job.hasFailures())
+                exitCode = -1;
+        } catch (Exception exc) {
+            System.err.println(exc.getMessage());
+            exitCode = -1;
+        }
+
+        System.exit(exitCode);
+    }
+
+    /**
+     * Load everything the server needs, but don't start it.
+     * Reads the config file, prepares authentication, and indexes the data directory.
+     *
+     * The argument is expected to be in the form <code>cfg=FILE_LOCATION</code>.
+     * @param argument the command line argument to parse.
+     * @return false if the argument was invalid.
+     */
+    private static boolean bootstrap(String argument) throws IOException {
+        // Get the directory from the argument
+        String[] parts = argument.split("=");
+        if(parts.length != 2) {
+            System.err.println("The cfg argument requires a =PATH_TO_FILE segment.");
+            return false;
+        }
+
+        // Read Config
+        HashMap<String, String> map = TOMLReader.read(new FileReader(parts[1]));
+        // Read config into the {@link Config} fields
+        Config.set(map);
+        // Prepare password authentication maps.
+        Auth.setupAuth();
+        // Open the repository files.
+        storage = Storage.create();
+        // Read the named repositories, so that virtual ones are routed as the cache is filled.
+        Repositories.setup();
+        // Cache all known repositories.
+        RepoCache.open();
+        if (Config.BACKGROUND_INDEXING)
+            RepoCache.enumerateInBackground();
+        else
+            RepoCache.enumerate();
+        // Find out who else shares the cache.
+        Peers.setup();
+        return true;
+    }
+
     /**
      * Hash the password in the given folder, and write it in-place.
      * BCrypt is used for hashing.
@@ -156,8 +255,10 @@ public class Waitress {
           System.err.println("""
             Waitress Repository Manager v1 - Gemwire Institute
             ***************************************
-            Usage: java -jar waitress.jar [-cfg=FILE | -hash-password=FILE]
+            Usage: java -jar waitress.jar [-cfg=FILE [-warmup=FILE] | -hash-password=FILE]
                    -cfg: Bootstrap Configuration File. Required for startup.
+                   -warmup: Download every artifact in the given list or lockfile into the cache, then exit.
+                                    Requires -cfg. The server is not started.
                    -hash-password: Take the text in the given file and hash it in-place.
                                     Use this hash in the configuration file to determine the administrator's password.
             """);
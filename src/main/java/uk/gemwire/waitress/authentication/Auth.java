@@ -7,6 +7,7 @@ import uk.gemwire.waitress.authentication.entity.Organization;
 import uk.gemwire.waitress.authentication.entity.Team;
 import uk.gemwire.waitress.authentication.entity.User;
 import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -137,7 +138,10 @@ public final class Auth {
         if (optional.isEmpty())
             throw new NoSuchElementException("User " + username + " does not exist.");
 
-        return BCrypt.verifyer().verify(password.getBytes(StandardCharsets.UTF_8), users.get(optional.get())).verified;
+        long started = System.nanoTime();
+        boolean verified = BCrypt.verifyer().verify(password.getBytes(StandardCharsets.UTF_8), users.get(optional.get())).verified;
+        Metrics.PASSWORD_VERIFY_DURATION.observeSince(started);
+        return verified;
     }
 
     /**
@@ -21,6 +21,152 @@ public final class Config {
     public static String USER_DATA = "";
     public static String PERM_DATA = "";
 
+    // What requests are handled on. "platform" for Jetty's pool of threads, "virtual" for a virtual thread each (Java 21+).
+    public static String EXECUTION = "platform";
+    // With virtual threads, how many requests may be handled at once. More wait their turn. 0 for no limit.
+    public static int MAX_CONCURRENT_REQUESTS = 10000;
+    // Whether to limit how many requests are handled at once by how long they're taking, and turn away the rest.
+    public static boolean ADAPTIVE_CONCURRENCY = false;
+    // The bounds of the adaptive limit.
+    public static int ADAPTIVE_MIN_CONCURRENCY = 8;
+    public static int ADAPTIVE_MAX_CONCURRENCY = 1000;
+    // How many times slower than usual requests may get before the adaptive limit shrinks.
+    public static double ADAPTIVE_LATENCY_TOLERANCE = 1.5;
+
+    // How many requests a second each user may make for cached files, and for files fetched from the proxy. 0 for no limit.
+    public static double USER_HIT_RATE = 0;
+    public static double USER_MISS_RATE = 0;
+    // The same, for each client address, whoever is logged in.
+    public static double IP_HIT_RATE = 0;
+    public static double IP_MISS_RATE = 0;
+    // How many seconds' worth of requests a client that has been quiet may make at once.
+    public static double RATE_LIMIT_BURST_SECONDS = 10;
+
+    // Whether to share the disk and outgoing bandwidth fairly between clients downloading large files.
+    public static boolean BANDWIDTH_SCHEDULING = false;
+    // Files up to this many bytes are sent straight away, without waiting for a turn.
+    public static long BANDWIDTH_BYPASS_SIZE = 1024 * 1024;
+    // How many bytes of a large file are read in each turn.
+    public static int BANDWIDTH_CHUNK_SIZE = 64 * 1024;
+    // How many chunks may be read at once.
+    public static int BANDWIDTH_CONCURRENT_READS = 4;
+    // How many bytes a second may be sent, in total. 0 for no limit.
+    public static long EGRESS_BYTES_PER_SECOND = 0;
+    // Users that get a larger (or smaller) share than the default of 1, as "user:weight,user:weight".
+    public static String BANDWIDTH_WEIGHTS = "";
+
+    // How repository files are stored. "file" for a file each, "packed" to pack small files into segments.
+    public static String STORAGE = "file";
+    // With packed storage, files up to this many bytes are packed. Larger files are stored as a file each.
+    public static int PACKED_MAX_FILE_SIZE = 64 * 1024;
+    // With packed storage, how many bytes a segment may grow to before a new one is started.
+    public static long SEGMENT_SIZE = 64L * 1024 * 1024;
+    // With packed storage, how often (in minutes) to compact segments that are mostly replaced or deleted files.
+    public static long COMPACTION_MINUTES = 30;
+
+    // How many timestamped builds of each SNAPSHOT to keep. Older ones are removed in the background. 0 to keep them all.
+    public static int SNAPSHOT_KEEP_BUILDS = 0;
+    // Timestamped builds older than this many days are removed, except the newest of each SNAPSHOT. 0 to keep them all.
+    public static long SNAPSHOT_MAX_AGE_DAYS = 0;
+    // Groups whose SNAPSHOT builds are never removed, and everything under them, separated by commas. ie. "com/example".
+    public static String SNAPSHOT_PROTECTED_GROUPS = "";
+    // How often (in minutes) to look for SNAPSHOT builds to remove, and how many files may be removed a second.
+    public static long CLEANUP_MINUTES = 60;
+    public static double CLEANUP_FILES_PER_SECOND = 20;
+
+    // Where the index of stored files is kept. "heap" in memory, or "mapped" off the heap, in memory-mapped files in the
+    //  data directory that are kept between runs, so that starting doesn't have to list every stored file.
+    public static String INDEX = "heap";
+    // Whether to start serving before every stored file is indexed, and index in the background, most requested
+    //  groups first. Until it is done, files that aren't indexed yet are looked for in storage.
+    public static boolean BACKGROUND_INDEXING = false;
+    // Where load balancers may ask whether indexing is done. Answers 200 when it is, and 503 until then.
+    public static String READY_PATH = "/ready";
+
+    // Where every request is logged, one JSON object per line. Empty to not log requests.
+    public static String ACCESS_LOG = "";
+    // How large (in bytes) the access log may grow before it is rotated, and how many rotated logs are kept.
+    public static long ACCESS_LOG_MAX_BYTES = 64L * 1024 * 1024;
+    public static int ACCESS_LOG_FILES = 5;
+
+    // Requests that take longer than this (in milliseconds) are logged with where their time went. -1 to never log.
+    public static long SLOW_REQUEST_MILLIS = 1000;
+    // If set, every request is traced to this file, in the Chrome trace event format.
+    public static String TRACE_FILE = "";
+
+    // Whether to store compressed copies of text files when they're written, and serve them to clients that accept them.
+    public static boolean PRECOMPRESS = false;
+
+    // Whether to store file contents once by hash, and hardlink them into the repository tree.
+    public static boolean BLOB_STORE = false;
+    // How often (in minutes) to remove blobs that are no longer linked from anywhere.
+    public static long BLOB_GC_MINUTES = 60;
+
+    // The path that the administration endpoints live under.
+    public static String ADMIN_PANEL = "/admin";
+    // The path that metrics are scraped from. Defaults to "metrics" under the admin panel.
+    public static String METRICS_PATH = "/admin/metrics";
+
+    // How long (in seconds) to remember that the proxy doesn't have a file, before asking it again.
+    public static int NEGATIVE_CACHE_SECONDS = 300;
+
+    // How long (in seconds) a proxied maven-metadata.xml is served before asking the proxy whether it changed.
+    public static long METADATA_TTL_SECONDS = 1800;
+    // The same, for proxied SNAPSHOT files and SNAPSHOT metadata.
+    public static long SNAPSHOT_TTL_SECONDS = 300;
+    // How long (in seconds) past its time to live a file may still be served while it is checked in the background.
+    public static long STALE_WHILE_REVALIDATE_SECONDS = 86400;
+
+    // Whether to download the companions and dependencies of proxied POMs in the background.
+    public static boolean PREFETCH = false;
+    // How many background threads may prefetch at once.
+    public static int PREFETCH_THREADS = 2;
+    // How many levels of dependencies to follow from the POM that was requested.
+    public static int PREFETCH_DEPTH = 2;
+
+    // The other servers in the cluster, as the URLs of their repository roots separated by commas, including this one.
+    // Files are fetched from the peer that owns them before the proxy. Empty for no peers.
+    public static String PEERS = "";
+    // This server's URL, exactly as it appears in PEERS.
+    public static String PEER_SELF = "";
+    // Sent with requests to peers, so they know the request came from a peer. Every peer must have the same secret.
+    public static String PEER_SECRET = "";
+    // How long (in milliseconds) to wait for a peer to answer. Reading the file may take ten times as long.
+    public static int PEER_TIMEOUT_MILLIS = 2000;
+
+    // Servers that every upload is copied to, as the URLs of their repository roots separated by commas. They're sent
+    // to with the peer secret. Empty to not copy uploads anywhere.
+    public static String REPLICAS = "";
+    // How many uploads are sent to a replica at once.
+    public static int REPLICATION_BATCH_SIZE = 100;
+
+    // Named repositories, served under /repository/name/, as name:type separated by commas. Proxies are followed by
+    // :URL, and virtual repositories by :members separated by plus signs. "root" is the repository at the root.
+    // Empty for none.
+    public static String REPOSITORIES = "";
+
+    // Where many files may be downloaded at once, as a zip, by POSTing a list of them.
+    public static String BATCH_PATH = "/batch";
+    // How many files may be downloaded for batches at once, across every batch.
+    public static int BATCH_THREADS = 8;
+    // How many files may be asked for in one batch.
+    public static int BATCH_MAX_FILES = 10000;
+
+    // Where the dependencies of some artifacts may be resolved, by POSTing a list of them.
+    public static String RESOLVE_PATH = "/resolve";
+    // How many POMs may be read for resolving at once, across every request.
+    public static int RESOLVE_THREADS = 8;
+    // How many resolved results are remembered. Four times as many POMs are remembered.
+    public static int RESOLVE_CACHE_SIZE = 1000;
+
+    // Where the stored versions of an artifact may be listed, or the latest, release or those in a range looked up.
+    public static String VERSIONS_PATH = "/versions";
+
+    // How many files a warm-up job may download at once.
+    public static int WARMUP_THREADS = 4;
+    // How many times a warm-up job retries a failed download before giving up on it.
+    public static int WARMUP_RETRIES = 3;
+
     /**
      * Set the config values in the above fields.
      * Allows these fields to be used to access the below configuration values from any point in the program,
@@ -46,17 +192,157 @@ public final class Config {
                 PROXY_REPO = args.get("proxy_repo");
             }
         }
+        if (args.containsKey("execution"))
+            EXECUTION = args.get("execution");
+        if (args.containsKey("max_concurrent_requests"))
+            MAX_CONCURRENT_REQUESTS = Integer.parseInt(args.get("max_concurrent_requests"));
+        if (args.containsKey("adaptive_concurrency"))
+            ADAPTIVE_CONCURRENCY = Boolean.parseBoolean(args.get("adaptive_concurrency"));
+        if (args.containsKey("adaptive_min_concurrency"))
+            ADAPTIVE_MIN_CONCURRENCY = Integer.parseInt(args.get("adaptive_min_concurrency"));
+        if (args.containsKey("adaptive_max_concurrency"))
+            ADAPTIVE_MAX_CONCURRENCY = Integer.parseInt(args.get("adaptive_max_concurrency"));
+        if (args.containsKey("adaptive_latency_tolerance"))
+            ADAPTIVE_LATENCY_TOLERANCE = Double.parseDouble(args.get("adaptive_latency_tolerance"));
+
+        if (args.containsKey("user_hit_rate"))
+            USER_HIT_RATE = Double.parseDouble(args.get("user_hit_rate"));
+        if (args.containsKey("user_miss_rate"))
+            USER_MISS_RATE = Double.parseDouble(args.get("user_miss_rate"));
+        if (args.containsKey("ip_hit_rate"))
+            IP_HIT_RATE = Double.parseDouble(args.get("ip_hit_rate"));
+        if (args.containsKey("ip_miss_rate"))
+            IP_MISS_RATE = Double.parseDouble(args.get("ip_miss_rate"));
+        if (args.containsKey("rate_limit_burst_seconds"))
+            RATE_LIMIT_BURST_SECONDS = Double.parseDouble(args.get("rate_limit_burst_seconds"));
+
+        if (args.containsKey("bandwidth_scheduling"))
+            BANDWIDTH_SCHEDULING = Boolean.parseBoolean(args.get("bandwidth_scheduling"));
+        if (args.containsKey("bandwidth_bypass_size"))
+            BANDWIDTH_BYPASS_SIZE = Long.parseLong(args.get("bandwidth_bypass_size"));
+        if (args.containsKey("bandwidth_chunk_size"))
+            BANDWIDTH_CHUNK_SIZE = Integer.parseInt(args.get("bandwidth_chunk_size"));
+        if (args.containsKey("bandwidth_concurrent_reads"))
+            BANDWIDTH_CONCURRENT_READS = Integer.parseInt(args.get("bandwidth_concurrent_reads"));
+        if (args.containsKey("egress_bytes_per_second"))
+            EGRESS_BYTES_PER_SECOND = Long.parseLong(args.get("egress_bytes_per_second"));
+        if (args.containsKey("bandwidth_weights"))
+            BANDWIDTH_WEIGHTS = args.get("bandwidth_weights");
+
+        if (args.containsKey("storage"))
+            STORAGE = args.get("storage");
+        if (args.containsKey("packed_max_file_size"))
+            PACKED_MAX_FILE_SIZE = Integer.parseInt(args.get("packed_max_file_size"));
+        // Offsets into a segment are ints.
+        if (args.containsKey("segment_size"))
+            SEGMENT_SIZE = Math.min(Long.parseLong(args.get("segment_size")), Integer.MAX_VALUE);
+        if (args.containsKey("compaction_minutes"))
+            COMPACTION_MINUTES = Long.parseLong(args.get("compaction_minutes"));
+        if (args.containsKey("snapshot_keep_builds"))
+            SNAPSHOT_KEEP_BUILDS = Integer.parseInt(args.get("snapshot_keep_builds"));
+        if (args.containsKey("snapshot_max_age_days"))
+            SNAPSHOT_MAX_AGE_DAYS = Long.parseLong(args.get("snapshot_max_age_days"));
+        if (args.containsKey("snapshot_protected_groups"))
+            SNAPSHOT_PROTECTED_GROUPS = args.get("snapshot_protected_groups");
+        if (args.containsKey("cleanup_minutes"))
+            CLEANUP_MINUTES = Long.parseLong(args.get("cleanup_minutes"));
+        if (args.containsKey("cleanup_files_per_second"))
+            CLEANUP_FILES_PER_SECOND = Double.parseDouble(args.get("cleanup_files_per_second"));
+        if (args.containsKey("index"))
+            INDEX = args.get("index");
+        if (args.containsKey("background_indexing"))
+            BACKGROUND_INDEXING = Boolean.parseBoolean(args.get("background_indexing"));
+        if (args.containsKey("ready_path"))
+            READY_PATH = args.get("ready_path");
+
+        if (args.containsKey("access_log"))
+            ACCESS_LOG = args.get("access_log");
+        if (args.containsKey("access_log_max_bytes"))
+            ACCESS_LOG_MAX_BYTES = Long.parseLong(args.get("access_log_max_bytes"));
+        if (args.containsKey("access_log_files"))
+            ACCESS_LOG_FILES = Integer.parseInt(args.get("access_log_files"));
+
+        if (args.containsKey("slow_request_millis"))
+            SLOW_REQUEST_MILLIS = Long.parseLong(args.get("slow_request_millis"));
+        if (args.containsKey("trace_file"))
+            TRACE_FILE = args.get("trace_file");
+
+        if (args.containsKey("precompress"))
+            PRECOMPRESS = Boolean.parseBoolean(args.get("precompress"));
+
+        if (args.containsKey("blob_store"))
+            BLOB_STORE = Boolean.parseBoolean(args.get("blob_store"));
+        if (args.containsKey("blob_gc_minutes"))
+            BLOB_GC_MINUTES = Long.parseLong(args.get("blob_gc_minutes"));
+
+        if (args.containsKey("panel"))
+            ADMIN_PANEL = args.get("panel");
+        METRICS_PATH = args.containsKey("metrics_path") ? args.get("metrics_path") : ADMIN_PANEL + "/metrics";
+
+        if (args.containsKey("negative_cache_seconds"))
+            NEGATIVE_CACHE_SECONDS = Integer.parseInt(args.get("negative_cache_seconds"));
+
+        if (args.containsKey("metadata_ttl_seconds"))
+            METADATA_TTL_SECONDS = Long.parseLong(args.get("metadata_ttl_seconds"));
+        if (args.containsKey("snapshot_ttl_seconds"))
+            SNAPSHOT_TTL_SECONDS = Long.parseLong(args.get("snapshot_ttl_seconds"));
+        if (args.containsKey("stale_while_revalidate_seconds"))
+            STALE_WHILE_REVALIDATE_SECONDS = Long.parseLong(args.get("stale_while_revalidate_seconds"));
+
+        if (args.containsKey("prefetch"))
+            PREFETCH = Boolean.parseBoolean(args.get("prefetch"));
+        if (args.containsKey("prefetch_threads"))
+            PREFETCH_THREADS = Integer.parseInt(args.get("prefetch_threads"));
+        if (args.containsKey("prefetch_depth"))
+            PREFETCH_DEPTH = Integer.parseInt(args.get("prefetch_depth"));
+
+        if (args.containsKey("peers"))
+            PEERS = args.get("peers");
+        if (args.containsKey("peer_self"))
+            PEER_SELF = args.get("peer_self");
+        if (args.containsKey("peer_secret"))
+            PEER_SECRET = args.get("peer_secret");
+        if (args.containsKey("peer_timeout_millis"))
+            PEER_TIMEOUT_MILLIS = Integer.parseInt(args.get("peer_timeout_millis"));
+        if (args.containsKey("replicas"))
+            REPLICAS = args.get("replicas");
+        if (args.containsKey("replication_batch_size"))
+            REPLICATION_BATCH_SIZE = Integer.parseInt(args.get("replication_batch_size"));
+        if (args.containsKey("repositories"))
+            REPOSITORIES = args.get("repositories");
+        if (args.containsKey("batch_path"))
+            BATCH_PATH = args.get("batch_path");
+        if (args.containsKey("batch_threads"))
+            BATCH_THREADS = Integer.parseInt(args.get("batch_threads"));
+        if (args.containsKey("batch_max_files"))
+            BATCH_MAX_FILES = Integer.parseInt(args.get("batch_max_files"));
+        if (args.containsKey("resolve_path"))
+            RESOLVE_PATH = args.get("resolve_path");
+        if (args.containsKey("resolve_threads"))
+            RESOLVE_THREADS = Integer.parseInt(args.get("resolve_threads"));
+        if (args.containsKey("resolve_cache_size"))
+            RESOLVE_CACHE_SIZE = Integer.parseInt(args.get("resolve_cache_size"));
+        if (args.containsKey("versions_path"))
+            VERSIONS_PATH = args.get("versions_path");
+        if (args.containsKey("warmup_threads"))
+            WARMUP_THREADS = Integer.parseInt(args.get("warmup_threads"));
+        if (args.containsKey("warmup_retries"))
+            WARMUP_RETRIES = Integer.parseInt(args.get("warmup_retries"));
+
         assert args.containsKey("user_data");
         USER_DATA = args.get("user_data");
         assert args.containsKey("permission_data");
         PERM_DATA = args.get("permission_data");
 
         System.out.println("Port: " + LISTEN_PORT);
-        System.out.println("Data directory: " + DATA_DIR);
+        System.out.println("Requests run on " + EXECUTION + " threads");
+        System.out.println("Data directory: " + DATA_DIR + " (" + STORAGE + " storage)");
         System.out.println("Admin username: " + ADMIN_USERNAME);
         System.out.println("Admin hash: " + ADMIN_HASH);
         if (SHOULD_PROXY){
             System.out.println("Proxy enabled, url: " + PROXY_REPO);
+            if (PREFETCH)
+                System.out.println("Prefetching enabled, " + PREFETCH_THREADS + " threads, depth " + PREFETCH_DEPTH);
         }
         System.out.println("User data path: " + USER_DATA);
     }
@@ -0,0 +1,221 @@
+package uk.gemwire.waitress.metrics;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One line per request, with the same fields every time, in JSON:
+ * <pre>
+ *     {"time":"...","method":"GET","path":"/g/a/1/a-1.jar","user":"anonymous","status":200,"bytes":1234,"micros":560,"cache":"hit"}
+ * </pre>
+ *
+ * Serving threads never format or write anything. A request's fields are copied into a slot of a ring that is allocated
+ *  once, up front, as one array per field. The strings are the ones the request already has, so nothing new is made.
+ * A background thread drains the ring in batches, formats the lines and writes them to the log file, which is rotated
+ *  once it gets too large.
+ *
+ * If the background thread falls so far behind that the ring is full, new records are dropped and counted rather than
+ *  holding up a request.
+ *
+ * @author Curle
+ */
+public final class AccessLog {
+
+    // How many records the ring holds. Must be a power of two.
+    private static final int RING_SIZE = 8192;
+    private static final int MASK = RING_SIZE - 1;
+
+    // How long the writer sleeps when the ring is empty.
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // The fields of each record.
+    private static final long[] times = new long[RING_SIZE];
+    private static final String[] methods = new String[RING_SIZE];
+    private static final String[] paths = new String[RING_SIZE];
+    private static final String[] users = new String[RING_SIZE];
+    private static final int[] statuses = new int[RING_SIZE];
+    private static final long[] bytes = new long[RING_SIZE];
+    private static final long[] durations = new long[RING_SIZE];
+    private static final String[] outcomes = new String[RING_SIZE];
+
+    // The sequence number of the record in each slot, once it has been filled in. The writer waits for this.
+    private static final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+    // The next sequence number to be claimed by a request.
+    private static final AtomicLong claimed = new AtomicLong();
+    // The next sequence number to be written out. Slots before this may be reused.
+    private static final AtomicLong consumed = new AtomicLong();
+
+    private static volatile boolean running = false;
+
+    static {
+        for (int i = 0; i < RING_SIZE; i++)
+            published.set(i, -1);
+    }
+
+    /**
+     * Record a finished request. Never blocks.
+     * @param user The username, or null if the request wasn't authenticated.
+     * @param outcome Whether the file was in the cache ("hit", "miss"), or null if that doesn't apply.
+     */
+    public static void record(String method, String path, String user, int status, long size, long durationNanos, String outcome) {
+        if (!running)
+            return;
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= RING_SIZE) {
+                Metrics.ACCESS_LOG_DROPPED.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & MASK);
+        times[slot] = System.currentTimeMillis();
+        methods[slot] = method;
+        paths[slot] = path;
+        users[slot] = user;
+        statuses[slot] = status;
+        bytes[slot] = size;
+        durations[slot] = durationNanos;
+        outcomes[slot] = outcome;
+        published.set(slot, sequence);
+    }
+
+    /**
+     * Start writing the access log, if one is configured.
+     */
+    public static void start() {
+        if (Config.ACCESS_LOG.isEmpty())
+            return;
+
+        final Path file = Paths.get(Config.ACCESS_LOG);
+        final Writer initial;
+        try {
+            initial = open(file);
+        } catch (IOException e) {
+            Waitress.LOGGER.warn("Unable to open access log " + file + ": " + e.getMessage());
+            return;
+        }
+
+        Thread writer = new Thread(() -> {
+            Writer output = initial;
+            StringBuilder line = new StringBuilder(256);
+            long next = consumed.get();
+            long written = file.toFile().length();
+
+            while (true) {
+                try {
+                    int batch = 0;
+                    int slot = (int) (next & MASK);
+                    while (published.get(slot) == next) {
+                        line.setLength(0);
+                        format(line, slot);
+                        output.append(line);
+                        written += line.length();
+
+                        // Let go of the request's strings, so they can be collected.
+                        paths[slot] = null;
+                        users[slot] = null;
+                        next++;
+                        consumed.set(next);
+                        batch++;
+                        slot = (int) (next & MASK);
+                    }
+
+                    if (batch == 0) {
+                        LockSupport.parkNanos(IDLE_NANOS);
+                        continue;
+                    }
+                    output.flush();
+
+                    if (written >= Config.ACCESS_LOG_MAX_BYTES) {
+                        output.close();
+                        rotate(file);
+                        output = open(file);
+                        written = 0;
+                    }
+                } catch (IOException e) {
+                    Waitress.LOGGER.warn("Unable to write access log, no more requests will be logged: " + e.getMessage());
+                    running = false;
+                    return;
+                }
+            }
+        }, "access log");
+        writer.setDaemon(true);
+        writer.start();
+        running = true;
+    }
+
+    private static void format(StringBuilder out, int slot) {
+        out.append("{\"time\":\"");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(times[slot]), out);
+        out.append("\",\"method\":\"").append(methods[slot]).append("\",\"path\":");
+        string(out, paths[slot]);
+        out.append(",\"user\":");
+        string(out, users[slot]);
+        out.append(",\"status\":").append(statuses[slot])
+                .append(",\"bytes\":").append(bytes[slot])
+                .append(",\"micros\":").append(durations[slot] / 1000)
+                .append(",\"cache\":");
+        string(out, outcomes[slot]);
+        out.append("}\n");
+    }
+
+    private static void string(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                out.append('\\').append(c);
+            else if (c < ' ')
+                out.append(String.format("\\u%04x", (int) c));
+            else
+                out.append(c);
+        }
+        out.append('"');
+    }
+
+    private static Writer open(Path file) throws IOException {
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        return new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+    }
+
+    /**
+     * Move access.log to access.log.1, access.log.1 to access.log.2 and so on, dropping the oldest.
+     */
+    private static void rotate(Path file) throws IOException {
+        Files.deleteIfExists(Paths.get(file + "." + Config.ACCESS_LOG_FILES));
+        for (int i = Config.ACCESS_LOG_FILES - 1; i >= 1; i--) {
+            Path older = Paths.get(file + "." + i);
+            if (Files.exists(older))
+                Files.move(older, Paths.get(file + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (Config.ACCESS_LOG_FILES > 0)
+            Files.move(file, Paths.get(file + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        else
+            Files.delete(file);
+    }
+}
@@ -0,0 +1,27 @@
+package uk.gemwire.waitress.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A number that only goes up. ie. the number of requests served.
+ *
+ * Backed by a {@link LongAdder}, so any number of threads can count at once without fighting over a cache line.
+ *
+ * @author Curle
+ */
+public class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,46 @@
+package uk.gemwire.waitress.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A metric split by labels. ie. requests by method and status.
+ * Each distinct set of label values gets its own counter, gauge or histogram, made the first time it's asked for.
+ *
+ * @author Curle
+ */
+public class Family<T> {
+
+    final String name;
+    final String help;
+    final String type;
+    final List<String> labelNames;
+
+    // Label values -> the metric for them.
+    final Map<List<String>, T> children = new ConcurrentHashMap<>();
+    private final Supplier<T> factory;
+
+    Family(String name, String help, String type, Supplier<T> factory, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.type = type;
+        this.factory = factory;
+        this.labelNames = List.of(labelNames);
+    }
+
+    /**
+     * Get the metric for the given label values, in the order the labels were declared.
+     */
+    public T labels(String... values) {
+        if (values.length != labelNames.size())
+            throw new IllegalArgumentException(name + " has labels " + labelNames + ", but was given " + values.length + " values.");
+
+        List<String> key = List.of(values);
+        T child = children.get(key);
+        if (child != null)
+            return child;
+        return children.computeIfAbsent(key, k -> factory.get());
+    }
+}
@@ -0,0 +1,34 @@
+package uk.gemwire.waitress.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A number that goes up and down. ie. the number of requests being served right now.
+ * It can either be moved up and down, or set outright to a value that is worked out elsewhere.
+ *
+ * @author Curle
+ */
+public class Gauge {
+
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void decrement() {
+        value.decrementAndGet();
+    }
+
+    public void add(long amount) {
+        value.addAndGet(amount);
+    }
+
+    public void set(long value) {
+        this.value.set(value);
+    }
+
+    public long get() {
+        return value.get();
+    }
+}
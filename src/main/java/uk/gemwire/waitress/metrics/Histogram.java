@@ -0,0 +1,89 @@
+package uk.gemwire.waitress.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how many times something took how long, in fixed buckets.
+ *
+ * Every histogram has the same buckets, so histograms can be added together (ie. across servers, or across labels)
+ *  and still give a meaningful distribution. See {@link #merge(Histogram)}.
+ *
+ * Recording is a binary search and two {@link LongAdder} increments, so it's cheap enough for every request.
+ *
+ * @author Curle
+ */
+public class Histogram {
+
+    // The upper bound of each bucket, in seconds. Covers everything from a cache hit to a slow proxy download.
+    static final double[] BOUNDS = { 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS.length; i++)
+            BOUNDS_NANOS[i] = (long) (BOUNDS[i] * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    // The number of observations in each bucket, plus one for everything over the last bound.
+    // Not cumulative. That's worked out when the histogram is read.
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Record something that took the given number of nanoseconds.
+     */
+    public void observe(long nanos) {
+        int low = 0;
+        int high = BOUNDS_NANOS.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (BOUNDS_NANOS[middle] < nanos)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        buckets[low].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Record something that started at the given {@link System#nanoTime()}, and just finished.
+     */
+    public void observeSince(long startNanos) {
+        observe(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Add everything recorded by another histogram to this one.
+     */
+    public void merge(Histogram other) {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i].add(other.buckets[i].sum());
+        sumNanos.add(other.sumNanos.sum());
+    }
+
+    /**
+     * @return The number of observations in each bucket, cumulatively. The last is the total.
+     */
+    public long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    /**
+     * @return The total of every observation, in seconds.
+     */
+    public double sumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,157 @@
+package uk.gemwire.waitress.metrics;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Every metric that Waitress keeps, and the Prometheus text format that they're read in.
+ *
+ * Metrics are always on. Recording one is a handful of uncontended increments, so there's no need to turn them off
+ *  under load. Reading them is only done when scraped.
+ *
+ * @author Curle
+ */
+public final class Metrics {
+
+    // Every family, in the order they're listed when scraped.
+    private static final List<Family<?>> families = new CopyOnWriteArrayList<>();
+
+    public static final Family<Histogram> REQUEST_DURATION = histogram("waitress_http_request_duration_seconds",
+            "Time taken to handle a request, including sending the response.", "method", "status");
+    public static final Gauge REQUESTS_IN_FLIGHT = gauge("waitress_http_requests_in_flight",
+            "Requests being handled right now.");
+    public static final Family<Counter> REQUESTS_REJECTED = counter("waitress_http_requests_rejected_total",
+            "Requests turned away before being handled, by reason.", "reason");
+    public static final Gauge CONCURRENCY_LIMIT = gauge("waitress_http_concurrency_limit",
+            "How many requests may be handled at once, as adapted to how long they are taking.");
+
+    public static final Family<Counter> CACHE_LOOKUPS = counter("waitress_cache_lookups_total",
+            "Requests for artifacts, by whether they were already cached.", "outcome");
+    public static final Gauge INDEXED_FILES = gauge("waitress_indexed_files",
+            "Files found in storage and added to the index since starting.");
+    public static final Gauge INDEX_READY = gauge("waitress_index_ready",
+            "1 once every stored file is in the index, 0 while it is still being indexed.");
+    public static final Counter SNAPSHOT_BUILDS_REMOVED = counter("waitress_snapshot_builds_removed_total",
+            "Timestamped SNAPSHOT builds removed by the retention policy.");
+    public static final Counter SNAPSHOT_FILES_REMOVED = counter("waitress_snapshot_files_removed_total",
+            "Files of timestamped SNAPSHOT builds removed by the retention policy.");
+    public static final Family<Counter> PERMISSION_DENIALS = counter("waitress_permission_denials_total",
+            "Requests refused because the user lacked permission.", "operation");
+    public static final Histogram PASSWORD_VERIFY_DURATION = histogram("waitress_password_verify_duration_seconds",
+            "Time taken to check a password against its BCrypt hash.");
+
+    public static final Family<Counter> PROXY_DOWNLOADS = counter("waitress_proxy_downloads_total",
+            "Downloads from the proxied repository, by result.", "result");
+    public static final Histogram PROXY_DOWNLOAD_DURATION = histogram("waitress_proxy_download_duration_seconds",
+            "Time taken to download and store a file from the proxied repository.");
+    public static final Family<Counter> PEER_FETCHES = counter("waitress_peer_fetches_total",
+            "Files asked for from the peer that owns them, by result.", "result");
+    public static final Counter PROXY_DOWNLOAD_BYTES = counter("waitress_proxy_download_bytes_total",
+            "Bytes downloaded from the proxied repository.");
+    public static final Family<Counter> RESOLUTIONS = counter("waitress_resolutions_total",
+            "Dependency resolutions, by whether the result was cached.", "result");
+
+    public static final Histogram BANDWIDTH_WAIT_DURATION = histogram("waitress_bandwidth_wait_seconds",
+            "Time a chunk of a large download waited for its turn to be sent.");
+
+    public static final Family<Gauge> REPLICATION_LAG_ENTRIES = gauge("waitress_replication_lag_entries",
+            "Uploads in the replication journal that a replica hasn't applied yet.", "replica");
+    public static final Family<Gauge> REPLICATION_LAG_SECONDS = gauge("waitress_replication_lag_seconds",
+            "How long the oldest upload a replica hasn't applied yet has been waiting.", "replica");
+    public static final Family<Counter> REPLICATION_BATCHES = counter("waitress_replication_batches_total",
+            "Batches of uploads sent to replicas, by replica and result.", "replica", "result");
+
+    public static final Counter ACCESS_LOG_DROPPED = counter("waitress_access_log_dropped_total",
+            "Access log records dropped because the log writer fell behind.");
+
+    /**
+     * @return Every metric, in the Prometheus text exposition format.
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family<?> family : families) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+            for (Map.Entry<List<String>, ?> child : family.children.entrySet()) {
+                String labels = labels(family.labelNames, child.getKey());
+                Object metric = child.getValue();
+
+                if (metric instanceof Counter counter)
+                    sample(out, family.name, labels, counter.get());
+                else if (metric instanceof Gauge gauge)
+                    sample(out, family.name, labels, gauge.get());
+                else if (metric instanceof Histogram histogram)
+                    writeHistogram(out, family.name, labels, histogram);
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long[] counts = histogram.cumulativeCounts();
+        String separator = labels.isEmpty() ? "" : ",";
+        for (int i = 0; i < Histogram.BOUNDS.length; i++)
+            sample(out, name + "_bucket", labels + separator + "le=\"" + BigDecimal.valueOf(Histogram.BOUNDS[i]).toPlainString() + "\"", counts[i]);
+        sample(out, name + "_bucket", labels + separator + "le=\"+Inf\"", counts[counts.length - 1]);
+        sample(out, name + "_sum", labels, histogram.sumSeconds());
+        sample(out, name + "_count", labels, counts[counts.length - 1]);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (!labels.isEmpty())
+            out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String labels(List<String> names, List<String> values) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0)
+                out.append(',');
+            out.append(names.get(i)).append("=\"");
+            for (char c : values.get(i).toCharArray()) {
+                switch (c) {
+                    case '\\' -> out.append("\\\\");
+                    case '"' -> out.append("\\\"");
+                    case '\n' -> out.append("\\n");
+                    default -> out.append(c);
+                }
+            }
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    private static <T> Family<T> register(Family<T> family) {
+        families.add(family);
+        return family;
+    }
+
+    private static Family<Counter> counter(String name, String help, String... labels) {
+        return register(new Family<>(name, help, "counter", Counter::new, labels));
+    }
+
+    private static Counter counter(String name, String help) {
+        return counter(name, help, new String[0]).labels();
+    }
+
+    private static Family<Gauge> gauge(String name, String help, String... labels) {
+        return register(new Family<>(name, help, "gauge", Gauge::new, labels));
+    }
+
+    private static Gauge gauge(String name, String help) {
+        return gauge(name, help, new String[0]).labels();
+    }
+
+    private static Family<Histogram> histogram(String name, String help, String... labels) {
+        return register(new Family<>(name, help, "histogram", Histogram::new, labels));
+    }
+
+    private static Histogram histogram(String name, String help) {
+        return histogram(name, help, new String[0]).labels();
+    }
+}
@@ -0,0 +1,156 @@
+package uk.gemwire.waitress.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time went in a single request.
+ *
+ * A trace is started when a request arrives, and is then current on the thread handling it. Anything the request
+ *  does can time itself as a span of a {@link Phase}, without needing the trace passed to it:
+ * <pre>
+ *     long started = Trace.start();
+ *     ...
+ *     Trace.end(Trace.Phase.AUTHENTICATE, started);
+ * </pre>
+ * If there is no current trace (ie. on a background thread), ending a span does nothing.
+ *
+ * Spans are kept in flat arrays, so a span costs two {@link System#nanoTime()} calls and three array stores.
+ * Finished traces go to the {@link Tracer}.
+ *
+ * @author Curle
+ */
+public final class Trace {
+
+    /**
+     * The things a request spends time on.
+     */
+    public enum Phase {
+        PARSE("parse"),
+        AUTHENTICATE("authenticate"),
+        PERMISSION("permission"),
+        INDEX("index"),
+        REVALIDATE("revalidate"),
+        FETCH("fetch"),
+        CONNECT("connect"),
+        PEER("peer"),
+        STORE("store"),
+        COMPRESS("compress"),
+        UPLOAD("upload"),
+        OPEN("open"),
+        WRITE("write");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    // Any more spans than this are dropped. A request only has a dozen or so.
+    private static final int MAX_SPANS = 32;
+
+    private static final ThreadLocal<Trace> current = new ThreadLocal<>();
+
+    final String method;
+    final String path;
+    final long startNanos;
+    // When the trace started, in microseconds since the epoch. Spans are offsets from this.
+    final long startMicros;
+    final String thread;
+
+    final Phase[] phases = new Phase[MAX_SPANS];
+    final long[] spanStarts = new long[MAX_SPANS];
+    final long[] spanDurations = new long[MAX_SPANS];
+    int spans = 0;
+
+    int status;
+    long durationNanos;
+
+    private Trace(String method, String path) {
+        this.method = method;
+        this.path = path;
+        this.startNanos = System.nanoTime();
+        this.startMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        this.thread = Thread.currentThread().getName();
+    }
+
+    /**
+     * Start tracing a request on the current thread.
+     * @return The new trace.
+     */
+    public static Trace begin(String method, String path) {
+        Trace trace = new Trace(method, path);
+        current.set(trace);
+        return trace;
+    }
+
+    /**
+     * @return The start time of a span, to be passed to {@link #end(Phase, long)}.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a span of the current thread's trace, from the given start time until now.
+     */
+    public static void end(Phase phase, long started) {
+        Trace trace = current.get();
+        if (trace != null)
+            trace.span(phase, started, System.nanoTime());
+    }
+
+    /**
+     * Record a span of this trace. Safe to call from a thread other than the one the trace is current on, as long as
+     *  only one thread records at a time.
+     */
+    public void span(Phase phase, long started, long ended) {
+        if (spans == MAX_SPANS)
+            return;
+        phases[spans] = phase;
+        spanStarts[spans] = started - startNanos;
+        spanDurations[spans] = ended - started;
+        spans++;
+    }
+
+    /**
+     * Finish the trace, and stop it being current on this thread.
+     */
+    public void finish(int status) {
+        this.status = status;
+        this.durationNanos = System.nanoTime() - startNanos;
+        if (current.get() == this)
+            current.remove();
+    }
+
+    public long startNanos() {
+        return startNanos;
+    }
+
+    public long durationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return The trace as one line, ie. "GET /g/a/1/a-1.pom 200 12.30ms: parse 0.01ms, authenticate 11.90ms, ...".
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(128);
+        out.append(method).append(' ').append(path).append(' ').append(status).append(' ');
+        millis(out, durationNanos);
+        for (int i = 0; i < spans; i++) {
+            out.append(i == 0 ? ": " : ", ").append(phases[i].label).append(' ');
+            millis(out, spanDurations[i]);
+        }
+        return out.toString();
+    }
+
+    private static void millis(StringBuilder out, long nanos) {
+        out.append(nanos / 1_000_000).append('.');
+        long fraction = (nanos / 10_000) % 100;
+        if (fraction < 10)
+            out.append('0');
+        out.append(fraction).append("ms");
+    }
+}
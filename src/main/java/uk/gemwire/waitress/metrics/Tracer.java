@@ -0,0 +1,141 @@
+package uk.gemwire.waitress.metrics;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent {@link Trace}s, and reports the slow ones.
+ *
+ * Finished traces go into a fixed size ring. Writers claim a slot with a single atomic increment, so recording never
+ *  takes a lock, and the oldest trace is simply overwritten.
+ * Traces slower than {@link Config#SLOW_REQUEST_MILLIS} are logged with their breakdown.
+ * If {@link Config#TRACE_FILE} is set, every trace is also written there in the Chrome trace event format, which can be
+ *  opened in chrome://tracing or Perfetto. Writing happens on a background thread, and traces are dropped rather than
+ *  holding up a request if it falls behind.
+ *
+ * @author Curle
+ */
+public final class Tracer {
+
+    // How many traces are kept. Must be a power of two.
+    private static final int RING_SIZE = 1024;
+
+    private static final AtomicReferenceArray<Trace> ring = new AtomicReferenceArray<>(RING_SIZE);
+    private static final AtomicLong cursor = new AtomicLong();
+
+    // Traces waiting to be written to the trace file.
+    private static final BlockingQueue<Trace> exports = new ArrayBlockingQueue<>(4096);
+    private static volatile boolean exporting = false;
+
+    /**
+     * Keep a finished trace, and report it if it was slow.
+     */
+    public static void record(Trace trace) {
+        ring.set((int) (cursor.getAndIncrement() & (RING_SIZE - 1)), trace);
+
+        if (Config.SLOW_REQUEST_MILLIS >= 0 && trace.durationNanos() > TimeUnit.MILLISECONDS.toNanos(Config.SLOW_REQUEST_MILLIS))
+            Waitress.LOGGER.warn("Slow request " + trace);
+
+        if (exporting)
+            exports.offer(trace);
+    }
+
+    /**
+     * @return The traces in the ring, oldest first.
+     */
+    public static List<Trace> recent() {
+        long end = cursor.get();
+        List<Trace> traces = new ArrayList<>(RING_SIZE);
+        for (long i = Math.max(0, end - RING_SIZE); i < end; i++) {
+            Trace trace = ring.get((int) (i & (RING_SIZE - 1)));
+            if (trace != null)
+                traces.add(trace);
+        }
+        return traces;
+    }
+
+    /**
+     * Start writing traces to the trace file, if one is configured.
+     */
+    public static void startExporter() {
+        if (Config.TRACE_FILE.isEmpty())
+            return;
+
+        final Path file = Paths.get(Config.TRACE_FILE);
+        final Writer writer;
+        try {
+            // The format allows the closing bracket to be left off, so the file can simply be appended to until we stop.
+            writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+            writer.write("[\n");
+        } catch (IOException e) {
+            Waitress.LOGGER.warn("Unable to open trace file " + file + ": " + e.getMessage());
+            return;
+        }
+
+        Thread exporter = new Thread(() -> {
+            List<Trace> batch = new ArrayList<>();
+            StringBuilder event = new StringBuilder(256);
+            while (true) {
+                try {
+                    batch.add(exports.take());
+                    exports.drainTo(batch);
+                    for (Trace trace : batch) {
+                        event.setLength(0);
+                        writeEvents(event, trace);
+                        writer.append(event);
+                    }
+                    writer.flush();
+                    batch.clear();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    Waitress.LOGGER.warn("Unable to write trace file, no more traces will be written: " + e.getMessage());
+                    exporting = false;
+                    return;
+                }
+            }
+        }, "trace exporter");
+        exporter.setDaemon(true);
+        exporter.setPriority(Thread.MIN_PRIORITY);
+        exporter.start();
+        exporting = true;
+    }
+
+    /**
+     * A complete ("X") event for the request, then one for each span, all on the thread that handled it.
+     */
+    private static void writeEvents(StringBuilder out, Trace trace) {
+        event(out, trace, trace.method + " " + trace.path + " " + trace.status, trace.startMicros, trace.durationNanos / 1000);
+        for (int i = 0; i < trace.spans; i++)
+            event(out, trace, trace.phases[i].label, trace.startMicros + trace.spanStarts[i] / 1000, trace.spanDurations[i] / 1000);
+    }
+
+    private static void event(StringBuilder out, Trace trace, String name, long startMicros, long durationMicros) {
+        out.append("{\"name\":\"");
+        for (char c : name.toCharArray()) {
+            if (c == '"' || c == '\\')
+                out.append('\\');
+            if (c >= ' ')
+                out.append(c);
+        }
+        out.append("\",\"ph\":\"X\",\"pid\":1,\"tid\":\"").append(trace.thread)
+                .append("\",\"ts\":").append(startMicros)
+                .append(",\"dur\":").append(durationMicros).append("},\n");
+    }
+}
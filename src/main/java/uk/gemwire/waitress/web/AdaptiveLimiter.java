@@ -0,0 +1,152 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds how many requests are handled at once, by watching how long they take.
+ *
+ * A fixed limit is either too low, and wastes the machine, or too high, and lets an overloaded server queue requests
+ *  until every one of them is slow. This limit moves instead. It compares how long requests are taking right now with
+ *  how long they normally take. While they're no slower, the limit grows, a little faster than it's used. When they
+ *  slow down, requests are queueing for something (the disk, the CPU, BCrypt), and the limit shrinks in proportion.
+ * This is the gradient limit from Netflix's concurrency-limits library, cut down to what Waitress needs.
+ *
+ * Only requests served from the cache are measured. Misses take as long as the proxy does, which says nothing about
+ *  how loaded this server is. Time spent sending the response isn't measured either, as that's up to the client.
+ *
+ * Requests over the limit are turned away at once with a 503 and Retry-After, rather than queued. Waiting would only
+ *  make them slow too. The admin panel and metrics are never turned away, so an overloaded server can still be seen.
+ *
+ * @author Curle
+ */
+public class AdaptiveLimiter implements Filter {
+
+    // How quickly the short and long term latencies follow new measurements. The short term follows the last ten or
+    // so requests; the long term, the last few thousand.
+    private static final double SHORT_WEIGHT = 0.1;
+    private static final double LONG_WEIGHT = 0.001;
+    // How much of each new limit is taken, so one slow request doesn't halve it.
+    private static final double SMOOTHING = 0.2;
+    // The limit never shrinks by more than half at once.
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int min;
+    private final int max;
+    private final double tolerance;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // The limit as read by every request. Only written in sample().
+    private volatile int current;
+
+    // Guarded by this.
+    private double limit;
+    private double shortLatency;
+    private double longLatency;
+
+    /**
+     * @param min The lowest the limit may go.
+     * @param max The highest the limit may go.
+     * @param tolerance How many times slower than usual requests may get before the limit shrinks.
+     */
+    public AdaptiveLimiter(int min, int max, double tolerance) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.tolerance = tolerance;
+        this.limit = Math.min(this.max, Math.max(this.min, 100));
+        publish();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        String path = ((HttpServletRequest) request).getRequestURI();
+        if (path.startsWith(Config.ADMIN_PANEL) || path.startsWith(Config.METRICS_PATH)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (inFlight.incrementAndGet() > current) {
+            inFlight.decrementAndGet();
+            Metrics.REQUESTS_REJECTED.labels("overload").increment();
+            HttpServletResponse http = (HttpServletResponse) response;
+            http.setHeader("Retry-After", "1");
+            http.sendError(503);
+            return;
+        }
+
+        long started = System.nanoTime();
+        int running = 0;
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            running = inFlight.getAndDecrement();
+        }
+
+        if ("hit".equals(request.getAttribute(Server.CACHE_ATTRIBUTE))) {
+            Object handled = request.getAttribute(Server.HANDLED_ATTRIBUTE);
+            sample((handled instanceof Long end ? end : System.nanoTime()) - started, running);
+        }
+    }
+
+    /**
+     * Move the limit, given how long a request took.
+     * @param nanos How long the request took to handle.
+     * @param running How many requests were being handled when it finished, including itself.
+     */
+    synchronized void sample(long nanos, int running) {
+        if (longLatency == 0) {
+            shortLatency = longLatency = nanos;
+            return;
+        }
+        shortLatency += (nanos - shortLatency) * SHORT_WEIGHT;
+        // While overloaded, the long term latency barely moves, or it would come to think overload is normal and let
+        // the limit grow back. It still moves a little, so a server that has really got slower (a busier disk) is
+        // eventually taken as it is.
+        boolean overloaded = shortLatency > tolerance * longLatency;
+        longLatency += (nanos - longLatency) * (overloaded ? LONG_WEIGHT / 10 : LONG_WEIGHT);
+        // After a long spell of overload, the long term latency has crept up to meet it. Let it come back down quickly
+        // once things improve, or the limit would grow far past what the server can take.
+        if (longLatency > shortLatency * 2)
+            longLatency *= 0.95;
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * longLatency / shortLatency));
+        // Nobody's using the limit, so there's nothing to learn from growing it.
+        if (gradient == 1.0 && running < limit / 2)
+            return;
+
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(min, Math.min(max, limit * (1 - SMOOTHING) + target * SMOOTHING));
+        publish();
+    }
+
+    /**
+     * @return How many requests may be handled at once right now.
+     */
+    int limit() {
+        return current;
+    }
+
+    private void publish() {
+        current = (int) limit;
+        Metrics.CONCURRENCY_LIMIT.set(current);
+    }
+
+    @Override
+    public void init(FilterConfig config) {
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,319 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares the disk and the outgoing connection fairly between clients downloading large files.
+ *
+ * Without this, a client pulling several large files at once gets a share of the disk for each of them, and a few such
+ *  clients leave everyone else's POMs waiting. With it, large files are read in chunks, and every chunk waits for its
+ *  turn. Turns go to clients, not to downloads: a client with ten downloads running gets the same share as a client
+ *  with one, unless it has been given a larger weight. A client is its user, or its address if it isn't logged in.
+ * Only so many chunks are read at once, and, if there is an egress limit, only so many bytes are let out a second.
+ *
+ * Turns are handed out by start-time fair queueing, a kind of weighted fair queueing. Each chunk is stamped with when
+ *  its client's previous chunk would finish, were every client sent its weight's share. The chunk with the earliest
+ *  stamp goes next. A client that has been idle starts again from now, rather than from where it left off, so it can't
+ *  save up turns.
+ *
+ * Files no larger than the bypass size don't wait at all. They're over before they could hold anyone up, and making
+ *  them wait behind large files is exactly what this is meant to stop. They still count against the egress limit.
+ *
+ * @author Curle
+ */
+public final class BandwidthScheduler {
+
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    // Everything below is guarded by lock.
+    // Chunks waiting for their turn, earliest stamp first. Ties go to whichever asked first.
+    private static final PriorityQueue<Turn> queue = new PriorityQueue<>(Comparator.comparingDouble(Turn::start).thenComparingLong(Turn::sequence));
+    // Client -> its downloads. Only clients with a download running are kept.
+    private static final Map<String, Flow> flows = new HashMap<>();
+    // The stamp of the chunk most recently given a turn.
+    private static double virtualTime = 0;
+    private static long sequence = 0;
+    // How many chunks are being read right now.
+    private static int reading = 0;
+    // Bytes that may be sent before the egress limit is reached, and when that was last topped up. May go negative.
+    private static double credit = 0;
+    private static long refilled = System.nanoTime();
+
+    // User name -> weight, from bandwidth_weights. Parsed when first needed.
+    private static Map<String, Double> weights;
+
+    /**
+     * A chunk waiting for its turn.
+     * @param start Its stamp. See the class description.
+     * @param sequence The order it asked in.
+     * @param ready Signalled when it may be its turn. Only the chunk next in line is woken, not every waiting chunk.
+     */
+    private record Turn(double start, long sequence, Condition ready) {}
+
+    /**
+     * Every download of one client.
+     */
+    private static final class Flow {
+        private final String client;
+        private final double weight;
+        // When the client's last chunk would finish, in stamps.
+        private double finish = 0;
+        private int downloads = 0;
+
+        private Flow(String client, double weight) {
+            this.client = client;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Put a file that is about to be sent under the scheduler.
+     * @param path The path of the file relative to the repository root.
+     * @param content The file's contents.
+     * @param user Who the file is being sent to, or null if they aren't logged in.
+     * @param address Where the file is being sent.
+     * @return The contents to send instead. The same stream if the file bypasses the scheduler.
+     */
+    public static InputStream schedule(String path, InputStream content, String user, String address) throws IOException {
+        if (!Config.BANDWIDTH_SCHEDULING)
+            return content;
+
+        long size = Waitress.storage.size(path);
+        if (size <= Config.BANDWIDTH_BYPASS_SIZE) {
+            if (Config.EGRESS_BYTES_PER_SECOND > 0) {
+                lock.lock();
+                try {
+                    refill(System.nanoTime());
+                    credit -= size;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return content;
+        }
+
+        return new ScheduledStream(content, open(user != null ? "user:" + user : "address:" + address, user));
+    }
+
+    private static Flow open(String client, String user) {
+        lock.lock();
+        try {
+            Flow flow = flows.computeIfAbsent(client, c -> new Flow(c, user == null ? 1 : weights().getOrDefault(user, 1.0)));
+            flow.downloads++;
+            return flow;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void close(Flow flow) {
+        lock.lock();
+        try {
+            if (--flow.downloads == 0)
+                flows.remove(flow.client);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for a chunk's turn.
+     * Once this returns, the chunk counts as being read until {@link #release()} is called.
+     * @param flow Whose chunk it is.
+     * @param bytes How large it is.
+     */
+    private static void acquire(Flow flow, int bytes) throws InterruptedIOException {
+        long started = System.nanoTime();
+        lock.lock();
+        Turn turn = new Turn(Math.max(virtualTime, flow.finish), sequence++, lock.newCondition());
+        flow.finish = turn.start() + bytes / flow.weight;
+        queue.add(turn);
+        try {
+            while (true) {
+                if (queue.peek() == turn && reading < Config.BANDWIDTH_CONCURRENT_READS) {
+                    long wait = egressWait(bytes);
+                    if (wait == 0) {
+                        queue.poll();
+                        reading++;
+                        virtualTime = Math.max(virtualTime, turn.start());
+                        // The next chunk in line may be able to go too.
+                        wakeNext();
+                        break;
+                    }
+                    turn.ready().awaitNanos(wait);
+                } else {
+                    turn.ready().await();
+                }
+            }
+        } catch (InterruptedException e) {
+            queue.remove(turn);
+            wakeNext();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send");
+        } finally {
+            lock.unlock();
+        }
+        Metrics.BANDWIDTH_WAIT_DURATION.observe(System.nanoTime() - started);
+    }
+
+    private static void release() {
+        lock.lock();
+        try {
+            reading--;
+            wakeNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wake the chunk next in line, if there's room for it to be read. Called with the lock held.
+     */
+    private static void wakeNext() {
+        Turn next = queue.peek();
+        if (next != null && reading < Config.BANDWIDTH_CONCURRENT_READS)
+            next.ready().signal();
+    }
+
+    /**
+     * Take bytes from the egress limit, if there is one and it allows.
+     * @return 0 if the bytes were taken, or how many nanoseconds until they may be.
+     */
+    private static long egressWait(int bytes) {
+        if (Config.EGRESS_BYTES_PER_SECOND <= 0)
+            return 0;
+
+        refill(System.nanoTime());
+        // Going into debt by one chunk lets chunks larger than a tenth of a second's worth through.
+        if (credit > 0) {
+            credit -= bytes;
+            return 0;
+        }
+        return (long) Math.ceil(-credit / Config.EGRESS_BYTES_PER_SECOND * TimeUnit.SECONDS.toNanos(1)) + 1;
+    }
+
+    private static void refill(long now) {
+        // A tenth of a second's worth may build up, so the limit is smooth but a short pause isn't wasted.
+        double burst = Config.EGRESS_BYTES_PER_SECOND / 10d;
+        credit = Math.min(burst, credit + (now - refilled) / (double) TimeUnit.SECONDS.toNanos(1) * Config.EGRESS_BYTES_PER_SECOND);
+        refilled = now;
+    }
+
+    private static Map<String, Double> weights() {
+        if (weights == null) {
+            Map<String, Double> parsed = new HashMap<>();
+            for (String entry : Config.BANDWIDTH_WEIGHTS.split(",")) {
+                String[] parts = entry.trim().split(":");
+                if (parts.length == 2)
+                    parsed.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+                else if (!entry.isBlank())
+                    Waitress.LOGGER.warn("Ignoring bandwidth weight " + entry + ". Expected user:weight.");
+            }
+            weights = parsed;
+        }
+        return weights;
+    }
+
+    /**
+     * A file's contents, read a chunk at a time, each chunk waiting for its turn.
+     * The chunk is read from storage during its turn, and sent after it, so a slow client doesn't hold up the others.
+     */
+    private static final class ScheduledStream extends FilterInputStream {
+
+        private final Flow flow;
+        private final byte[] chunk = new byte[Config.BANDWIDTH_CHUNK_SIZE];
+        private int position = 0;
+        private int limit = 0;
+        private boolean closed = false;
+
+        private ScheduledStream(InputStream in, Flow flow) {
+            super(in);
+            this.flow = flow;
+        }
+
+        /**
+         * @return Whether there is anything left to read.
+         */
+        private boolean fill() throws IOException {
+            if (position < limit)
+                return true;
+            if (limit < 0)
+                return false;
+
+            acquire(flow, chunk.length);
+            try {
+                limit = in.readNBytes(chunk, 0, chunk.length);
+            } finally {
+                release();
+            }
+            position = 0;
+            if (limit == 0)
+                limit = -1;
+            return limit > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? chunk[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            int count = Math.min(length, limit - position);
+            System.arraycopy(chunk, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = 0;
+            while (skipped < count && fill()) {
+                int step = (int) Math.min(count - skipped, limit - position);
+                position += step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return Math.max(0, limit - position);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                BandwidthScheduler.close(flow);
+            }
+        }
+    }
+}
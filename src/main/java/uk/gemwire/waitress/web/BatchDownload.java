@@ -0,0 +1,154 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.authentication.PermissionLevel;
+import uk.gemwire.waitress.authentication.entity.User;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.NoRouteToHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Sends many files in one response, as a zip, for clients that would otherwise make thousands of requests.
+ *
+ * Permissions are worked out once for each artifact in the list, rather than once a file. Files that are already
+ *  stored are written straight away, while the rest are fetched in the background on a small pool shared by every
+ *  batch, and written as they arrive. Files are streamed from storage into the zip, so only one buffer is held at a
+ *  time, however large the batch is.
+ *
+ * The batch itself is one request, but every file that has to be fetched takes a token from the miss budgets of
+ *  whoever asked for it, as a request for it would. See {@link RateLimiter}.
+ *
+ * A file that can't be sent doesn't fail the batch. An entry with ".error" added to its name is written in its place,
+ *  saying why.
+ *
+ * @author Curle
+ */
+final class BatchDownload {
+
+    // Extensions of files that are compressed already, so compressing them again would only waste time.
+    private static final Set<String> COMPRESSED = Set.of("jar", "war", "ear", "aar", "zip", "gz", "xz", "bz2", "klib");
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(Config.BATCH_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "Waitress batch download");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // A file that was fetched in the background: where it was stored, or why it couldn't be.
+    private record Fetched(MavenCoordinate coordinate, String path, String error) {}
+
+    /**
+     * Write a zip of the given files.
+     * @param out Where to write the zip. Finished, but not closed.
+     * @param coordinates The files to send, relative to the repository.
+     * @param user Who asked for them. Only files they may read are sent.
+     * @param repository The repository to send them from, or null for the root.
+     * @param address Where the request came from, so that the bandwidth is shared fairly. See {@link BandwidthScheduler}.
+     * @throws IOException if the client went away.
+     */
+    static void write(OutputStream out, List<MavenCoordinate> coordinates, User user, Repository repository, String address) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        Map<String, Boolean> readable = new HashMap<>();
+        BlockingQueue<Fetched> fetched = new LinkedBlockingQueue<>();
+        int pending = 0;
+
+        for (MavenCoordinate coordinate : coordinates) {
+            boolean allowed = readable.computeIfAbsent(coordinate.groupID() + "/" + coordinate.artifactID(), key ->
+                    user.getPermissionFor(coordinate.groupID(), coordinate.artifactID()).level >= PermissionLevel.READ.level);
+            if (!allowed) {
+                Metrics.PERMISSION_DENIALS.labels("read").increment();
+                error(zip, coordinate, "forbidden");
+                continue;
+            }
+
+            String stored = Repository.find(repository, coordinate);
+            if (stored != null) {
+                Metrics.CACHE_LOOKUPS.labels("hit").increment();
+                Revalidator.check(stored);
+                entry(zip, coordinate, stored, user, address);
+                continue;
+            }
+
+            Metrics.CACHE_LOOKUPS.labels("miss").increment();
+            if (!RateLimiter.admitMiss(user, address)) {
+                error(zip, coordinate, "rate limited");
+                continue;
+            }
+            pending++;
+            executor.execute(() -> fetched.add(fetch(coordinate, repository)));
+        }
+
+        for (; pending > 0; pending--) {
+            Fetched file;
+            try {
+                file = fetched.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for downloads.", e);
+            }
+            if (file.path() != null)
+                entry(zip, file.coordinate(), file.path(), user, address);
+            else
+                error(zip, file.coordinate(), file.error());
+        }
+
+        zip.finish();
+    }
+
+    /**
+     * Download a file into storage, the same way a request for it would.
+     */
+    private static Fetched fetch(MavenCoordinate coordinate, Repository repository) {
+        try {
+            return new Fetched(coordinate, Repository.fetch(repository, coordinate), null);
+        } catch (FileNotFoundException | NoRouteToHostException | IllegalStateException e) {
+            return new Fetched(coordinate, null, "not found");
+        } catch (IOException | RuntimeException e) {
+            Waitress.LOGGER.warn("Batch download of " + coordinate + " failed: " + e.getMessage());
+            return new Fetched(coordinate, null, "failed: " + e.getMessage());
+        }
+    }
+
+    private static void entry(ZipOutputStream zip, MavenCoordinate coordinate, String path, User user, String address) throws IOException {
+        final InputStream content;
+        try {
+            content = BandwidthScheduler.schedule(path, Waitress.storage.read(path), user.getUsername(), address);
+        } catch (FileNotFoundException e) {
+            // Removed since we looked.
+            error(zip, coordinate, "not found");
+            return;
+        }
+
+        try (InputStream stream = content) {
+            zip.setLevel(COMPRESSED.contains(coordinate.extension()) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+            zip.putNextEntry(new ZipEntry(coordinate.path()));
+            stream.transferTo(zip);
+            zip.closeEntry();
+        }
+    }
+
+    private static void error(ZipOutputStream zip, MavenCoordinate coordinate, String reason) throws IOException {
+        zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+        zip.putNextEntry(new ZipEntry(coordinate.path() + ".error"));
+        zip.write((reason + "\n").getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,72 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.metrics.Metrics;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds how many requests are handled at once, when there is no thread pool to do it. See {@link VirtualThreadPool}.
+ *
+ * Requests over the limit wait for one to finish, which costs nothing but the parked virtual thread. If they wait too
+ *  long, the server is overloaded, and they're turned away with a 503 rather than kept waiting forever.
+ *
+ * This is a servlet filter, so it wraps the whole request, including sending the response.
+ *
+ * @author Curle
+ */
+public class ConcurrencyLimiter implements Filter {
+
+    // How long a request may wait to be handled before it's turned away.
+    private static final long QUEUE_TIMEOUT_SECONDS = 30;
+
+    private final Semaphore permits;
+
+    /**
+     * @param limit How many requests may be handled at once.
+     */
+    public ConcurrencyLimiter(int limit) {
+        this.permits = new Semaphore(limit, true);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(QUEUE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            Metrics.REQUESTS_REJECTED.labels("concurrency").increment();
+            HttpServletResponse http = (HttpServletResponse) response;
+            http.setHeader("Retry-After", "1");
+            http.sendError(503);
+            return;
+        }
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void init(FilterConfig config) {
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,61 @@
+package uk.gemwire.waitress.web;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Decides which of a set of nodes owns a key, by consistent hashing.
+ *
+ * Every node is hashed onto a ring many times over, and a key belongs to the first node after it on the ring. With
+ *  enough points per node, keys are spread evenly. Adding or removing a node only moves the keys that it takes or gives
+ *  up - about one in N of them - rather than reshuffling nearly everything, as hash-modulo-N would.
+ *
+ * The ring only depends on the names of the nodes, so every node with the same list agrees on who owns what.
+ *
+ * @author Curle
+ */
+public class HashRing {
+
+    // How many points each node has on the ring.
+    private static final int POINTS_PER_NODE = 160;
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * @param nodes The names of every node. Order doesn't matter.
+     */
+    public HashRing(List<String> nodes) {
+        for (String node : nodes)
+            for (int i = 0; i < POINTS_PER_NODE; i++)
+                ring.put(hash(node + "#" + i), node);
+    }
+
+    /**
+     * @return The node that owns the key, or null if there are no nodes.
+     */
+    public String owner(String key) {
+        if (ring.isEmpty())
+            return null;
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    private static long hash(String value) {
+        try {
+            // Not for security. MD5 is fast, and spreads similar strings (ie. node#1 and node#2) well.
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++)
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java has MD5.
+            throw new IllegalStateException(e);
+        }
+    }
+}
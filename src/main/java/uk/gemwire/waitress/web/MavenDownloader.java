@@ -1,30 +1,241 @@
 package uk.gemwire.waitress.web;
 
-import io.javalin.core.util.FileUtil;
 import uk.gemwire.waitress.Waitress;
 import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+import uk.gemwire.waitress.metrics.Trace;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.storage.Precompressed;
+import uk.gemwire.waitress.web.storage.Storage;
 
-import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.NoRouteToHostException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Simple Maven artifact downloader
  * Simply just constructs URL from coordinates and configured proxy, and downloads from it
- * @author tmvkrpxl0 
+ * @author tmvkrpxl0
  */
 public class MavenDownloader {
+
+    // Paths that the proxy recently told us don't exist, mapped to the time (in millis) that they may be asked for again.
+    private static final Map<String, Long> missing = new ConcurrentHashMap<>();
+
+    // Downloads that are currently running. Anyone asking for the same path waits on the existing download.
+    private static final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Downloads artifact at coordinate from proxy into storage
+     */
+    public static void downloadArtifact(String groupID, String artifactID, String version, String classifier, String extension) throws IOException {
+        download(new MavenCoordinate(groupID, artifactID, version, classifier, extension).path(), true);
+    }
+
+    /**
+     * The proxy pipeline.
+     * Downloads the coordinate from the proxy, and adds it to the {@link RepoCache} once it is stored.
+     * Every proxied file should come through here, so that the cache always reflects what is stored.
+     * Once this returns, the file can be read from {@link Waitress#storage}.
+     */
+    public static void fetch(MavenCoordinate coordinate) throws IOException {
+        fetch(coordinate, true);
+    }
+
+    /**
+     * As {@link #fetch(MavenCoordinate)}.
+     * @param askPeers Whether the peer that owns the coordinate may be asked before the proxy. See {@link Peers}.
+     *                 False when a peer is asking, so that requests aren't passed around between peers.
+     */
+    public static void fetch(MavenCoordinate coordinate, boolean askPeers) throws IOException {
+        download(coordinate.path(), askPeers);
+        RepoCache.track(coordinate.path());
+    }
+
+    /**
+     * Downloads a file that isn't a coordinate (ie. maven-metadata.xml) from the proxy.
+     * These aren't tracked by the {@link RepoCache}.
+     * @param path The path of the file relative to the repository root.
+     * @param askPeers Whether the peer that owns the file may be asked before the proxy. See {@link #fetch(MavenCoordinate, boolean)}.
+     */
+    public static void fetchFile(String path, boolean askPeers) throws IOException {
+        download(path, askPeers);
+    }
+
+    /**
+     * Ask the proxy whether a cached file has changed, and download it again if it has.
+     * Sends the validators from the last download, so an unchanged file costs a 304 rather than the whole file.
+     * @param path The path of the file relative to the repository root.
+     */
+    static void revalidate(String path) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(upstreamOf(path)).openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+
+        Properties validators = Revalidator.read(path);
+        if (validators.containsKey("etag"))
+            connection.setRequestProperty("If-None-Match", validators.getProperty("etag"));
+        // Fall back on when we downloaded it, if the proxy didn't say when it was last changed.
+        String lastModified = validators.getProperty("last-modified");
+        if (lastModified == null)
+            lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(Waitress.storage.lastModified(path)).atOffset(ZoneOffset.UTC));
+        connection.setRequestProperty("If-Modified-Since", lastModified);
+
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED || status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                // Nothing new. If the proxy lost the file, keep serving what we have.
+                Revalidator.touch(path);
+                return;
+            }
+            if (status != HttpURLConnection.HTTP_OK)
+                throw new IOException("Proxy answered " + status);
+
+            try (InputStream stream = connection.getInputStream()) {
+                store(path, stream, connection);
+            }
+            Waitress.LOGGER.info("Cached file " + path + " changed upstream, and was downloaded again.");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Returns whether the proxy has recently reported that the given coordinate does not exist.
+     */
+    public static boolean isKnownMissing(MavenCoordinate coordinate) {
+        Long retryAt = missing.get(coordinate.path());
+        if (retryAt == null)
+            return false;
+        if (retryAt > System.currentTimeMillis())
+            return true;
+
+        missing.remove(coordinate.path(), retryAt);
+        return false;
+    }
+
+    /**
+     * Downloads a path relative to the proxy root into storage.
+     * Concurrent requests for the same path share a single download.
+     */
+    private static void download(String path, boolean askPeers) throws IOException {
+        // Named proxy repositories aren't watched by the proxy checker. See Repositories.
+        Repository repository = Repositories.holding(path);
+        if (repository == null) {
+            if (!Config.SHOULD_PROXY) throw new IllegalStateException("Unable to download artifact, proxy is disabled");
+            if (!Waitress.checker.isProxyAlive) throw new NoRouteToHostException("Proxy is down!");
+        } else if (!repository.isOpen()) {
+            throw new FileNotFoundException(path + " is in hosted repository " + repository + ", which doesn't proxy.");
+        }
+
+        Long retryAt = missing.get(path);
+        if (retryAt != null && retryAt > System.currentTimeMillis())
+            throw new FileNotFoundException(path + " is not in the proxy repository.");
+
+        CompletableFuture<Void> download = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inFlight.putIfAbsent(path, download);
+        if (existing != null) {
+            await(existing);
+            return;
+        }
+
+        long started = System.nanoTime();
+        try {
+            transfer(path, askPeers);
+            download.complete(null);
+            Metrics.PROXY_DOWNLOADS.labels("ok").increment();
+            Metrics.PROXY_DOWNLOAD_DURATION.observeSince(started);
+        } catch (FileNotFoundException e) {
+            missing.put(path, System.currentTimeMillis() + Config.NEGATIVE_CACHE_SECONDS * 1000L);
+            download.completeExceptionally(e);
+            Metrics.PROXY_DOWNLOADS.labels("missing").increment();
+        } catch (IOException | RuntimeException e) {
+            download.completeExceptionally(e);
+            Metrics.PROXY_DOWNLOADS.labels("error").increment();
+        } finally {
+            inFlight.remove(path, download);
+        }
+
+        await(download);
+    }
+
+    /**
+     * Download a file from the peer that owns it, or failing that, from the proxy.
+     */
+    private static void transfer(String path, boolean askPeers) throws IOException {
+        long started = Trace.start();
+        if (askPeers) {
+            String peer = Peers.ownerOf(path);
+            if (peer != null) {
+                boolean fetched = Peers.fetch(peer, path);
+                Trace.end(Trace.Phase.PEER, started);
+                if (fetched)
+                    return;
+                started = Trace.start();
+            }
+        }
+
+        final URLConnection connection = new URL(upstreamOf(path)).openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        final InputStream response = connection.getInputStream();
+        Trace.end(Trace.Phase.CONNECT, started);
+
+        try (InputStream stream = response) {
+            store(path, stream, connection);
+        }
+    }
+
+    /**
+     * Stream the file from the proxy into storage. See {@link Storage#write(String, InputStream)}.
+     * Anything written alongside it (ie. checksums) is added to the {@link RepoCache}, and text files are compressed
+     *  ready to be served. See {@link Precompressed}.
+     *
+     * If the file may change upstream, the validators the proxy sent are kept for the {@link Revalidator}.
+     */
+    static void store(String path, InputStream stream, URLConnection connection) throws IOException {
+        Precompressed.remove(path);
+        long started = Trace.start();
+        Waitress.storage.write(path, stream).forEach(RepoCache::track);
+        Trace.end(Trace.Phase.STORE, started);
+        Metrics.PROXY_DOWNLOAD_BYTES.add(Waitress.storage.size(path));
+        Precompressed.compress(path);
+
+        if (Revalidator.isMutable(path))
+            Revalidator.record(path, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+    }
+
+    /**
+     * @param path The path of a file in storage.
+     * @return The URL that the file is downloaded from: either the proxy's, or that of the proxy repository it is in.
+     */
+    private static String upstreamOf(String path) {
+        Repository repository = Repositories.holding(path);
+        return repository == null ? Config.PROXY_REPO + path : repository.url() + path.substring(repository.prefix().length());
+    }
+
     /**
-     * Downloads artifact at coordinate from proxy into directory
-     * @return Downloaded file
+     * Wait for a download to finish, unwrapping whatever it failed with.
      */
-    public static File downloadArtifact(String groupID, String artifactID, String version, String classifier, String extension) throws IOException {
-        if (!Config.SHOULD_PROXY) throw new IllegalStateException("Unable to download artifact, proxy is disabled");
-        final String path = groupID + "/" + artifactID + "/" + version + "/" + artifactID + "-" + version + classifier + "." + extension;
-        if (!Waitress.checker.isProxyAlive) throw new NoRouteToHostException("Proxy is down!");
-        final URL url = new URL(Config.PROXY_REPO + path);
-        FileUtil.streamToFile(url.openStream(), Config.DATA_DIR + path);
-        return new File(Config.DATA_DIR + path);
+    private static void await(CompletableFuture<Void> download) throws IOException {
+        try {
+            download.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw e;
+        }
     }
 }
@@ -0,0 +1,203 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.web.repository.Artifact;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.repository.MavenVersion;
+import uk.gemwire.waitress.web.repository.Metadata;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.NoRouteToHostException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The maven-metadata.xml of an artifact, across every member of a hosted or virtual {@link Repository}.
+ *
+ * It is built once, when it is first asked for, from the versions in the {@link RepoCache} and the metadata of any
+ *  members that proxy. Versions stored after that are added as they're indexed, so serving it is usually just sending
+ *  the same bytes again. Only proxied metadata can change without being indexed, so if any member proxies, this is
+ *  built again once it is older than METADATA_TTL_SECONDS.
+ *
+ * Versions are listed in the order the members are, and each member's in the order it lists them.
+ * The latest and release are those of the first member to have any: the proxied metadata's if it names them, or the
+ *  newest stored version. A version stored later takes over if it is newer still.
+ *
+ * @author Curle
+ */
+final class MergedMetadata {
+
+    private static final DateTimeFormatter LAST_UPDATED = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    // Checksum file extension -> the digest it holds.
+    private static final Map<String, String> DIGESTS = Map.of("md5", "MD5", "sha1", "SHA-1", "sha256", "SHA-256", "sha512", "SHA-512");
+
+    private final String groupID;
+    private final String artifactID;
+    // When (in millis) this has to be built again, or Long.MAX_VALUE if never.
+    private final long expires;
+
+    private final Set<String> versions = new LinkedHashSet<>();
+    private String latest;
+    private String release;
+    private String lastUpdated;
+    // The rendered file, or null if it changed since it was last rendered.
+    private byte[] rendered;
+    // Checksum extension -> the checksum of the rendered file.
+    private final Map<String, byte[]> checksums = new HashMap<>();
+
+    private MergedMetadata(String groupID, String artifactID, long expires) {
+        this.groupID = groupID;
+        this.artifactID = artifactID;
+        this.expires = expires;
+    }
+
+    /**
+     * Merge the metadata of an artifact from the given members.
+     * Members that can't give their metadata are skipped.
+     * @param route The members to merge, in order. See {@link Repository#route(String)}.
+     * @param askPeers Whether peers may be asked for proxied metadata.
+     */
+    static MergedMetadata build(List<Repository> route, String groupID, String artifactID, boolean askPeers) {
+        boolean proxied = route.stream().anyMatch(Repository::isOpen);
+        MergedMetadata merged = new MergedMetadata(groupID, artifactID,
+                proxied ? System.currentTimeMillis() + Config.METADATA_TTL_SECONDS * 1000 : Long.MAX_VALUE);
+
+        for (Repository member : route) {
+            if (member.isOpen())
+                merged.merge(proxied(member, groupID + "/" + artifactID + "/maven-metadata.xml", askPeers));
+            merged.addIndexed(List.of(member));
+        }
+        return merged;
+    }
+
+    /**
+     * @return The metadata a proxy member has for an artifact, downloading it if need be, or null if it has none.
+     */
+    private static Metadata proxied(Repository member, String relative, boolean askPeers) {
+        String path = member.path(relative);
+        try {
+            if (Waitress.storage.exists(path))
+                Revalidator.check(path);
+            else
+                MavenDownloader.fetchFile(path, askPeers);
+
+            try (InputStream stream = Waitress.storage.read(path)) {
+                return Metadata.parse(stream);
+            }
+        } catch (FileNotFoundException | NoRouteToHostException e) {
+            return null;
+        } catch (IOException e) {
+            Waitress.LOGGER.warn("Metadata " + path + " from repository " + member + " can't be merged: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private synchronized void merge(Metadata metadata) {
+        if (metadata == null)
+            return;
+        versions.addAll(metadata.versions());
+        if (latest == null)
+            latest = metadata.latest();
+        if (release == null)
+            release = metadata.release();
+        if (metadata.lastUpdated() != null && (lastUpdated == null || metadata.lastUpdated().compareTo(lastUpdated) > 0))
+            lastUpdated = metadata.lastUpdated();
+        rendered = null;
+    }
+
+    /**
+     * Add every version the given members have stored, according to the {@link RepoCache}.
+     * Versions that are already listed are left where they are, and don't count as new.
+     */
+    synchronized void addIndexed(List<Repository> members) {
+        for (Repository member : members) {
+            Artifact artifact = RepoCache.get(member.path(groupID), artifactID);
+            if (artifact == null)
+                continue;
+            // If nothing named them yet, the latest and release are this member's newest.
+            if (latest == null && artifact.getLatest() != null)
+                latest = new MavenCoordinate(groupID, artifactID, artifact.getLatest(), "", "pom").baseVersion();
+            if (release == null)
+                release = artifact.getRelease();
+            for (String version : artifact.getVersions()) {
+                // Timestamped SNAPSHOT builds are listed under the SNAPSHOT they belong to.
+                if (versions.add(new MavenCoordinate(groupID, artifactID, version, "", "pom").baseVersion()))
+                    rendered = null;
+            }
+        }
+        if (lastUpdated == null)
+            lastUpdated = now();
+    }
+
+    /**
+     * Add a version that was just stored. It becomes the latest if it is newer, and the release too if it isn't a
+     *  SNAPSHOT.
+     * @param version The version, without a SNAPSHOT timestamp.
+     */
+    synchronized void add(String version) {
+        if (!versions.add(version))
+            return;
+        MavenVersion added = MavenVersion.parse(version);
+        if (latest == null || added.compareTo(MavenVersion.parse(latest)) > 0)
+            latest = version;
+        if (!added.isSnapshot() && (release == null || added.compareTo(MavenVersion.parse(release)) > 0))
+            release = version;
+        lastUpdated = now();
+        rendered = null;
+    }
+
+    boolean isExpired() {
+        return System.currentTimeMillis() > expires;
+    }
+
+    /**
+     * @return Whether any member has the artifact.
+     */
+    synchronized boolean isEmpty() {
+        return versions.isEmpty();
+    }
+
+    /**
+     * @param extension The extension after maven-metadata.xml: empty for the file itself, or a checksum (ie. ".sha1").
+     * @return The file, or its checksum. Null for an unknown kind of checksum.
+     */
+    synchronized byte[] render(String extension) {
+        if (rendered == null) {
+            rendered = new Metadata(groupID.replace('/', '.'), artifactID, latest, release, new ArrayList<>(versions), lastUpdated).render();
+            checksums.clear();
+        }
+        if (extension.isEmpty())
+            return rendered;
+
+        String kind = extension.substring(1);
+        String digest = DIGESTS.get(kind);
+        if (digest == null)
+            return null;
+        return checksums.computeIfAbsent(kind, key -> {
+            try {
+                return HexFormat.of().formatHex(MessageDigest.getInstance(digest).digest(rendered)).getBytes();
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java has these.
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static String now() {
+        return LAST_UPDATED.format(ZonedDateTime.now(ZoneOffset.UTC));
+    }
+}
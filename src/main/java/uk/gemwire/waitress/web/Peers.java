@@ -0,0 +1,147 @@
+package uk.gemwire.waitress.web;
+
+import io.javalin.http.Context;
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The other Waitress servers in a cluster, which share their caches with this one.
+ *
+ * Without peers, every server behind a load balancer fetches every artifact from the proxy for itself. With them, each
+ *  artifact version has an owner, picked by consistent hashing (see {@link HashRing}) from the same list of peers on
+ *  every server. A server that doesn't have a file asks its owner for it before asking the proxy. The owner fetches it
+ *  from the proxy if it doesn't have it either, so each file is only downloaded from the proxy once, by its owner.
+ *  Either way, the file is stored exactly as if it had come from the proxy. See {@link MavenDownloader}.
+ *
+ * Requests from peers carry a header with the shared secret. Such requests may read anything, are never rate limited,
+ *  and are never passed on to another peer, so servers that disagree about who owns a file can't send it in circles.
+ *
+ * If a peer fails to answer, it is left alone for a while and the proxy is used instead.
+ *
+ * @author Curle
+ */
+public final class Peers {
+
+    // The header that marks a request as coming from a peer. Its value is the shared secret.
+    public static final String HEADER = "X-Waitress-Peer";
+
+    // How long (in seconds) to leave a peer alone after it fails to answer.
+    private static final long RETRY_SECONDS = 30;
+
+    // Who owns what, or null if there are no peers.
+    private static HashRing ring;
+    // Peer -> when (in System.nanoTime()) it may be asked again, for peers that recently failed.
+    private static final Map<String, Long> down = new ConcurrentHashMap<>();
+
+    /**
+     * Read the list of peers from the config.
+     * Peers are listed by the URL of their repository root, and this server must be listed the same way as PEER_SELF.
+     */
+    public static void setup() {
+        List<String> peers = new ArrayList<>();
+        for (String peer : Config.PEERS.split(","))
+            if (!peer.isBlank())
+                peers.add(normalize(peer));
+        if (peers.isEmpty()) {
+            ring = null;
+            return;
+        }
+
+        if (Config.PEER_SECRET.isEmpty())
+            throw new IllegalStateException("Peers need a peer_secret, so that they can tell each other apart from clients.");
+        if (!peers.contains(normalize(Config.PEER_SELF)))
+            Waitress.LOGGER.warn("This server (" + Config.PEER_SELF + ") isn't in the list of peers, so it will never own a file.");
+
+        ring = new HashRing(peers);
+        Waitress.LOGGER.info("Sharing the cache with " + (peers.size() - 1) + " peers.");
+    }
+
+    /**
+     * @return Whether a request came from a peer, with the right secret.
+     * The secret is compared in constant time, so how long it takes doesn't give away how much of it was right.
+     */
+    public static boolean isPeerRequest(Context request) {
+        String secret = request.header(HEADER);
+        return !Config.PEER_SECRET.isEmpty() && secret != null
+                && MessageDigest.isEqual(Config.PEER_SECRET.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param path The path of a file relative to the repository root.
+     * @return The peer to ask for the file, or null if this server owns it, or the owner is down.
+     */
+    static String ownerOf(String path) {
+        HashRing current = ring;
+        if (current == null)
+            return null;
+
+        // Everything in a version's directory has the same owner, so that the POM, jar and checksums are stored together.
+        int slash = path.lastIndexOf('/');
+        String owner = current.owner(slash < 0 ? path : path.substring(0, slash));
+        if (owner == null || owner.equals(normalize(Config.PEER_SELF)))
+            return null;
+
+        Long retryAt = down.get(owner);
+        if (retryAt != null) {
+            if (retryAt - System.nanoTime() > 0)
+                return null;
+            down.remove(owner, retryAt);
+        }
+        return owner;
+    }
+
+    /**
+     * Download a file from a peer into storage.
+     * @param peer The peer that owns the file. See {@link #ownerOf(String)}.
+     * @param path The path of the file relative to the repository root.
+     * @return Whether the file was stored. If not, the proxy should be asked instead.
+     */
+    static boolean fetch(String peer, String path) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(peer + path).openConnection();
+            connection.setConnectTimeout(Config.PEER_TIMEOUT_MILLIS);
+            connection.setReadTimeout(Config.PEER_TIMEOUT_MILLIS * 10);
+            connection.setRequestProperty(HEADER, Config.PEER_SECRET);
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                // It doesn't have the file, and couldn't get it. The proxy may still be able to.
+                Metrics.PEER_FETCHES.labels("missing").increment();
+                return false;
+            }
+
+            try (InputStream stream = connection.getInputStream()) {
+                MavenDownloader.store(path, stream, connection);
+            }
+            Metrics.PEER_FETCHES.labels("ok").increment();
+            return true;
+        } catch (IOException e) {
+            Waitress.LOGGER.warn("Peer " + peer + " failed to send " + path + ": " + e.getMessage() + ". Leaving it alone for " + RETRY_SECONDS + " seconds.");
+            down.put(peer, System.nanoTime() + TimeUnit.SECONDS.toNanos(RETRY_SECONDS));
+            Metrics.PEER_FETCHES.labels("error").increment();
+            return false;
+        } finally {
+            if (connection != null)
+                connection.disconnect();
+        }
+    }
+
+    private static String normalize(String peer) {
+        peer = peer.strip();
+        return peer.endsWith("/") ? peer : peer + "/";
+    }
+}
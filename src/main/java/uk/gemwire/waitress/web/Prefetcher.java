@@ -0,0 +1,175 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.repository.Pom;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dependency-aware prefetching.
+ *
+ * When a client pulls a POM through the proxy, it is almost always going to ask for the jar, the checksums,
+ *  and then the POM of every dependency next.
+ * Once a proxied POM is cached, this reads it and downloads those files in the background, so that they're
+ *  already on disk by the time the client asks.
+ *
+ * Work is done on a small pool of low priority threads, with a bounded queue.
+ * If the queue is full, prefetches are dropped - they're only ever an optimization. A dropped POM may be scheduled again
+ *  the next time it is pulled.
+ *
+ * @author Curle
+ */
+public class Prefetcher {
+
+    // The most prefetches that may be waiting at once.
+    private static final int QUEUE_SIZE = 1024;
+    // The most POMs remembered as scheduled. Past this, the least recently scheduled are forgotten.
+    private static final int SCHEDULED_SIZE = 65536;
+
+    // The checksums that are fetched alongside every prefetched file.
+    private static final String[] CHECKSUMS = { "sha1", "md5" };
+
+    // The POMs that have been scheduled recently, so that a dependency graph is only walked once.
+    private static final Set<String> scheduled = Collections.newSetFromMap(Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SCHEDULED_SIZE;
+        }
+    }));
+
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * Queue a prefetch of everything related to a POM that was just downloaded from the proxy.
+     * Does nothing if prefetching is disabled.
+     * @param pom The coordinate of the POM that was cached.
+     */
+    public static void schedule(MavenCoordinate pom) {
+        if (!Config.PREFETCH)
+            return;
+
+        schedule(pom, 0);
+    }
+
+    private static void schedule(MavenCoordinate pom, int depth) {
+        if (!scheduled.add(pom.path()))
+            return;
+
+        try {
+            executor().execute(() -> {
+                try {
+                    prefetch(pom, depth);
+                } catch (Exception e) {
+                    Waitress.LOGGER.debug("Prefetch of " + pom + " failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The queue is full. It was never walked, so it may be scheduled again.
+            scheduled.remove(pom.path());
+        }
+    }
+
+    /**
+     * Fetch the companions of the given POM, then the POMs of its parent and dependencies.
+     * The POM itself must already be in the cache.
+     */
+    private static void prefetch(MavenCoordinate coordinate, int depth) throws IOException {
+        // The proxy went down after we were queued. Let the next on-demand fetch find that out.
+        if (!Waitress.checker.isProxyAlive)
+            return;
+
+        if (!Waitress.storage.exists(coordinate.path()))
+            return;
+
+        final Pom pom;
+        try (InputStream stream = Waitress.storage.read(coordinate.path())) {
+            pom = Pom.parse(stream);
+        }
+
+        tryFetchWithChecksums(coordinate);
+        // A pom-packaged project doesn't have a jar.
+        if (!pom.packaging().equals("pom"))
+            tryFetchWithChecksums(coordinate.withExtension("jar"));
+
+        if (depth + 1 > Config.PREFETCH_DEPTH)
+            return;
+
+        if (pom.parent() != null && tryFetch(pom.parent()))
+            schedule(pom.parent(), depth + 1);
+
+        for (Pom.Dependency dependency : pom.dependencies()) {
+            // Only things that end up on the client's classpath are worth guessing at.
+            String scope = dependency.scopeOrDefault();
+            if (dependency.optional() || scope.equals("test") || scope.equals("provided") || scope.equals("system"))
+                continue;
+            // Versions from a parent or the dependencyManagement aren't known without reading those first.
+            if (!dependency.isResolved())
+                continue;
+
+            MavenCoordinate dependencyPom = dependency.pom();
+            if (tryFetch(dependencyPom))
+                schedule(dependencyPom, depth + 1);
+        }
+    }
+
+    /**
+     * Fetch a file and its checksums.
+     */
+    private static void tryFetchWithChecksums(MavenCoordinate coordinate) {
+        if (!tryFetch(coordinate))
+            return;
+
+        for (String checksum : CHECKSUMS)
+            tryFetch(coordinate.withExtension(coordinate.extension() + "." + checksum));
+    }
+
+    /**
+     * Fetch the given coordinate through the proxy pipeline, unless it is already cached or known to be missing.
+     * @return whether the file is now in the cache.
+     */
+    private static boolean tryFetch(MavenCoordinate coordinate) {
+        if (RepoCache.contains(coordinate.groupID(), coordinate.artifactID(), coordinate.version(), coordinate.classifier(), coordinate.extension()))
+            return true;
+        if (MavenDownloader.isKnownMissing(coordinate) || !Waitress.checker.isProxyAlive)
+            return false;
+
+        try {
+            MavenDownloader.fetch(coordinate);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Lazily create the worker pool, so that nothing is started when prefetching is disabled.
+     */
+    private static synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            executor = new ThreadPoolExecutor(Config.PREFETCH_THREADS, Config.PREFETCH_THREADS, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_SIZE),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "prefetch " + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+}
@@ -19,8 +19,7 @@ public class ProxyChecker extends Thread{
     @Override
     public void run() {
         try {
-            isProxyAlive = isAvailable(Config.PROXY_REPO);
-            if (!isProxyAlive) Waitress.LOGGER.warn("Proxy is not alive!");
+            check();
             Thread.sleep(1000 * 60 * 5); // Sleep for 5 minutes
         } catch (InterruptedException e) {
             callback.run();
@@ -28,6 +27,16 @@ public class ProxyChecker extends Thread{
         }
     }
 
+    /**
+     * Check the configured proxy right now, and remember the result.
+     * @return Whether the proxy is alive.
+     */
+    public boolean check() {
+        isProxyAlive = isAvailable(Config.PROXY_REPO);
+        if (!isProxyAlive) Waitress.LOGGER.warn("Proxy is not alive!");
+        return isProxyAlive;
+    }
+
     public boolean isAvailable(String address) {
         try {
             HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
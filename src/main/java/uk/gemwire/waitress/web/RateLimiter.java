@@ -0,0 +1,137 @@
+package uk.gemwire.waitress.web;
+
+import io.javalin.http.Context;
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.authentication.Auth;
+import uk.gemwire.waitress.authentication.entity.User;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps any one client from taking more than its share of the server.
+ *
+ * Every user, and every address that requests come from, has a {@link TokenBucket} for files that are already cached
+ *  (hits), and another for files that have to be fetched from the proxy (misses). Misses cost far more, as they hold
+ *  a thread and an upstream connection for as long as the download takes, so they have their own, smaller budget.
+ * A request takes a token from its user's bucket and its address's bucket. Anonymous requests only have an address.
+ *  If the address's bucket turns it away, the user's token is given back, so that users sharing a busy address (ie.
+ *  behind one NAT, or on one CI machine) don't pay for requests that were never served.
+ *  Limiting addresses as well as users means nobody gets around their limit by not logging in, or by logging in as
+ *  many users from one machine.
+ *
+ * A request over its budget is turned away with 429 Too Many Requests, and a Retry-After header saying when it would
+ *  be let through. Build tools back off and retry when they see it.
+ *
+ * Each rate is in requests per second, and 0 means no limit. Everything is unlimited by default.
+ *
+ * @author Curle
+ */
+public final class RateLimiter {
+
+    // How often (in seconds) to forget the buckets of clients that have gone quiet.
+    private static final long SWEEP_SECONDS = 60;
+
+    // User or address -> bucket.
+    private static final Map<String, TokenBucket> userHits = new ConcurrentHashMap<>();
+    private static final Map<String, TokenBucket> userMisses = new ConcurrentHashMap<>();
+    private static final Map<String, TokenBucket> addressHits = new ConcurrentHashMap<>();
+    private static final Map<String, TokenBucket> addressMisses = new ConcurrentHashMap<>();
+
+    /**
+     * Take a token for a request, from the budgets of whoever made it.
+     * @param request The metadata of the request.
+     * @param user Who made the request.
+     * @param miss Whether the request has to be fetched from the proxy, rather than served from the cache.
+     * @return Whether the request may continue. If not, the status and Retry-After are already set.
+     */
+    public static boolean admit(Context request, User user, boolean miss) {
+        long wait = wait(user, request.ip(), miss);
+        if (wait == 0)
+            return true;
+
+        Metrics.REQUESTS_REJECTED.labels(miss ? "rate_limit_miss" : "rate_limit_hit").increment();
+        request.header("Retry-After", Long.toString(TimeUnit.NANOSECONDS.toSeconds(wait - 1) + 1));
+        request.status(429);
+        return false;
+    }
+
+    /**
+     * Take a token for a file that has to be fetched from the proxy, but isn't a request of its own (ie. one file of a
+     *  batch), from the miss budgets of whoever asked for it.
+     * @param user Who asked for the file.
+     * @param address Where the request for it came from.
+     * @return Whether the file may be fetched.
+     */
+    public static boolean admitMiss(User user, String address) {
+        if (wait(user, address, true) == 0)
+            return true;
+        Metrics.REQUESTS_REJECTED.labels("rate_limit_miss").increment();
+        return false;
+    }
+
+    /**
+     * Take a token from the user's and the address's budgets, or from neither.
+     * @return 0 if a token was taken, otherwise how many nanoseconds until there will be one.
+     */
+    private static long wait(User user, String address, boolean miss) {
+        double userRate = miss ? Config.USER_MISS_RATE : Config.USER_HIT_RATE;
+        double addressRate = miss ? Config.IP_MISS_RATE : Config.IP_HIT_RATE;
+        if (userRate <= 0 && addressRate <= 0)
+            return 0;
+
+        long now = System.nanoTime();
+        TokenBucket userBucket = null;
+        if (userRate > 0 && user != Auth.anonymous) {
+            userBucket = bucket(miss ? userMisses : userHits, user.getUsername(), userRate, now);
+            long wait = userBucket.take(now);
+            if (wait > 0)
+                return wait;
+        }
+        if (addressRate > 0) {
+            long wait = bucket(miss ? addressMisses : addressHits, address, addressRate, now).take(now);
+            if (wait > 0) {
+                if (userBucket != null)
+                    userBucket.giveBack();
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    private static TokenBucket bucket(Map<String, TokenBucket> buckets, String key, double rate, long now) {
+        return buckets.computeIfAbsent(key, k -> new TokenBucket(rate, rate * Config.RATE_LIMIT_BURST_SECONDS, now));
+    }
+
+    /**
+     * Start a background thread that forgets the buckets of clients that have gone quiet, so that a scan from many
+     *  addresses doesn't leave a bucket behind for each of them forever.
+     * A full bucket is the same as no bucket, so forgetting one changes nothing.
+     */
+    public static void startSweeper() {
+        if (Config.USER_HIT_RATE <= 0 && Config.USER_MISS_RATE <= 0 && Config.IP_HIT_RATE <= 0 && Config.IP_MISS_RATE <= 0)
+            return;
+
+        Thread sweeper = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(SWEEP_SECONDS));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long now = System.nanoTime();
+                for (Map<String, TokenBucket> buckets : List.of(userHits, userMisses, addressHits, addressMisses))
+                    buckets.values().removeIf(bucket -> bucket.isFull(now));
+            }
+        }, "rate limit sweeper");
+        sweeper.setDaemon(true);
+        sweeper.setPriority(Thread.MIN_PRIORITY);
+        sweeper.start();
+        Waitress.LOGGER.info("Rate limits: " + Config.USER_HIT_RATE + " hits and " + Config.USER_MISS_RATE + " misses a second per user, "
+                + Config.IP_HIT_RATE + " hits and " + Config.IP_MISS_RATE + " misses a second per address.");
+    }
+}
@@ -0,0 +1,428 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.storage.Precompressed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies uploads to other servers, so that losing one server doesn't lose the releases that were uploaded to it.
+ *
+ * Every upload is appended to a journal on disk before the client is told it succeeded. Then, for each replica, a
+ *  background thread sends the uploads it hasn't had yet, in batches, and remembers how far through the journal that
+ *  replica has got. Uploading is no slower, and a replica that was down picks up from where it left off.
+ * Replicas apply what they're sent idempotently: an upload they already have is skipped, so a batch that was sent
+ *  twice (ie. because the acknowledgement was lost) does no harm. Replicas don't journal what they're sent, so
+ *  uploads are never sent back and forth.
+ *
+ * The journal only holds the paths of uploads, one per line. Their contents are read from storage when they're sent.
+ *  Uploads are never replaced, so the contents are the same as when they were journalled.
+ * Once every replica has applied enough of the journal, the entries they all have are trimmed off the front of it, so it
+ *  doesn't grow forever. A replica added later only gets the uploads still in the journal, so anything older has to
+ *  be copied to it by hand.
+ *
+ * Replicas are listed by the URL of their repository root, and are sent to with the peer secret. See {@link Peers}.
+ *
+ * @author Curle
+ */
+public final class Replication {
+
+    private static final String DIRECTORY = ".replication/";
+    private static final String JOURNAL = "journal";
+    private static final String OFFSETS = "offsets.properties";
+
+    // How long (in milliseconds) to wait before sending to a replica again after it failed, at first and at most.
+    private static final long MIN_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 60000;
+    // How many entries every replica must have applied before they're trimmed off the journal.
+    private static final int TRIM_ENTRIES = 1000;
+
+    /**
+     * An upload in the journal.
+     * @param time When it was accepted, in milliseconds since the epoch.
+     * @param path The path of the file relative to the repository root.
+     */
+    private record Entry(long time, String path) {}
+
+    // Every upload journalled since the journal was last trimmed, in order. An upload's sequence number is its position
+    //  in the list, plus the number of entries trimmed before it.
+    // Guarded by Replication.class, which is also notified when an upload is added.
+    private static final List<Entry> entries = new ArrayList<>();
+    // The sequence number of the first entry. Kept on the first line of the journal, as "# first".
+    private static long trimmed = 0;
+    // The journal, open for appending. Null if there are no replicas.
+    private static FileChannel journal;
+    // Where the journal has to be cut back to, if a line was only partly written and couldn't be cut off yet. Else -1.
+    private static long torn = -1;
+    // Every replica, by the URL of its repository root.
+    private static final List<String> replicas = new ArrayList<>();
+
+    // Replica -> how many entries it has applied. Guarded by itself.
+    private static final Properties offsets = new Properties();
+
+    /**
+     * Load the journal and start sending it to every replica.
+     * Does nothing if there are no replicas.
+     */
+    public static void start() throws IOException {
+        for (String replica : Config.REPLICAS.split(","))
+            if (!replica.isBlank())
+                replicas.add(replica.strip().replaceAll("/+$", ""));
+        if (replicas.isEmpty())
+            return;
+        if (Config.PEER_SECRET.isEmpty())
+            throw new IllegalStateException("Replicas need a peer_secret, so that they know who is sending to them.");
+
+        Path directory = Files.createDirectories(Paths.get(Config.DATA_DIR + DIRECTORY));
+        load(directory.resolve(JOURNAL));
+        if (Files.exists(directory.resolve(OFFSETS)))
+            try (Reader reader = Files.newBufferedReader(directory.resolve(OFFSETS))) {
+                offsets.load(reader);
+            }
+        journal = FileChannel.open(directory.resolve(JOURNAL), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        for (String replica : replicas) {
+            Thread shipper = new Thread(() -> ship(replica), "replication to " + replica);
+            shipper.setDaemon(true);
+            shipper.start();
+        }
+        Waitress.LOGGER.info("Replicating " + entries.size() + " journalled uploads to " + replicas);
+    }
+
+    /**
+     * Read every complete line of the journal. A line cut short by a crash is removed, as its upload never succeeded.
+     */
+    private static void load(Path file) throws IOException {
+        if (!Files.exists(file))
+            return;
+
+        byte[] content = Files.readAllBytes(file);
+        int end = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != '\n')
+                continue;
+            String line = new String(content, end, i - end, StandardCharsets.UTF_8);
+            int space = line.indexOf(' ');
+            end = i + 1;
+            if (line.startsWith("#")) {
+                trimmed = Long.parseLong(line.substring(space + 1));
+                continue;
+            }
+            entries.add(new Entry(Long.parseLong(line.substring(0, space)), line.substring(space + 1)));
+        }
+        if (end < content.length) {
+            Waitress.LOGGER.warn("Removing an incomplete entry from the end of the replication journal.");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * Journal an upload, so that it will be sent to every replica.
+     * Once this returns, the upload is on disk, and will be sent even if the server is restarted.
+     * @param path The path of the file relative to the repository root.
+     */
+    public static void record(String path) throws IOException {
+        if (journal == null)
+            return;
+
+        synchronized (Replication.class) {
+            // Otherwise this line would be read back as the end of the torn one.
+            if (torn >= 0) {
+                journal.truncate(torn);
+                torn = -1;
+            }
+
+            Entry entry = new Entry(System.currentTimeMillis(), path);
+            ByteBuffer line = ByteBuffer.wrap((entry.time() + " " + path + "\n").getBytes(StandardCharsets.UTF_8));
+            long start = journal.position();
+            try {
+                while (line.hasRemaining())
+                    journal.write(line);
+                journal.force(false);
+            } catch (IOException e) {
+                try {
+                    journal.truncate(start);
+                } catch (IOException truncation) {
+                    torn = start;
+                    e.addSuppressed(truncation);
+                }
+                throw e;
+            }
+            entries.add(entry);
+            Replication.class.notifyAll();
+        }
+    }
+
+    /**
+     * Send the journal to a replica, forever. Run on its own thread.
+     */
+    private static void ship(String replica) {
+        long retry = MIN_RETRY_MILLIS;
+        boolean failing = false;
+
+        while (true) {
+            List<Entry> batch;
+            int first;
+            try {
+                synchronized (Replication.class) {
+                    first = applied(replica);
+                    if (first < trimmed) {
+                        Waitress.LOGGER.warn("Replica " + replica + " is missing " + (trimmed - first) + " uploads that were trimmed from the journal. They have to be copied by hand.");
+                        first = (int) trimmed;
+                    }
+                    while (first >= trimmed + entries.size()) {
+                        publishLag(replica, 0, 0);
+                        Replication.class.wait();
+                    }
+                    int start = (int) (first - trimmed);
+                    batch = new ArrayList<>(entries.subList(start, Math.min(entries.size(), start + Config.REPLICATION_BATCH_SIZE)));
+                    publishLag(replica, entries.size() - start, System.currentTimeMillis() - batch.get(0).time());
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                send(replica, first, batch);
+                setApplied(replica, first + batch.size());
+                Metrics.REPLICATION_BATCHES.labels(replica, "ok").increment();
+                trim();
+                if (failing)
+                    Waitress.LOGGER.info("Replica " + replica + " is accepting uploads again.");
+                failing = false;
+                retry = MIN_RETRY_MILLIS;
+            } catch (IOException e) {
+                Metrics.REPLICATION_BATCHES.labels(replica, "error").increment();
+                if (!failing)
+                    Waitress.LOGGER.warn("Replica " + replica + " failed to accept uploads: " + e.getMessage() + ". Retrying until it does.");
+                failing = true;
+                try {
+                    Thread.sleep(retry);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                retry = Math.min(retry * 2, MAX_RETRY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Send a batch of uploads to a replica, and wait for it to apply them.
+     * Each upload is sent as its sequence number, path, size and contents. An upload that has since been removed is
+     *  sent with a size of -1. The batch ends with a sequence number of -1.
+     */
+    private static void send(String replica, int first, List<Entry> batch) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(replica + Config.ADMIN_PANEL + "/replication").openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(60000);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(64 * 1024);
+        connection.setRequestProperty(Peers.HEADER, Config.PEER_SECRET);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), 64 * 1024))) {
+                for (int i = 0; i < batch.size(); i++) {
+                    String path = batch.get(i).path();
+                    out.writeLong(first + i);
+                    out.writeUTF(path);
+                    try (InputStream content = Waitress.storage.read(path)) {
+                        out.writeLong(Waitress.storage.size(path));
+                        content.transferTo(out);
+                    } catch (FileNotFoundException e) {
+                        out.writeLong(-1);
+                    }
+                }
+                out.writeLong(-1);
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK)
+                throw new IOException("Replica answered " + status);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Apply a batch of uploads sent by another server. See {@link #send(String, int, List)} for the format.
+     * Uploads that are already stored are skipped.
+     * @param body The batch.
+     * @return How many uploads were stored.
+     */
+    public static int apply(InputStream body) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(body, 64 * 1024));
+        int applied = 0;
+        while (true) {
+            long sequence = in.readLong();
+            if (sequence < 0)
+                return applied;
+
+            String path = in.readUTF();
+            long size = in.readLong();
+            if (size < 0)
+                continue;
+            // Anything else could be written outside the repository.
+            if (MavenCoordinate.parse("/" + path) == null)
+                throw new IOException("Replicated upload " + path + " isn't a Maven coordinate.");
+
+            Slice content = new Slice(in, size);
+            if (Waitress.storage.exists(path) && Waitress.storage.size(path) == size) {
+                content.skipAll();
+                continue;
+            }
+
+            Precompressed.remove(path);
+            Waitress.storage.write(path, content).forEach(RepoCache::track);
+            content.skipAll();
+            Precompressed.compress(path);
+            RepoCache.track(path);
+            applied++;
+        }
+    }
+
+    /**
+     * Trim the entries that every replica has applied off the front of the journal, if there are enough of them.
+     * The journal is written again without them, and swapped in whole, so a crash leaves one or the other.
+     */
+    private static void trim() throws IOException {
+        synchronized (Replication.class) {
+            long applied = Long.MAX_VALUE;
+            for (String replica : replicas)
+                applied = Math.min(applied, applied(replica));
+            int count = (int) (applied - trimmed);
+            if (count < TRIM_ENTRIES)
+                return;
+
+            Path file = Paths.get(Config.DATA_DIR + DIRECTORY + JOURNAL);
+            Path temporary = file.resolveSibling(JOURNAL + ".part");
+            try (Writer writer = Files.newBufferedWriter(temporary)) {
+                writer.write("# " + applied + "\n");
+                for (Entry entry : entries.subList(count, entries.size()))
+                    writer.write(entry.time() + " " + entry.path() + "\n");
+            }
+            try (FileChannel written = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                written.force(true);
+            }
+            journal.close();
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            // Only whole entries were written again.
+            torn = -1;
+
+            entries.subList(0, count).clear();
+            trimmed = applied;
+        }
+    }
+
+    private static int applied(String replica) {
+        synchronized (offsets) {
+            return Integer.parseInt(offsets.getProperty(replica, "0"));
+        }
+    }
+
+    private static void setApplied(String replica, int count) throws IOException {
+        synchronized (offsets) {
+            offsets.setProperty(replica, Integer.toString(count));
+            Path file = Paths.get(Config.DATA_DIR + DIRECTORY + OFFSETS);
+            Path temporary = file.resolveSibling(OFFSETS + ".part");
+            try (Writer writer = Files.newBufferedWriter(temporary)) {
+                offsets.store(writer, "How many journal entries each replica has applied.");
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * @param entries How many entries the replica is behind.
+     * @param millis How long ago the oldest of them was journalled.
+     */
+    private static void publishLag(String replica, long entries, long millis) {
+        Metrics.REPLICATION_LAG_ENTRIES.labels(replica).set(entries);
+        Metrics.REPLICATION_LAG_SECONDS.labels(replica).set(TimeUnit.MILLISECONDS.toSeconds(millis));
+    }
+
+    /**
+     * The next so many bytes of a stream, leaving the stream open afterwards.
+     */
+    private static final class Slice extends FilterInputStream {
+
+        private long remaining;
+
+        private Slice(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int b = in.read();
+            if (b < 0)
+                throw new IOException("Replicated upload was cut short.");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int count = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count < 0)
+                throw new IOException("Replicated upload was cut short.");
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        void skipAll() throws IOException {
+            in.skipNBytes(remaining);
+            remaining = 0;
+        }
+
+        @Override
+        public void close() {
+            // The rest of the batch is still to be read.
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -2,92 +2,202 @@ package uk.gemwire.waitress.web;
 
 import uk.gemwire.waitress.Waitress;
 import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+import uk.gemwire.waitress.web.index.HeapIndex;
+import uk.gemwire.waitress.web.index.Index;
 import uk.gemwire.waitress.web.repository.Artifact;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 /**
  * Stores a list of artifacts that are currently handled by *this* repository.
  * If an artifact does not exist in this cache, it should be queried from mirrored repos.
  *
+ * Where the list is kept is up to the {@link Index} named in the config.
+ *
  * @author Curle
  */
 public class RepoCache {
 
-    private static final List<Artifact> artifacts = new ArrayList<>();
+    // At most this many of the most requested groups are indexed before the rest.
+    private static final int HOT_GROUPS = 1000;
+    // How the path of a request starts in the access log. See AccessLog.
+    private static final String PATH_FIELD = "\"path\":\"";
+
+    // Requests and background prefetches both add to this, so it must be safe to touch from any thread.
+    // On the heap until the index named in the config is opened.
+    private static Index index = new HeapIndex();
+
+    // Whether every stored file is in the index. Only false while indexing in the background.
+    private static volatile boolean indexed = true;
+    // While indexing in the background, the groups that have been indexed already.
+    private static final Set<String> indexedGroups = ConcurrentHashMap.newKeySet();
+    // How many files have been added while enumerating.
+    private static final LongAdder indexedFiles = new LongAdder();
+
+    /**
+     * Open the index named in the config, in place of the one on the heap. It is closed when the server stops.
+     * This should only be called once, when the server is starting, before {@link #enumerate()}.
+     */
+    public static void open() throws IOException {
+        Index opened = Index.create();
+        index = opened;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                opened.close();
+            } catch (IOException e) {
+                Waitress.LOGGER.warn("The index couldn't be saved: " + e.getMessage());
+            }
+        }, "Waitress index close"));
+    }
 
     /**
-     * Read the data directory and enumerate every artifact into the cache.
+     * Read the repository storage and enumerate every artifact into the cache.
      * This should only be called once, when the server is starting.
      *
      * This operation is rather costly, due to the disk thrashing.
+     * If it fails partway, the index is left incomplete: lookups keep falling back on storage, and the server doesn't
+     *  report itself ready.
      */
     public static void enumerate() {
-        try {
-            var dirs = recurseDirs(new File(Config.DATA_DIR), new ArrayList<>());
-
-            dirs.forEach(d ->  {
-                // Remove the data/ part of the name.
-                Path dpath = d.toPath();
-                dpath = dpath.subpath(1, dpath.getNameCount());
+        long started = System.currentTimeMillis();
+        if (index.isComplete()) {
+            // Kept from the last run, so only the routing of virtual repositories has to be filled in again.
+            if (Repositories.isEnabled())
+                index.forEachVersion((groupID, artifactID, version) ->
+                        Repositories.tracked(new MavenCoordinate(groupID, artifactID, version, "", "pom")));
+            Waitress.LOGGER.info("Opened the index of " + index.size() + " artifacts in " + (System.currentTimeMillis() - started) + "ms.");
+            ready();
+            return;
+        }
 
-                // If we don't have at least group/artifact/version, skip.
-                if(dpath.getNameCount() < 3)
-                    return;
-                // If there's a higher level, skip. We want only the version folders.
-                File[] dirList = d.listFiles(File::isDirectory);
-                if(dirList != null && dirList.length > 0)
-                    return;
+        try {
+            Waitress.storage.enumerate(RepoCache::enumerated);
+        } catch (Exception e) {
+            // Whatever wasn't reached is still looked for in storage, and the index is never saved as complete.
+            indexed = false;
+            Waitress.LOGGER.error("Indexing failed after " + indexedFiles.sum() + " files, so files missing from the index will be looked for in storage until the next restart: " + e);
+            return;
+        }
+        Waitress.LOGGER.info("Tracked " + indexedFiles.sum() + " files of " + index.size() + " artifacts in " + (System.currentTimeMillis() - started) + "ms.");
+        ready();
+    }
 
-                // If there aren't any files in the folder, skip.
-                // TODO: delete.
-                File[] flist = d.listFiles(File::isFile);
-                if(flist == null)
-                    return;
+    /**
+     * Enumerate every artifact into the cache on a background thread, so that the server can start serving at once.
+     * The most requested groups in the access log, if there is one, are indexed first.
+     *
+     * Until it is done, a file that isn't in the index may just not have been reached yet, so looking it up falls back
+     *  to asking the storage directly. See {@link #contains(String, String, String, String, String)}.
+     * This should only be called once, when the server is starting, instead of {@link #enumerate()}.
+     */
+    public static void enumerateInBackground() {
+        indexed = false;
+        Thread indexer = new Thread(() -> {
+            if (!index.isComplete()) {
+                long started = System.currentTimeMillis();
+                for (String group : hotGroups()) {
+                    try {
+                        Waitress.storage.enumerate(group + "/", RepoCache::enumerated);
+                    } catch (Exception e) {
+                        Waitress.LOGGER.warn("Group " + group + " couldn't be indexed early: " + e.getMessage());
+                        continue;
+                    }
+                    indexedGroups.add(group);
+                }
+                if (!indexedGroups.isEmpty())
+                    Waitress.LOGGER.info("Indexed the " + indexedGroups.size() + " most requested groups in " + (System.currentTimeMillis() - started) + "ms.");
+            }
+            enumerate();
+        }, "Waitress indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
 
-                // Version is last.
-                String version = dpath.getName(dpath.getNameCount() - 1).toString();
-                // Artifact name is immediately preceding it.
-                String artifact = dpath.getName(dpath.getNameCount() - 2).toString();
-                // Group is the rest. URLs only come with forward slashes, so cope with Windows weirdness.
-                String group = dpath.subpath(0, dpath.getNameCount() - 2).toString().replaceAll("\\\\", "/");
+    /**
+     * Track a file that was found in storage while enumerating.
+     */
+    private static void enumerated(String path) {
+        // Parse the path the same way a request would be, so that the two always agree.
+        // Anything that isn't a coordinate (metadata, stray files) is skipped.
+        MavenCoordinate coordinate = MavenCoordinate.parse("/" + path);
+        if(coordinate == null)
+            return;
 
-                if(!contains(group, artifact))
-                    artifacts.add(new Artifact(group, artifact));
+        if (index.add(coordinate.groupID(), coordinate.artifactID(), coordinate.version(), coordinate.classifier(), coordinate.extension())) {
+            Repositories.tracked(coordinate);
+            indexedFiles.increment();
+            Metrics.INDEXED_FILES.increment();
+        }
+        Waitress.LOGGER.debug("Artifact {} version {}{} with extension {} is now tracked.", coordinate.artifactID(), coordinate.version(), coordinate.classifier(), coordinate.extension());
+    }
 
-                List<File> contained = Arrays.asList(flist);
-                contained.forEach(c -> {
-                    String classifier = c.getName().substring(artifact.length() + version.length() + 1, c.getName().lastIndexOf('.'));
-                    String extension = c.getName().substring(c.getName().lastIndexOf('.') + 1);
+    private static void ready() {
+        index.markComplete();
+        indexed = true;
+        indexedGroups.clear();
+        Metrics.INDEX_READY.set(1);
+    }
 
-                    if(classifier.length() > 0)
-                        get(group, artifact).addVersion(version, classifier, extension);
-                    else
-                        get(group, artifact).addVersion(version, "", extension);
-                    Waitress.LOGGER.warn("Artifact " + artifact + " version " + version + (classifier.length() != 0 ? classifier : "") + " with extension " + extension + " is now tracked.");
-                });
+    /**
+     * @return The groups with the most requests in the access log, most requested first. Empty if there is no log.
+     */
+    private static List<String> hotGroups() {
+        if (Config.ACCESS_LOG.isEmpty())
+            return List.of();
+        Path log = Paths.get(Config.ACCESS_LOG);
+        if (!Files.exists(log))
+            return List.of();
 
+        Map<String, Integer> requests = new HashMap<>();
+        try (Stream<String> lines = Files.lines(log)) {
+            lines.forEach(line -> {
+                // Every line has the path in the same place, so there's no need to parse the whole thing.
+                int start = line.indexOf(PATH_FIELD);
+                if (start < 0)
+                    return;
+                start += PATH_FIELD.length();
+                int end = line.indexOf('"', start);
+                MavenCoordinate coordinate = end < 0 ? null : MavenCoordinate.parse(line.substring(start, end));
+                if (coordinate != null)
+                    requests.merge(coordinate.groupID(), 1, Integer::sum);
             });
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (IOException | UncheckedIOException e) {
+            Waitress.LOGGER.warn("The access log couldn't be read to find the most requested groups: " + e.getMessage());
+            return List.of();
         }
+
+        return requests.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .limit(HOT_GROUPS)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * @return Whether every stored file has been indexed.
+     */
+    public static boolean isReady() {
+        return indexed;
     }
 
     /**
-     * Get a full list of all subdirectories we can see.
-     * @param root The root folder of the search.
-     * @return A List<File> containing every directory contained within the root.
+     * @return How indexing is going, for people.
      */
-    private static List<File> recurseDirs(File root, List<File> result) {
-        List<File> currentSubDirs = Arrays.asList(Objects.requireNonNull(root.listFiles(File::isDirectory), "Root file has to be directory"));
-        result.addAll(currentSubDirs);
-        currentSubDirs.forEach(file -> recurseDirs(file, result));
-        return result;
+    public static String progress() {
+        return (indexed ? "ready" : "indexing") + ": " + indexedFiles.sum() + " files of " + index.size() + " artifacts indexed";
     }
 
     /**
@@ -95,12 +205,7 @@ public class RepoCache {
      * @see #get(String, String) 
      */
     public static boolean contains(String groupID, String artifactID) {
-        for (Artifact a : artifacts)
-            if (a.getGroupID().equals(groupID) && a.getArtifactID().equals(artifactID)) {
-                return true;
-            }
-        
-        return false;
+        return index.contains(groupID, artifactID);
     }
 
     /**
@@ -108,11 +213,8 @@ public class RepoCache {
      * @see #contains(String, String)
      */
     public static boolean contains(String groupID, String artifactID, String version) {
-        if (!contains(groupID, artifactID))
-            return false;
-
         Artifact a = get(groupID, artifactID);
-        return a.tracksVersion(version);
+        return a != null && a.tracksVersion(version);
     }
 
     /**
@@ -121,11 +223,8 @@ public class RepoCache {
      * @see #contains(String, String)
      */
     public static boolean contains(String groupID, String artifactID, String version, String classifier) {
-        if (!contains(groupID, artifactID))
-            return false;
-
         Artifact a = get(groupID, artifactID);
-        return a.tracksVersion(version, classifier);
+        return a != null && a.tracksVersion(version, classifier);
     }
 
     /**
@@ -134,37 +233,58 @@ public class RepoCache {
      * @see #contains(String, String)
      */
     public static boolean contains(String groupID, String artifactID, String version, String classifier, String extension) {
-        if (!contains(groupID, artifactID))
+        if (index.contains(groupID, artifactID, version, classifier, extension))
+            return true;
+        if (indexed || indexedGroups.contains(groupID))
             return false;
 
-        Artifact a = get(groupID, artifactID);
-        return a.tracksVersion(version, classifier, extension);
+        // Not indexed yet, so it may still be stored. If it is, it doesn't have to be looked for again.
+        MavenCoordinate coordinate = new MavenCoordinate(groupID, artifactID, version, classifier, extension);
+        if (!Waitress.storage.exists(coordinate.path()))
+            return false;
+        if (index.add(groupID, artifactID, version, classifier, extension)) {
+            Repositories.tracked(coordinate);
+            indexedFiles.increment();
+            Metrics.INDEXED_FILES.increment();
+        }
+        return true;
     }
 
     /**
      * Get the Artifact instance for a given Group and ID.
+     * With an index that isn't on the heap, this is a copy, built from the index every time.
      * If it does not exist, null is returned.
      * @see #contains(String, String) 
      */
     public static Artifact get(String groupID, String artifactID) {
-        for (Artifact a : artifacts) 
-            if (a.getGroupID().equals(groupID) && a.getArtifactID().equals(artifactID))
-                return a;
-            
-        return null;
+        return index.get(groupID, artifactID);
     }
 
     /**
-     * If it doesn't already have the artifact, adds it and returns it
-     * if it does, return already existing one
-     * @return Artifact with given groupID and artifactID
+     * Start tracking a file that was just written to the data directory.
+     * Does nothing if the path isn't a coordinate, or if it is already tracked.
+     * @param path The path of the file relative to the data directory.
      */
-    public static Artifact tryAddArtifact(String groupID, String artifactID) {
-        Artifact artifact = get(groupID, artifactID);
-        if (artifact == null) {
-            artifact = new Artifact(groupID, artifactID);
-            artifacts.add(artifact);
-        }
-        return artifact;
+    public static void track(String path) {
+        MavenCoordinate coordinate = MavenCoordinate.parse("/" + path);
+        if (coordinate == null)
+            return;
+        if (index.add(coordinate.groupID(), coordinate.artifactID(), coordinate.version(), coordinate.classifier(), coordinate.extension()))
+            Repositories.tracked(coordinate);
+    }
+
+    /**
+     * Stop tracking a file that is about to be removed from storage.
+     * @return Whether it was tracked.
+     */
+    public static boolean untrack(MavenCoordinate coordinate) {
+        return index.remove(coordinate.groupID(), coordinate.artifactID(), coordinate.version(), coordinate.classifier(), coordinate.extension());
+    }
+
+    /**
+     * Pass every tracked version of every artifact to the consumer, in no particular order.
+     */
+    public static void forEachVersion(Index.VersionConsumer consumer) {
+        index.forEachVersion(consumer);
     }
 }
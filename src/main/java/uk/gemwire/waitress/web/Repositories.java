@@ -0,0 +1,162 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Every named {@link Repository}, as listed in the config.
+ *
+ * Without any, the server is a single repository: uploads and the proxy's files, together at the root. That stays as it
+ *  was, and is also available as a repository called "root", so that it can be a member of a virtual repository.
+ *
+ * Repositories are listed in REPOSITORIES as name:type, separated by commas. Proxies are followed by the URL they proxy,
+ *  and virtual repositories by their members, separated by plus signs:
+ *  <code>releases:hosted,central:proxy:https://repo1.maven.org/maven2/,public:virtual:releases+central+root</code>
+ *
+ * @author Curle
+ */
+public final class Repositories {
+
+    // Where named repositories are served and stored, relative to the root.
+    public static final String PATH = "repository/";
+    // The name of the repository at the root.
+    public static final String ROOT = "root";
+
+    // Name -> repository. Only changed by setup, before any requests.
+    private static final Map<String, Repository> repositories = new HashMap<>();
+
+    /**
+     * Read the list of repositories from the config.
+     * Must be called before the {@link RepoCache} is filled, so that virtual repositories can route everything in it.
+     */
+    public static void setup() {
+        repositories.clear();
+        if (Config.REPOSITORIES.isBlank())
+            return;
+
+        repositories.put(ROOT, Config.SHOULD_PROXY
+                ? new Repository(ROOT, Repository.Type.PROXY, Config.PROXY_REPO, "")
+                : new Repository(ROOT, Repository.Type.HOSTED, null, ""));
+
+        // Members may be listed before or after the virtual repositories that include them, so they're added last.
+        Map<String, String[]> virtuals = new HashMap<>();
+        for (String entry : Config.REPOSITORIES.split(",")) {
+            if (entry.isBlank())
+                continue;
+
+            String[] parts = entry.strip().split(":", 3);
+            String name = parts[0];
+            if (!name.matches("\\w+") || repositories.containsKey(name))
+                throw new IllegalStateException("Repository name " + name + " is invalid, or used twice.");
+            if (parts.length < 2)
+                throw new IllegalStateException("Repository " + name + " has no type.");
+
+            Repository.Type type = Repository.Type.valueOf(parts[1].toUpperCase());
+            String prefix = PATH + name + "/";
+            switch (type) {
+                case HOSTED -> repositories.put(name, new Repository(name, type, null, prefix));
+                case PROXY -> {
+                    if (parts.length < 3)
+                        throw new IllegalStateException("Proxy repository " + name + " needs a URL.");
+                    String url = parts[2].strip();
+                    repositories.put(name, new Repository(name, type, url.endsWith("/") ? url : url + "/", prefix));
+                }
+                case VIRTUAL -> {
+                    if (parts.length < 3)
+                        throw new IllegalStateException("Virtual repository " + name + " needs members.");
+                    repositories.put(name, new Repository(name, type, null, prefix));
+                    virtuals.put(name, parts[2].split("\\+"));
+                }
+            }
+        }
+
+        for (Map.Entry<String, String[]> virtual : virtuals.entrySet()) {
+            Repository repository = repositories.get(virtual.getKey());
+            for (String member : virtual.getValue())
+                addMember(repository, member.strip(), virtuals, new HashSet<>());
+            Waitress.LOGGER.info("Virtual repository " + repository + " is made of " + repository.members() + ".");
+        }
+    }
+
+    /**
+     * Add a member to a virtual repository. Virtual members are replaced by their own members.
+     * @param visiting The virtual repositories being expanded, to catch one that includes itself.
+     */
+    private static void addMember(Repository virtual, String name, Map<String, String[]> virtuals, Set<String> visiting) {
+        Repository member = repositories.get(name);
+        if (member == null)
+            throw new IllegalStateException("Virtual repository " + virtual + " includes " + name + ", which doesn't exist.");
+
+        if (member.type() != Repository.Type.VIRTUAL) {
+            virtual.addMember(member);
+            return;
+        }
+        if (!visiting.add(name) || member == virtual)
+            throw new IllegalStateException("Virtual repository " + virtual + " includes itself.");
+        for (String inner : virtuals.get(name))
+            addMember(virtual, inner.strip(), virtuals, visiting);
+        visiting.remove(name);
+    }
+
+    /**
+     * @return Whether there are any named repositories to serve.
+     */
+    public static boolean isEnabled() {
+        return !repositories.isEmpty();
+    }
+
+    /**
+     * @return The repository with the given name, or null if there is none.
+     */
+    public static Repository get(String name) {
+        return repositories.get(name);
+    }
+
+    /**
+     * @param path The path of a file in storage.
+     * @return The hosted or proxy repository that the file belongs to, or null if it belongs to the root.
+     */
+    static Repository holding(String path) {
+        if (repositories.isEmpty() || !path.startsWith(PATH))
+            return null;
+
+        int end = path.indexOf('/', PATH.length());
+        if (end < 0)
+            return null;
+        Repository repository = repositories.get(path.substring(PATH.length(), end));
+        // Virtual repositories store nothing, and the root isn't stored under its name.
+        if (repository == null || repository.type() == Repository.Type.VIRTUAL || repository.prefix().isEmpty())
+            return null;
+        return repository;
+    }
+
+    /**
+     * Called by the {@link RepoCache} whenever a file is indexed, so that virtual repositories know where it is.
+     * @param coordinate The file, with its group relative to the storage root.
+     */
+    static void tracked(MavenCoordinate coordinate) {
+        if (repositories.isEmpty())
+            return;
+
+        String groupID = coordinate.groupID();
+        Repository repository = holding(groupID + "/");
+        if (repository != null) {
+            // Files directly in the repository's folder don't have a group.
+            if (groupID.length() <= repository.prefix().length())
+                return;
+            groupID = groupID.substring(repository.prefix().length());
+        } else if (groupID.startsWith(PATH)) {
+            return;
+        } else {
+            repository = repositories.get(ROOT);
+        }
+
+        repository.tracked(groupID, coordinate.artifactID(), coordinate.baseVersion());
+    }
+}
@@ -0,0 +1,247 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.NoRouteToHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named repository, served under /repository/name/. See {@link Repositories}.
+ *
+ * Hosted repositories hold uploads, and proxy repositories cache another repository. Both keep their files in storage
+ *  under the same path they're served from, so they're indexed by the {@link RepoCache} like everything else.
+ * The data directory and proxy at the root of the server are a repository too, called "root".
+ *
+ * Virtual repositories hold nothing themselves. They answer from their members, in the order they're listed.
+ * Rather than asking every member in turn, each virtual repository keeps a routing table from group to the members that
+ *  may hold it: the hosted members that have something in the group, and every member that can fetch. It is filled in
+ *  as files are indexed, so most lookups only touch the one member that has the file.
+ *
+ * Hosted and virtual repositories generate their artifacts' maven-metadata.xml. See {@link MergedMetadata}.
+ *
+ * @author Curle
+ */
+public final class Repository {
+
+    public enum Type { HOSTED, PROXY, VIRTUAL }
+
+    private final String name;
+    private final Type type;
+    // Where a proxy downloads from, ending in a slash. Null if it can't download.
+    private final String url;
+    // Where the files are stored, relative to the storage root. Empty for the root repository.
+    private final String prefix;
+
+    // Virtual repositories only: every member, in order, with virtual members replaced by their own members.
+    private final List<Repository> members = new ArrayList<>();
+    // Virtual repositories only: the members that can fetch, and so may have any group. Used for groups not in the table.
+    private List<Repository> fallback = List.of();
+    // Virtual repositories only: group -> the members that may hold something in it, in order.
+    private final Map<String, List<Repository>> routes = new ConcurrentHashMap<>();
+    // The virtual repositories that this is a member of.
+    private final List<Repository> memberOf = new ArrayList<>();
+    // The groups this holds, if it can't fetch and it is a member of a virtual repository.
+    private final Set<String> groups = ConcurrentHashMap.newKeySet();
+    // "group/artifact" -> the generated metadata, for the artifacts that were asked for.
+    private final Map<String, MergedMetadata> metadata = new ConcurrentHashMap<>();
+
+    Repository(String name, Type type, String url, String prefix) {
+        this.name = name;
+        this.type = type;
+        this.url = url;
+        this.prefix = prefix;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    String url() {
+        return url;
+    }
+
+    String prefix() {
+        return prefix;
+    }
+
+    /**
+     * @return Whether this can download files that it doesn't have.
+     */
+    boolean isOpen() {
+        return url != null;
+    }
+
+    /**
+     * @param relative The path of a file relative to this repository, with no leading slash.
+     * @return The path of the file in storage.
+     */
+    String path(String relative) {
+        return prefix + relative;
+    }
+
+    /**
+     * @return Whether the file is stored in this repository, according to the {@link RepoCache}.
+     */
+    boolean holds(MavenCoordinate coordinate) {
+        return RepoCache.contains(prefix + coordinate.groupID(), coordinate.artifactID(), coordinate.version(), coordinate.classifier(), coordinate.extension());
+    }
+
+    /**
+     * @return The repositories that may have something in the given group, in the order they should be asked.
+     *  Just this one, unless it is virtual.
+     */
+    List<Repository> route(String groupID) {
+        if (type != Type.VIRTUAL)
+            return List.of(this);
+        // Routes are only filled in as files are indexed, so until then any member may have it.
+        if (!RepoCache.isReady())
+            return members;
+        return routes.getOrDefault(groupID, fallback);
+    }
+
+    /**
+     * @param route The members to look in. See {@link #route(String)}.
+     * @return The path in storage of the file, in the first member that has it stored, or null if none do.
+     */
+    static String find(List<Repository> route, MavenCoordinate coordinate) {
+        for (Repository member : route)
+            if (member.holds(coordinate))
+                return member.path(coordinate.path());
+        return null;
+    }
+
+    /**
+     * Download a file into the first member that can find it upstream.
+     * @param route The members to try. See {@link #route(String)}.
+     * @param relative The path of the file relative to the repository.
+     * @param askPeers Whether peers may be asked for the file. See {@link Peers}.
+     * @return The path of the file in storage.
+     * @throws FileNotFoundException if no member can find it.
+     */
+    static String fetch(List<Repository> route, String relative, boolean askPeers) throws IOException {
+        for (Repository member : route) {
+            if (!member.isOpen())
+                continue;
+
+            String path = member.path(relative);
+            try {
+                MavenDownloader.fetchFile(path, askPeers);
+                RepoCache.track(path);
+                return path;
+            } catch (FileNotFoundException | NoRouteToHostException e) {
+                Waitress.LOGGER.debug("File {} not found in repository {}.", relative, member);
+            }
+        }
+        throw new FileNotFoundException(relative + " is in none of " + route + ".");
+    }
+
+    /**
+     * @param repository The repository to look in, or null for the root.
+     * @return Where the file is stored, or null if it isn't yet.
+     */
+    static String find(Repository repository, MavenCoordinate coordinate) {
+        if (repository == null)
+            return RepoCache.contains(coordinate.groupID(), coordinate.artifactID(), coordinate.version(), coordinate.classifier(), coordinate.extension())
+                    ? coordinate.path() : null;
+        return find(repository.route(coordinate.groupID()), coordinate);
+    }
+
+    /**
+     * Download a file into storage, the same way a request for it would.
+     * @param repository The repository to download it into, or null for the root.
+     * @return Where the file is stored.
+     * @throws FileNotFoundException if it can't be found upstream.
+     */
+    static String fetch(Repository repository, MavenCoordinate coordinate) throws IOException {
+        if (repository == null) {
+            MavenDownloader.fetch(coordinate);
+            return coordinate.path();
+        }
+        return fetch(repository.route(coordinate.groupID()), coordinate.path(), true);
+    }
+
+    /**
+     * Add a member to a virtual repository. Members must be added in order, before anything is indexed.
+     */
+    void addMember(Repository member) {
+        if (members.contains(member))
+            return;
+        members.add(member);
+        member.memberOf.add(this);
+        fallback = members.stream().filter(Repository::isOpen).toList();
+    }
+
+    List<Repository> members() {
+        return members;
+    }
+
+    /**
+     * Called when a file in this repository is indexed.
+     * Routes its group here in every virtual repository this is a member of, and adds its version to any generated
+     *  metadata that is affected.
+     * @param groupID The group, relative to this repository.
+     */
+    void tracked(String groupID, String artifactID, String version) {
+        if (memberOf.isEmpty() && metadata.isEmpty())
+            return;
+
+        if (!isOpen() && !memberOf.isEmpty() && groups.add(groupID))
+            for (Repository virtual : memberOf)
+                virtual.reroute(groupID);
+
+        String key = groupID + "/" + artifactID;
+        MergedMetadata own = metadata.get(key);
+        if (own != null)
+            own.add(version);
+        for (Repository virtual : memberOf) {
+            MergedMetadata merged = virtual.metadata.get(key);
+            if (merged != null)
+                merged.add(version);
+        }
+    }
+
+    /**
+     * Work out which members may hold the given group again.
+     * Done atomically for each group, so members gaining the same group at once can't leave a stale route behind.
+     */
+    private void reroute(String groupID) {
+        routes.compute(groupID, (key, old) -> members.stream()
+                .filter(member -> member.isOpen() || member.groups.contains(groupID))
+                .toList());
+    }
+
+    /**
+     * Get the generated maven-metadata.xml of an artifact in this repository, building it if it hasn't been yet, or if
+     *  it has expired.
+     * @param askPeers Whether peers may be asked for the metadata of proxy members. See {@link Peers}.
+     */
+    MergedMetadata metadata(String groupID, String artifactID, boolean askPeers) {
+        String key = groupID + "/" + artifactID;
+        MergedMetadata existing = metadata.get(key);
+        if (existing != null && !existing.isExpired())
+            return existing;
+
+        // Built outside of the map, as it may have to download. Two requests may build it at once, which is harmless.
+        MergedMetadata built = MergedMetadata.build(route(groupID), groupID, artifactID, askPeers);
+        metadata.put(key, built);
+        // Anything indexed while it was being built went to the old copy, or nowhere. Make sure it isn't missed.
+        built.addIndexed(route(groupID));
+        return built;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
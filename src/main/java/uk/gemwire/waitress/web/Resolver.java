@@ -0,0 +1,387 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.authentication.PermissionLevel;
+import uk.gemwire.waitress.authentication.entity.User;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.repository.Pom;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Works out every dependency of some artifacts on the server, so that a client can get the whole graph in one request,
+ *  rather than fetching one POM at a time to find out what to fetch next.
+ *
+ * Each POM is read into its effective model: properties, dependencyManagement and dependencies are inherited from its
+ *  parents, BOMs imported into the dependencyManagement, and then versions and scopes that were left out are filled
+ *  in from it. The graph is walked a level at a time, with every POM on a level fetched at once. As with Maven, the
+ *  nearest version of an artifact wins, and ties go to whichever was declared first. Exclusions apply to everything
+ *  below the dependency that declares them. Test, provided, system and optional dependencies aren't followed.
+ *
+ * Parsed POMs and effective models are cached, so the parents and BOMs that most artifacts share are only read once.
+ *  Whole results are cached too, so a build asking for the same thing again gets the answer straight away. Results
+ *  with SNAPSHOTs or failures in them are only kept for a while, as those may change.
+ *
+ * Permissions are checked against each result as it is sent, rather than while resolving, so that one result can be
+ *  shared between users. Anything the user may not read is left out, along with everything that only it pulled in.
+ *
+ * Every POM that has to be fetched from upstream is charged to the miss budgets of whoever asked, the same as a request
+ *  for it would be. See {@link RateLimiter#admitMiss(User, String)}. Once they run out, the rest are listed as rate
+ *  limited, and the result isn't cached.
+ *
+ * @author Curle
+ */
+public final class Resolver {
+
+    // How many parents or imported BOMs deep a POM may go. Stops a POM that is its own parent going on forever.
+    private static final int MAX_INHERITANCE = 32;
+
+    // "repository/path" -> parsed POM, and effective model. Only for POMs that can't change.
+    private static final Map<String, Pom> poms = lru(Config.RESOLVE_CACHE_SIZE * 4);
+    private static final Map<String, Model> models = lru(Config.RESOLVE_CACHE_SIZE * 4);
+    // What was asked for -> the result.
+    private static final Map<String, Result> results = lru(Config.RESOLVE_CACHE_SIZE);
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(Config.RESOLVE_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "Waitress resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A POM with everything it inherits and imports.
+     * @param management Management key -> dependencyManagement entry. See {@link Pom.Dependency#managementKey()}.
+     * @param dependencies Every dependency, with properties and management applied.
+     */
+    private record Model(String packaging, Map<String, String> properties, Map<String, Pom.Dependency> management, List<Pom.Dependency> dependencies) {}
+
+    /**
+     * One artifact in a result.
+     * @param via The index of the artifact that pulled this one in, or -1 if it was asked for.
+     * @param error Why this artifact's dependencies couldn't be read, or null if they could.
+     */
+    private record Node(String groupID, String artifactID, String version, String classifier, String extension, int via, String error) {
+
+        Node withExtension(String newExtension) {
+            return new Node(groupID, artifactID, version, classifier, newExtension, via, error);
+        }
+
+        Node withError(String newError) {
+            return new Node(groupID, artifactID, version, classifier, extension, via, newError);
+        }
+    }
+
+    /**
+     * @param expires When (in millis) this has to be resolved again, or Long.MAX_VALUE if never.
+     */
+    private record Result(List<Node> nodes, long expires) {}
+
+    // A dependency waiting to be visited: what pulled it in, and what that excluded.
+    private record Pending(Node node, String scope, List<String> exclusions) {}
+
+    // Thrown instead of fetching a POM when whoever asked has run out of misses.
+    private static final class RateLimitedException extends IOException {
+        RateLimitedException() {
+            super("rate limited");
+        }
+    }
+
+    /**
+     * Resolve the dependencies of the given artifacts.
+     * @param roots The POMs of the artifacts to resolve.
+     * @param repository The repository to read POMs from, or null for the root.
+     * @param runtime Whether runtime dependencies are wanted, or only compile ones.
+     * @param user Who asked. Only artifacts they may read are listed, and POMs fetched are charged to them.
+     * @param address Where the request came from. POMs fetched are charged to it too.
+     * @return The result, one line for each artifact, as group:artifact:extension[:classifier]:version. Artifacts that
+     *  couldn't be read are listed as comments, saying why.
+     */
+    public static String resolve(List<MavenCoordinate> roots, Repository repository, boolean runtime, User user, String address) {
+        StringBuilder key = new StringBuilder(repository == null ? "" : repository.name()).append(runtime ? "|runtime" : "|compile");
+        for (MavenCoordinate root : roots)
+            key.append('|').append(root.path());
+
+        Result result = results.get(key.toString());
+        if (result != null && result.expires() > System.currentTimeMillis()) {
+            Metrics.RESOLUTIONS.labels("cached").increment();
+        } else {
+            result = walk(roots, repository, runtime, user, address);
+            results.put(key.toString(), result);
+            Metrics.RESOLUTIONS.labels("resolved").increment();
+        }
+        return render(result, user);
+    }
+
+    /**
+     * Walk the dependency graph, one level at a time.
+     */
+    private static Result walk(List<MavenCoordinate> roots, Repository repository, boolean runtime, User user, String address) {
+        List<Node> nodes = new ArrayList<>();
+        Map<String, Integer> seen = new HashMap<>();
+        boolean mutable = false;
+        boolean failed = false;
+        boolean limited = false;
+
+        List<Pending> level = new ArrayList<>();
+        for (MavenCoordinate root : roots)
+            level.add(new Pending(new Node(root.groupID(), root.artifactID(), root.version(), "", null, -1, null), "compile", List.of()));
+
+        while (!level.isEmpty()) {
+            // The nearest of each artifact wins, so anything already seen is dropped before its POM is fetched.
+            List<Pending> visiting = new ArrayList<>();
+            List<Integer> indices = new ArrayList<>();
+            List<CompletableFuture<Model>> models = new ArrayList<>();
+            for (Pending pending : level) {
+                Node node = pending.node();
+                if (seen.putIfAbsent(node.groupID() + ":" + node.artifactID(), nodes.size()) != null)
+                    continue;
+
+                nodes.add(node);
+                if (node.error() != null) {
+                    failed = true;
+                    continue;
+                }
+                MavenCoordinate pom = new MavenCoordinate(node.groupID(), node.artifactID(), node.version(), "", "pom");
+                mutable |= pom.isMutable();
+                visiting.add(pending);
+                indices.add(nodes.size() - 1);
+                models.add(CompletableFuture.supplyAsync(() -> model(repository, pom, 0, user, address), executor));
+            }
+
+            List<Pending> next = new ArrayList<>();
+            for (int i = 0; i < visiting.size(); i++) {
+                Pending pending = visiting.get(i);
+                int index = indices.get(i);
+                final Model model;
+                try {
+                    model = models.get(i).join();
+                } catch (CompletionException e) {
+                    failed = true;
+                    limited |= e.getCause() instanceof RateLimitedException;
+                    Node node = nodes.get(index);
+                    nodes.set(index, (node.extension() == null ? node.withExtension("jar") : node).withError(reason(e.getCause())));
+                    continue;
+                }
+                // Asked for by name, so the packaging decides what the file is.
+                if (nodes.get(index).extension() == null)
+                    nodes.set(index, nodes.get(index).withExtension(extensionOf(model.packaging())));
+
+                for (Pom.Dependency dependency : model.dependencies()) {
+                    String scope = dependency.scopeOrDefault();
+                    if (dependency.optional() || !(scope.equals("compile") || (runtime && scope.equals("runtime"))))
+                        continue;
+                    if (dependency.isExcludedBy(pending.exclusions()))
+                        continue;
+
+                    // Something that's only needed at runtime needs everything below it at runtime too.
+                    String inherited = pending.scope().equals("runtime") ? "runtime" : scope;
+                    List<String> exclusions = new ArrayList<>(pending.exclusions());
+                    exclusions.addAll(dependency.exclusions());
+
+                    String classifier = dependency.classifier();
+                    String extension = extensionOf(dependency.type());
+                    if (dependency.type().equals("test-jar"))
+                        classifier = "-tests";
+                    Node node = new Node(dependency.groupID().replace('.', '/'), dependency.artifactID(),
+                            dependency.version() == null ? "?" : dependency.version(), classifier, extension, index,
+                            dependency.isResolved() ? null : "version is not known");
+                    next.add(new Pending(node, inherited, exclusions));
+                }
+            }
+            level = next;
+        }
+
+        long expires = Long.MAX_VALUE;
+        if (mutable)
+            expires = System.currentTimeMillis() + Config.SNAPSHOT_TTL_SECONDS * 1000;
+        if (failed)
+            expires = Math.min(expires, System.currentTimeMillis() + Config.NEGATIVE_CACHE_SECONDS * 1000L);
+        // Someone else asking may still have misses left.
+        if (limited)
+            expires = 0;
+        return new Result(nodes, expires);
+    }
+
+    /**
+     * Build the effective model of a POM, or take it from the cache.
+     * @param depth How many parents or BOMs deep this is.
+     * @param user Who asked, and where from, to charge any POMs fetched to.
+     */
+    private static Model model(Repository repository, MavenCoordinate coordinate, int depth, User user, String address) {
+        if (depth > MAX_INHERITANCE)
+            throw new CompletionException(new IOException(coordinate + " inherits from too many parents"));
+
+        String key = (repository == null ? "" : repository.name()) + "/" + coordinate.path();
+        Model cached = models.get(key);
+        if (cached != null)
+            return cached;
+
+        Pom pom = pom(repository, coordinate, key, user, address);
+        Model parent = pom.parent() == null ? null : model(repository, pom.parent(), depth + 1, user, address);
+
+        Map<String, String> properties = new HashMap<>(parent == null ? Map.of() : parent.properties());
+        properties.putAll(pom.properties());
+        String groupID = coordinate.groupID().replace('/', '.');
+        properties.put("project.groupId", groupID);
+        properties.put("project.artifactId", coordinate.artifactID());
+        properties.put("project.version", coordinate.version());
+        properties.put("pom.groupId", groupID);
+        properties.put("pom.version", coordinate.version());
+        if (pom.parent() != null) {
+            properties.put("project.parent.groupId", pom.parent().groupID().replace('/', '.'));
+            properties.put("project.parent.version", pom.parent().version());
+        }
+
+        // Entries declared here beat inherited ones, and both beat imported ones.
+        Map<String, Pom.Dependency> management = new LinkedHashMap<>(parent == null ? Map.of() : parent.management());
+        List<Pom.Dependency> imports = new ArrayList<>();
+        for (Pom.Dependency entry : pom.management()) {
+            entry = entry.interpolate(properties);
+            if ("import".equals(entry.scope()) && entry.type().equals("pom"))
+                imports.add(entry);
+            else
+                management.put(entry.managementKey(), entry);
+        }
+        for (Pom.Dependency bom : imports) {
+            if (!bom.isResolved())
+                continue;
+            try {
+                model(repository, bom.pom(), depth + 1, user, address).management().forEach(management::putIfAbsent);
+            } catch (CompletionException e) {
+                // Without it, the model would be cached with versions missing.
+                if (e.getCause() instanceof RateLimitedException)
+                    throw e;
+                Waitress.LOGGER.debug("BOM {} imported by {} can't be read: {}", bom.pom(), coordinate, reason(e.getCause()));
+            }
+        }
+
+        Map<String, Pom.Dependency> dependencies = new LinkedHashMap<>();
+        if (parent != null)
+            for (Pom.Dependency dependency : parent.dependencies())
+                dependencies.put(dependency.managementKey(), dependency);
+        for (Pom.Dependency dependency : pom.dependencies()) {
+            dependency = dependency.interpolate(properties);
+            dependencies.put(dependency.managementKey(), dependency);
+        }
+        List<Pom.Dependency> managed = new ArrayList<>();
+        for (Pom.Dependency dependency : dependencies.values()) {
+            Pom.Dependency entry = management.get(dependency.managementKey());
+            managed.add(entry == null ? dependency : dependency.manage(entry).interpolate(properties));
+        }
+
+        Model model = new Model(pom.packaging(), properties, management, managed);
+        if (!coordinate.isMutable())
+            models.put(key, model);
+        return model;
+    }
+
+    /**
+     * Read a POM, fetching it if it isn't stored yet, or take it from the cache.
+     * @throws CompletionException with a {@link RateLimitedException} if it has to be fetched, and whoever asked is out
+     *  of misses.
+     */
+    private static Pom pom(Repository repository, MavenCoordinate coordinate, String key, User user, String address) {
+        Pom cached = poms.get(key);
+        if (cached != null)
+            return cached;
+
+        try {
+            String path = Repository.find(repository, coordinate);
+            if (path == null) {
+                if (!RateLimiter.admitMiss(user, address))
+                    throw new RateLimitedException();
+                path = Repository.fetch(repository, coordinate);
+            } else
+                Revalidator.check(path);
+
+            final Pom pom;
+            try (InputStream stream = Waitress.storage.read(path)) {
+                pom = Pom.parse(stream);
+            }
+            if (!coordinate.isMutable())
+                poms.put(key, pom);
+            return pom;
+        } catch (IOException | IllegalStateException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Write out a result, leaving out anything the user may not read, and anything only that pulled in.
+     */
+    private static String render(Result result, User user) {
+        List<Node> nodes = result.nodes();
+        boolean[] visible = new boolean[nodes.size()];
+        Map<String, Boolean> readable = new HashMap<>();
+        StringBuilder out = new StringBuilder();
+
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            // Whatever pulled this in always comes first.
+            if (node.via() >= 0 && !visible[node.via()])
+                continue;
+
+            String groupID = node.groupID().replace('/', '.');
+            boolean allowed = readable.computeIfAbsent(node.groupID() + "/" + node.artifactID(), key ->
+                    user.getPermissionFor(node.groupID(), node.artifactID()).level >= PermissionLevel.READ.level);
+            if (!allowed) {
+                out.append("# ").append(groupID).append(':').append(node.artifactID()).append(": forbidden\n");
+                continue;
+            }
+            visible[i] = true;
+
+            if (node.error() != null)
+                out.append("# ");
+            out.append(groupID).append(':').append(node.artifactID()).append(':').append(node.extension());
+            if (!node.classifier().isEmpty())
+                out.append(':').append(node.classifier().substring(1));
+            out.append(':').append(node.version());
+            if (node.error() != null)
+                out.append(": ").append(node.error());
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return The extension of the file that a dependency type or packaging refers to.
+     */
+    private static String extensionOf(String type) {
+        return switch (type) {
+            case "jar", "test-jar", "bundle", "maven-plugin", "ejb", "ejb-client", "java-source", "javadoc" -> "jar";
+            default -> type;
+        };
+    }
+
+    private static String reason(Throwable error) {
+        if (error instanceof FileNotFoundException)
+            return "not found";
+        return error.getMessage() == null ? error.toString() : error.getMessage();
+    }
+
+    /**
+     * @return A map that forgets whatever was used least recently once it holds more than the given number of entries.
+     */
+    private static <K, V> Map<K, V> lru(int size) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > size;
+            }
+        });
+    }
+}
@@ -0,0 +1,173 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.repository.MetadataPath;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps proxied files that may change upstream up to date.
+ *
+ * Release artifacts never change, so they're served from the cache forever.
+ * maven-metadata.xml files and un-timestamped SNAPSHOTs do change, so each gets a time to live, after which
+ *  the proxy is asked whether it has changed (with If-None-Match and If-Modified-Since).
+ * An unchanged file costs a 304 rather than a full download.
+ *
+ * A file that has only just expired is still served straight away, and checked in the background.
+ * Only files that are very out of date make the client wait for the check.
+ *
+ * For each proxied file that can change, the validators the proxy sent are kept in a hidden folder in the data
+ *  directory. The last-modified time of that file is when the proxy was last asked.
+ * Files without one (ie. uploaded files) are never checked, as the proxy has no say over them.
+ *
+ * @author Curle
+ */
+public class Revalidator {
+
+    // The hidden folder in the data directory where validators are kept.
+    private static final String VALIDATOR_DIR = ".validators/";
+
+    // Paths that are currently being checked, so that only one request per path goes to the proxy.
+    private static final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Background checks are cheap, so a couple of threads is enough.
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "revalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param path The path of a file, relative to the repository root.
+     * @return How long the file may be cached for, in seconds, or -1 if it never changes.
+     */
+    public static long timeToLive(String path) {
+        MetadataPath metadata = MetadataPath.parse("/" + path);
+        if (metadata != null)
+            return metadata.isSnapshot() ? Config.SNAPSHOT_TTL_SECONDS : Config.METADATA_TTL_SECONDS;
+
+        MavenCoordinate coordinate = MavenCoordinate.parse("/" + path);
+        if (coordinate != null && coordinate.isMutable())
+            return Config.SNAPSHOT_TTL_SECONDS;
+
+        return -1;
+    }
+
+    /**
+     * @return Whether the file at the given path may change upstream after it is cached.
+     */
+    public static boolean isMutable(String path) {
+        return timeToLive(path) >= 0;
+    }
+
+    /**
+     * Make sure a cached file is fresh enough to be served.
+     * Does nothing for files that never change, or that weren't proxied.
+     *
+     * If the file expired recently, a check is started in the background and this returns straight away.
+     * Otherwise, this waits for the check. If the proxy can't be reached, the file is served as it is.
+     * @param path The path of the file about to be served, relative to the repository root.
+     */
+    public static void check(String path) {
+        // Files in named proxy repositories come from their own upstream, which the proxy checker doesn't watch.
+        Repository repository = Repositories.holding(path);
+        if (repository == null ? !Config.SHOULD_PROXY : !repository.isOpen())
+            return;
+
+        long timeToLive = timeToLive(path);
+        if (timeToLive < 0)
+            return;
+
+        File validator = validatorFile(path);
+        if (!validator.exists())
+            return;
+
+        long age = (System.currentTimeMillis() - validator.lastModified()) / 1000;
+        if (age <= timeToLive)
+            return;
+
+        if (repository == null && !Waitress.checker.isProxyAlive)
+            return;
+
+        if (age <= timeToLive + Config.STALE_WHILE_REVALIDATE_SECONDS) {
+            if (inFlight.add(path))
+                executor.execute(() -> revalidate(path));
+            return;
+        }
+
+        if (inFlight.add(path))
+            revalidate(path);
+    }
+
+    /**
+     * Ask the proxy whether the file has changed, replacing it if it has.
+     * The path must already be marked as in flight.
+     */
+    private static void revalidate(String path) {
+        try {
+            MavenDownloader.revalidate(path);
+        } catch (IOException e) {
+            Waitress.LOGGER.warn("Unable to revalidate " + path + ": " + e.getMessage() + ". Serving the cached copy.");
+        } finally {
+            inFlight.remove(path);
+        }
+    }
+
+    /**
+     * @return The validators the proxy sent for the given path when it was last downloaded. Empty if there are none.
+     */
+    static Properties read(String path) {
+        Properties properties = new Properties();
+        File validator = validatorFile(path);
+        if (!validator.exists())
+            return properties;
+
+        try (Reader reader = new FileReader(validator)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            Waitress.LOGGER.warn("Validators for " + path + " can't be read: " + e.getMessage());
+        }
+        return properties;
+    }
+
+    /**
+     * Remember the validators the proxy sent with a fresh download of the given path.
+     * Either may be null, if the proxy didn't send it.
+     */
+    static void record(String path, String etag, String lastModified) throws IOException {
+        Properties properties = new Properties();
+        if (etag != null)
+            properties.setProperty("etag", etag);
+        if (lastModified != null)
+            properties.setProperty("last-modified", lastModified);
+
+        File validator = validatorFile(path);
+        validator.getParentFile().mkdirs();
+        try (Writer writer = new FileWriter(validator)) {
+            properties.store(writer, null);
+        }
+    }
+
+    /**
+     * Mark the given path as checked just now, without changing the validators.
+     */
+    static void touch(String path) {
+        validatorFile(path).setLastModified(System.currentTimeMillis());
+    }
+
+    private static File validatorFile(String path) {
+        return new File(Config.DATA_DIR + VALIDATOR_DIR + path);
+    }
+}
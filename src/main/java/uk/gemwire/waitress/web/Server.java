@@ -1,26 +1,46 @@
 package uk.gemwire.waitress.web;
 
 import io.javalin.Javalin;
+import io.javalin.core.JavalinConfig;
+import io.javalin.core.compression.CompressionStrategy;
 import io.javalin.core.security.BasicAuthCredentials;
-import io.javalin.core.util.FileUtil;
 import io.javalin.http.Context;
 import io.javalin.http.UploadedFile;
-import org.jetbrains.annotations.NotNull;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.servlet.FilterHolder;
 import uk.gemwire.waitress.Waitress;
 import uk.gemwire.waitress.authentication.Auth;
 import uk.gemwire.waitress.authentication.CalledTooEarlyException;
 import uk.gemwire.waitress.authentication.PermissionLevel;
 import uk.gemwire.waitress.authentication.entity.User;
 import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.AccessLog;
+import uk.gemwire.waitress.metrics.Metrics;
+import uk.gemwire.waitress.metrics.Trace;
+import uk.gemwire.waitress.metrics.Tracer;
 import uk.gemwire.waitress.web.repository.Artifact;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.repository.MavenVersion;
+import uk.gemwire.waitress.web.repository.MetadataPath;
+import uk.gemwire.waitress.web.repository.VersionRange;
+import uk.gemwire.waitress.web.storage.BlobStore;
+import uk.gemwire.waitress.web.storage.Precompressed;
 
-import java.io.File;
-import java.io.FileInputStream;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.NoRouteToHostException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Collectors;
 
 /**
  * Web server.
@@ -35,9 +55,30 @@ import java.util.regex.Pattern;
  */
 public class Server {
 
-    // The regex that filters "traditional" valid Maven Coordinates.
-    // Courtesy of AterAnimAvis.
-    private static final Pattern MAVEN_PATTERN = Pattern.compile("^/(?<group>(\\w+\\/)+)(?<artifact>[\\w-]+)\\/(?<version>[\\d.\\-\\w]+)\\/\\3-\\4(?<classifier>-\\w+)?\\.(?<extension>\\w+)$");
+    // The request attribute holding the request's trace.
+    private static final String TRACE_ATTRIBUTE = "waitress.trace";
+    // The request attribute holding when the handlers finished, in System.nanoTime().
+    static final String HANDLED_ATTRIBUTE = "waitress.handled";
+    // The request attributes holding who made the request, and whether it was served from the cache, for the access log.
+    private static final String USER_ATTRIBUTE = "waitress.user";
+    static final String CACHE_ATTRIBUTE = "waitress.cache";
+
+    // Where named repositories are served. See Repositories.
+    private static final String REPOSITORY_PATH = "/" + Repositories.PATH;
+
+    // Status codes as strings, so that labelling a metric with one doesn't build a new string every request.
+    private static final String[] STATUSES = new String[600];
+
+    static {
+        for (int i = 0; i < STATUSES.length; i++)
+            STATUSES[i] = Integer.toString(i);
+    }
+
+    // The most recently started warm-up job, if any.
+    private static WarmupJob warmup;
+
+    // The running web server, or null if it isn't running.
+    private static Javalin server;
 
     /**
      * Handle a GET request to an endpoint.
@@ -46,7 +87,7 @@ public class Server {
      * @param request The metadata of the request.
      */
     private static void getEndpoint(Context request) {
-        Waitress.LOGGER.warn("Invalid request " + request.path() + " cannot be handled.");
+        Waitress.LOGGER.debug("Invalid request {} cannot be handled.", request.path());
         request.status(400);
     }
 
@@ -57,65 +98,65 @@ public class Server {
      * @param request The metadata of the request.
      */
     private static void getMaven(Context request) {
+        long started = Trace.start();
+        // Metadata files aren't coordinates, but they live in the same tree.
+        MetadataPath metadata = MetadataPath.parse(request.path());
+        if (metadata != null) {
+            Trace.end(Trace.Phase.PARSE, started);
+            getMetadata(request, metadata);
+            return;
+        }
+
         MavenCoordinate coordinate = parseCoordinate(request, true);
+        Trace.end(Trace.Phase.PARSE, started);
         if (coordinate == null){
             request.status(404);
             return;
         }
-        final String groupID = coordinate.groupID;
-        final String artifactID = coordinate.artifactID;
-        final String version = coordinate.version;
-        final String classifier = coordinate.classifier;
-        final String extension = coordinate.extension;
+        final String groupID = coordinate.groupID();
+        final String artifactID = coordinate.artifactID();
+        final String version = coordinate.version();
+        final String classifier = coordinate.classifier();
+        final String extension = coordinate.extension();
 
-        User user;
-        try{
-            if(request.basicAuthCredentialsExist()) {
-                BasicAuthCredentials credentials = request.basicAuthCredentials();
-                if (!Auth.checkPassword(credentials.getUsername(), credentials.getPassword())) {
-                    request.status(401);
-                    return;
-                }
-                user = Auth.getUser(credentials.getUsername()).get();
-            } else {
-                user = Auth.anonymous;
-            }
-        }catch (CalledTooEarlyException exception) {
-            request.status(503);
+        boolean peer = Peers.isPeerRequest(request);
+        User user = peer ? authenticatePeer(request) : authenticate(request);
+        if (user == null)
             return;
-        }
 
-        Waitress.LOGGER.info("Request for " + groupID + "/" + artifactID +  "/" + version + "/" + artifactID +  "-" + version + classifier + "." + extension + " located. Checking whether we can handle it..");
+        Waitress.LOGGER.debug("Request for {} located. Checking whether we can handle it..", coordinate);
 
-        if (RepoCache.contains(groupID, artifactID, version, classifier, extension)) {
-            Waitress.LOGGER.info("Requested file is in the cache.");
-            PermissionLevel permissionLevel = user.getPermissionFor(groupID, artifactID);
-            if (permissionLevel.level < PermissionLevel.READ.level) {
-                Waitress.LOGGER.info("User " + user.getUsername() + " does not have permission for requested file");
-                request.status(403);
-                return;
-            }
-            try {
-                // TODO: binary stream non-text files.
-                request.result(new FileInputStream(Config.DATA_DIR + groupID + "/" + artifactID + "/" + version + "/" + artifactID + "-" + version + classifier + "." + extension));
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
+        started = Trace.start();
+        boolean cached = RepoCache.contains(groupID, artifactID, version, classifier, extension);
+        Trace.end(Trace.Phase.INDEX, started);
+
+        if (!peer && !RateLimiter.admit(request, user, !cached))
+            return;
+
+        if (cached) {
+            Waitress.LOGGER.debug("Requested file is in the cache.");
+            Metrics.CACHE_LOOKUPS.labels("hit").increment();
+            request.attribute(CACHE_ATTRIBUTE, "hit");
+            serveCached(request, user, peer, groupID, artifactID, coordinate.path());
         } else {
             // Download artifact if it does not exist
-            Waitress.LOGGER.info("Requested file is not in the cache. Downloading..");
+            Waitress.LOGGER.debug("Requested file is not in the cache. Downloading..");
+            Metrics.CACHE_LOOKUPS.labels("miss").increment();
+            request.attribute(CACHE_ATTRIBUTE, "miss");
             try {
                 // TODO This probably should be async, downloading takes time
-                File file = MavenDownloader.downloadArtifact(groupID, artifactID, version, classifier, extension);
+                started = Trace.start();
+                MavenDownloader.fetch(coordinate, !peer);
+                Trace.end(Trace.Phase.FETCH, started);
 
-                Artifact artifact = RepoCache.tryAddArtifact(groupID, artifactID);
-                // add artifact to cache
-                artifact.addVersion(version, classifier, extension);
+                // The client is going to want the jar and the dependencies next. Get them ready.
+                if (extension.equals("pom"))
+                    Prefetcher.schedule(coordinate);
 
-                request.result(new FileInputStream(file));
+                serve(request, coordinate.path());
             } catch (FileNotFoundException | NoRouteToHostException e) {
                 request.status(404);
-                Waitress.LOGGER.info("File not found in proxy repository!");
+                Waitress.LOGGER.debug("File not found in proxy repository!");
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -124,6 +165,255 @@ public class Server {
 
     }
 
+    /**
+     * Send a file that is in the cache, if the user may read it.
+     * @param peer Whether the request came from a peer, which may read anything.
+     * @param path The path of the file in storage.
+     */
+    private static void serveCached(Context request, User user, boolean peer, String groupID, String artifactID, String path) {
+        long started = Trace.start();
+        PermissionLevel permissionLevel = peer ? PermissionLevel.READ : user.getPermissionFor(groupID, artifactID);
+        Trace.end(Trace.Phase.PERMISSION, started);
+        if (permissionLevel.level < PermissionLevel.READ.level) {
+            Waitress.LOGGER.debug("User {} does not have permission for requested file", user.getUsername());
+            Metrics.PERMISSION_DENIALS.labels("read").increment();
+            request.status(403);
+            return;
+        }
+        // SNAPSHOTs may have changed upstream since they were cached.
+        started = Trace.start();
+        Revalidator.check(path);
+        Trace.end(Trace.Phase.REVALIDATE, started);
+        try {
+            serve(request, path);
+        } catch (FileNotFoundException e) {
+            // Removed since the cache was built.
+            request.status(404);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Handle a GET request to a file in a named repository. See {@link Repositories}.
+     * The file is sent from the first member that has it stored. Failing that, it is fetched by the first member that
+     *  can find it upstream. Members are asked in order, but only those that may hold the file's group.
+     * @param request The metadata of the request.
+     */
+    private static void getRepository(Context request) {
+        long started = Trace.start();
+        Repository repository = parseRepository(request);
+        if (repository == null) {
+            request.status(404);
+            return;
+        }
+        String relative = request.path().substring(REPOSITORY_PATH.length() + repository.name().length());
+
+        MetadataPath metadata = MetadataPath.parse(relative);
+        if (metadata != null) {
+            Trace.end(Trace.Phase.PARSE, started);
+            getRepositoryMetadata(request, repository, metadata);
+            return;
+        }
+        MavenCoordinate coordinate = MavenCoordinate.parse(relative);
+        Trace.end(Trace.Phase.PARSE, started);
+        if (coordinate == null) {
+            request.status(404);
+            return;
+        }
+
+        boolean peer = Peers.isPeerRequest(request);
+        User user = peer ? authenticatePeer(request) : authenticate(request);
+        if (user == null)
+            return;
+
+        started = Trace.start();
+        List<Repository> route = repository.route(coordinate.groupID());
+        String stored = Repository.find(route, coordinate);
+        Trace.end(Trace.Phase.INDEX, started);
+
+        if (!peer && !RateLimiter.admit(request, user, stored == null))
+            return;
+
+        if (stored != null) {
+            Metrics.CACHE_LOOKUPS.labels("hit").increment();
+            request.attribute(CACHE_ATTRIBUTE, "hit");
+            serveCached(request, user, peer, coordinate.groupID(), coordinate.artifactID(), stored);
+            return;
+        }
+
+        Metrics.CACHE_LOOKUPS.labels("miss").increment();
+        request.attribute(CACHE_ATTRIBUTE, "miss");
+        fetchFromMembers(request, route, coordinate.path(), !peer);
+    }
+
+    /**
+     * Handle a GET request to a maven-metadata.xml file in a named repository, or one of its checksums.
+     * Proxy repositories send their upstream's copy. Hosted and virtual repositories generate one from every member.
+     *  See {@link MergedMetadata}.
+     * @param request The metadata of the request.
+     * @param repository The repository it was requested from.
+     * @param metadata The metadata file that was requested, relative to the repository.
+     */
+    private static void getRepositoryMetadata(Context request, Repository repository, MetadataPath metadata) {
+        boolean peer = Peers.isPeerRequest(request);
+        User user = peer ? authenticatePeer(request) : authenticate(request);
+        if (user == null)
+            return;
+
+        long started = Trace.start();
+        PermissionLevel permissionLevel = peer ? PermissionLevel.READ : user.getPermissionFor(metadata.groupID(), metadata.artifactID());
+        Trace.end(Trace.Phase.PERMISSION, started);
+        if (permissionLevel.level < PermissionLevel.READ.level) {
+            Metrics.PERMISSION_DENIALS.labels("read").increment();
+            request.status(403);
+            return;
+        }
+
+        List<Repository> route = repository.route(metadata.groupID());
+        // The builds of a SNAPSHOT only ever come from one place, so they're sent as they are.
+        if (repository.type() == Repository.Type.PROXY || metadata.isSnapshot()) {
+            for (Repository member : route) {
+                String path = member.path(metadata.path());
+                try {
+                    if (!Waitress.storage.exists(path))
+                        continue;
+                    request.attribute(CACHE_ATTRIBUTE, "hit");
+                    Revalidator.check(path);
+                    serve(request, path);
+                    return;
+                } catch (FileNotFoundException e) {
+                    // Removed since we looked. Try the next member.
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
+            request.attribute(CACHE_ATTRIBUTE, "miss");
+            fetchFromMembers(request, route, metadata.path(), !peer);
+            return;
+        }
+
+        // Built from what's stored, apart from proxied metadata now and then, so it costs the same as a cached file.
+        if (!peer && !RateLimiter.admit(request, user, false))
+            return;
+
+        String extension = metadata.path().substring(metadata.path().lastIndexOf("maven-metadata.xml") + "maven-metadata.xml".length());
+        MergedMetadata merged = repository.metadata(metadata.groupID(), metadata.artifactID(), !peer);
+        byte[] content = merged.isEmpty() ? null : merged.render(extension);
+        if (content == null) {
+            request.status(404);
+            return;
+        }
+        request.attribute(CACHE_ATTRIBUTE, "hit");
+        if (extension.isEmpty())
+            request.contentType("application/xml");
+        request.result(content);
+    }
+
+    /**
+     * Download a file into the first member that can find it upstream, and send it.
+     * If none can, the status is set to 404.
+     * @param relative The path of the file relative to the repository.
+     * @param askPeers Whether peers may be asked for the file. False when a peer is asking.
+     */
+    private static void fetchFromMembers(Context request, List<Repository> route, String relative, boolean askPeers) {
+        try {
+            long started = Trace.start();
+            String path = Repository.fetch(route, relative, askPeers);
+            Trace.end(Trace.Phase.FETCH, started);
+            serve(request, path);
+        } catch (FileNotFoundException e) {
+            request.status(404);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Handle a GET request to a maven-metadata.xml file, or one of its checksums.
+     * Cached copies are revalidated against the proxy once they expire. See {@link Revalidator}.
+     * @param request The metadata of the request.
+     * @param metadata The metadata file that was requested.
+     */
+    private static void getMetadata(Context request, MetadataPath metadata) {
+        boolean peer = Peers.isPeerRequest(request);
+        User user = peer ? authenticatePeer(request) : authenticate(request);
+        if (user == null)
+            return;
+
+        try {
+            boolean cached = Waitress.storage.exists(metadata.path());
+            if (!peer && (cached || Config.SHOULD_PROXY) && !RateLimiter.admit(request, user, !cached))
+                return;
+
+            if (cached) {
+                request.attribute(CACHE_ATTRIBUTE, "hit");
+                long started = Trace.start();
+                PermissionLevel permissionLevel = peer ? PermissionLevel.READ : user.getPermissionFor(metadata.groupID(), metadata.artifactID());
+                Trace.end(Trace.Phase.PERMISSION, started);
+                if (permissionLevel.level < PermissionLevel.READ.level) {
+                    Metrics.PERMISSION_DENIALS.labels("read").increment();
+                    request.status(403);
+                    return;
+                }
+                started = Trace.start();
+                Revalidator.check(metadata.path());
+                Trace.end(Trace.Phase.REVALIDATE, started);
+            } else if (Config.SHOULD_PROXY) {
+                request.attribute(CACHE_ATTRIBUTE, "miss");
+                long started = Trace.start();
+                MavenDownloader.fetchFile(metadata.path(), !peer);
+                Trace.end(Trace.Phase.FETCH, started);
+            } else {
+                request.status(404);
+                return;
+            }
+
+            serve(request, metadata.path());
+        } catch (FileNotFoundException | NoRouteToHostException e) {
+            request.status(404);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Send a stored file.
+     * Text files are sent compressed if the client accepts it, and a compressed copy was stored. See {@link Precompressed}.
+     * Large files take turns with everyone else's. See {@link BandwidthScheduler}.
+     * @param request The metadata of the request.
+     * @param path The path of the file relative to the repository root.
+     */
+    private static void serve(Context request, String path) throws IOException {
+        long started = Trace.start();
+        try {
+            if (Precompressed.isCompressible(path))
+                request.header("Vary", "Accept-Encoding");
+
+            String copy = Precompressed.negotiate(request.header("Accept-Encoding"), path);
+            if (copy != null) {
+                try {
+                    request.result(schedule(request, copy));
+                    request.header("Content-Encoding", Precompressed.encodingOf(copy));
+                    return;
+                } catch (FileNotFoundException e) {
+                    // Replaced since we looked. Send the original instead.
+                }
+            }
+
+            request.result(schedule(request, path));
+        } finally {
+            Trace.end(Trace.Phase.OPEN, started);
+        }
+    }
+
+    private static InputStream schedule(Context request, String path) throws IOException {
+        String user = request.attribute(USER_ATTRIBUTE);
+        return BandwidthScheduler.schedule(path, Waitress.storage.read(path),
+                Auth.anonymous.getUsername().equals(user) ? null : user, request.ip());
+    }
+
     /**
      * Handles a PUT request to a maven coordinate
      * Uploads file into cache at provided  maven coordinate
@@ -131,77 +421,583 @@ public class Server {
      * @param request The metadata of the request
      */
     private static void putMaven(Context request) {
+        long started = Trace.start();
         MavenCoordinate coordinate = parseCoordinate(request, false);
+        Trace.end(Trace.Phase.PARSE, started);
         if (coordinate == null){
             request.status(404);
             return;
         }
-        final String groupID = coordinate.groupID;
-        final String artifactID = coordinate.artifactID;
-        final String version = coordinate.version;
-        final String classifier = coordinate.classifier;
-        final String extension = coordinate.extension;
+        upload(request, coordinate, "");
+    }
 
-        User user;
-        try{
-            if(request.basicAuthCredentialsExist()) {
-                BasicAuthCredentials credentials = request.basicAuthCredentials();
-                if (!Auth.checkPassword(credentials.getUsername(), credentials.getPassword())) {
-                    request.status(401);
-                    return;
-                }
-                user = Auth.getUser(credentials.getUsername()).get();
-            } else {
-                user = Auth.anonymous;
-            }
-        }catch (CalledTooEarlyException exception) {
-            request.status(503);
+    /**
+     * Handles a PUT request to a file in a named repository. See {@link Repositories}.
+     * Only hosted repositories take uploads. Anything else answers 405.
+     * @param request The metadata of the request
+     */
+    private static void putRepository(Context request) {
+        long started = Trace.start();
+        Repository repository = parseRepository(request);
+        if (repository == null) {
+            request.status(404);
+            return;
+        }
+        MavenCoordinate coordinate = MavenCoordinate.parse(request.path().substring(REPOSITORY_PATH.length() + repository.name().length()));
+        Trace.end(Trace.Phase.PARSE, started);
+        if (coordinate == null) {
+            request.status(404);
+            return;
+        }
+        if (repository.type() != Repository.Type.HOSTED) {
+            request.status(405);
             return;
         }
+        upload(request, coordinate, repository.path(""));
+    }
+
+    /**
+     * Store an uploaded file, if the user may write to it, and it isn't already there.
+     * @param prefix Where the repository being uploaded to is stored. See {@link Repository#path(String)}.
+     */
+    private static void upload(Context request, MavenCoordinate coordinate, String prefix) {
+        final String groupID = coordinate.groupID();
+        final String artifactID = coordinate.artifactID();
+        final String version = coordinate.version();
+        final String classifier = coordinate.classifier();
+        final String extension = coordinate.extension();
+
+        User user = authenticate(request);
+        if (user == null)
+            return;
+
+        // Uploads come out of the same budget as cached files. They're local work, and there are far fewer of them.
+        if (!RateLimiter.admit(request, user, false))
+            return;
 
         //TODO Should it send 401 when user account is anonymous?
-        if (user.getPermissionFor(groupID, artifactID).level < PermissionLevel.WRITE.level) {
+        long started = Trace.start();
+        PermissionLevel permissionLevel = user.getPermissionFor(groupID, artifactID);
+        Trace.end(Trace.Phase.PERMISSION, started);
+        if (permissionLevel.level < PermissionLevel.WRITE.level) {
+            Metrics.PERMISSION_DENIALS.labels("write").increment();
             request.status(403);
             return;
         }
 
-        Waitress.LOGGER.info("Upload request for " + groupID + "/" + artifactID +  "/" + version + "/" + artifactID +  "-" + version + classifier + "." + extension + " was received");
-        if (RepoCache.contains(groupID, artifactID, version, classifier, extension)) {
+        Waitress.LOGGER.debug("Upload request for {} was received", coordinate);
+        started = Trace.start();
+        boolean exists = RepoCache.contains(prefix + groupID, artifactID, version, classifier, extension);
+        Trace.end(Trace.Phase.INDEX, started);
+        final String path = prefix + coordinate.path();
+        // The blob store writes checksums alongside every file, so the client's own copies of them are expected.
+        final boolean written = exists && Config.BLOB_STORE && BlobStore.writesChecksum(path);
+        if (exists && !written) {
             // If the file already exists, return 409
             Waitress.LOGGER.warn("Artifact " + groupID + "/" + artifactID +  "/" + version + "/" + artifactID +  "-" + version + classifier + "." + extension + " already exists!");
             request.status(409);
             return;
         }
         // Retrieve file from request and save it into cache
+        started = Trace.start();
         UploadedFile file = request.uploadedFile(artifactID +  "-" + version + classifier + "." + extension);
+        Trace.end(Trace.Phase.UPLOAD, started);
         if (file == null) {
             request.status(400);
             Waitress.LOGGER.warn("The request does not contain any file!");
             return;
         }
-        FileUtil.streamToFile(file.getContent(), Config.DATA_DIR + groupID + "/" + artifactID +  "/" + version + "/" + artifactID +  "-" + version + classifier + "." + extension);
+        if (written) {
+            // Nothing is replaced. The client's copy is only accepted if it agrees with the one already stored.
+            try (InputStream content = file.getContent()) {
+                request.status(BlobStore.agrees(path, content.readAllBytes()) ? 201 : 409);
+            } catch (IOException e) {
+                Waitress.LOGGER.warn("Upload of " + coordinate + " could not be checked: " + e.getMessage());
+                request.status(500);
+            }
+            return;
+        }
+        try {
+            Precompressed.remove(path);
+            started = Trace.start();
+            Waitress.storage.write(path, file.getContent()).forEach(RepoCache::track);
+            Trace.end(Trace.Phase.STORE, started);
+            Precompressed.compress(path);
+        } catch (IOException e) {
+            Waitress.LOGGER.warn("Upload of " + coordinate + " could not be written: " + e.getMessage());
+            request.status(500);
+            return;
+        }
 
-        Artifact artifact = RepoCache.tryAddArtifact(groupID, artifactID);
-        artifact.addVersion(version, classifier, extension);
+        RepoCache.track(path);
+        try {
+            Replication.record(path);
+        } catch (IOException e) {
+            // The client is only told an upload succeeded once it is sure to reach the replicas. Take it back out, so
+            //  that uploading it again isn't refused.
+            Waitress.LOGGER.error("Upload of " + coordinate + " was refused, as it couldn't be journalled for replication: " + e.getMessage());
+            RepoCache.untrack(MavenCoordinate.parse("/" + path));
+            try {
+                Waitress.storage.delete(path);
+                Precompressed.remove(path);
+            } catch (IOException removal) {
+                Waitress.LOGGER.error("Upload of " + coordinate + " couldn't be removed again: " + removal.getMessage());
+                RepoCache.track(path);
+            }
+            request.status(500);
+            return;
+        }
         request.status(201);
     }
 
+    /**
+     * Apply a batch of uploads replicated from another server. See {@link Replication}.
+     * Only peers may send them.
+     * @param request The metadata of the request.
+     */
+    private static void postReplication(Context request) {
+        if (!Peers.isPeerRequest(request)) {
+            request.status(403);
+            return;
+        }
+        request.attribute(USER_ATTRIBUTE, "(peer)");
+
+        try {
+            request.result(Replication.apply(request.req.getInputStream()) + " uploads applied.");
+        } catch (IOException e) {
+            Waitress.LOGGER.warn("Replicated uploads couldn't be applied: " + e.getMessage());
+            request.status(500);
+        }
+    }
+
+    /**
+     * Send every file in the request body as one zip. See {@link BatchDownload}.
+     * The body is a list of coordinates, or a lockfile, as for a warm-up job. See {@link WarmupJob#parse(List)}.
+     * The files come from the root, unless a named repository is given as ?repository=name.
+     * Only users that have logged in may do this.
+     * @param request The metadata of the request.
+     */
+    private static void postBatch(Context request) {
+        User user = authenticate(request);
+        if (user == null)
+            return;
+        if (user == Auth.anonymous) {
+            request.header("WWW-Authenticate", "Basic realm=\"Waitress\"");
+            request.status(401);
+            return;
+        }
+
+        Repository repository = null;
+        String name = request.queryParam("repository");
+        if (name != null) {
+            repository = Repositories.get(name);
+            if (repository == null) {
+                request.status(404);
+                return;
+            }
+        }
+
+        // One batch is one request for the files that are stored. Each file that has to be fetched is charged as a miss.
+        if (!RateLimiter.admit(request, user, false))
+            return;
+
+        List<MavenCoordinate> coordinates = WarmupJob.parse(request.body().lines().toList());
+        if (coordinates.size() > Config.BATCH_MAX_FILES) {
+            request.status(413).result("At most " + Config.BATCH_MAX_FILES + " files may be asked for at once.");
+            return;
+        }
+
+        request.contentType("application/zip");
+        request.header("Content-Disposition", "attachment; filename=\"batch.zip\"");
+        try {
+            BatchDownload.write(request.res.getOutputStream(), coordinates, user, repository, request.ip());
+        } catch (IOException e) {
+            Waitress.LOGGER.debug("Batch of {} files was cut short: {}", coordinates.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Resolve the dependencies of the artifacts in the request body. See {@link Resolver}.
+     * The body is a list of coordinates, or a lockfile, as for a warm-up job. See {@link WarmupJob#parse(List)}.
+     * POMs come from the root, unless a named repository is given as ?repository=name. Runtime dependencies are
+     *  included, unless ?scope=compile is given.
+     * Only users that have logged in may do this.
+     * @param request The metadata of the request.
+     */
+    private static void postResolve(Context request) {
+        User user = authenticate(request);
+        if (user == null)
+            return;
+        if (user == Auth.anonymous) {
+            request.header("WWW-Authenticate", "Basic realm=\"Waitress\"");
+            request.status(401);
+            return;
+        }
+
+        Repository repository = null;
+        String name = request.queryParam("repository");
+        if (name != null) {
+            repository = Repositories.get(name);
+            if (repository == null) {
+                request.status(404);
+                return;
+            }
+        }
+
+        if (!RateLimiter.admit(request, user, false))
+            return;
+
+        // Only the artifacts matter, not which of their files were listed.
+        List<MavenCoordinate> roots = WarmupJob.parse(request.body().lines().toList()).stream()
+                .map(coordinate -> coordinate.withExtension("pom"))
+                .distinct()
+                .toList();
+        if (roots.size() > Config.BATCH_MAX_FILES) {
+            request.status(413).result("At most " + Config.BATCH_MAX_FILES + " artifacts may be resolved at once.");
+            return;
+        }
+
+        request.contentType("text/plain; charset=utf-8");
+        request.result(Resolver.resolve(roots, repository, !"compile".equals(request.queryParam("scope")), user, request.ip()));
+    }
+
+    /**
+     * List the stored versions of an artifact, at VERSIONS_PATH/group/artifact, newest last.
+     * With ?version=LATEST or ?version=RELEASE, only the newest version (or the newest that isn't a SNAPSHOT) is sent,
+     *  and with ?version=[1.2,2.0) or any other range, only those in the range. Add ?latest to get only the newest of
+     *  those. Named repositories are asked with ?repository=name.
+     * Answered from the index alone, so it never downloads anything.
+     * @param request The metadata of the request.
+     */
+    private static void getVersions(Context request) {
+        String path = request.path().substring(Config.VERSIONS_PATH.length());
+        int slash = path.lastIndexOf('/');
+        if (slash <= 1) {
+            request.status(404);
+            return;
+        }
+        String groupID = path.substring(1, slash);
+        String artifactID = path.substring(slash + 1);
+
+        User user = authenticate(request);
+        if (user == null)
+            return;
+        if (user.getPermissionFor(groupID, artifactID).level < PermissionLevel.READ.level) {
+            Metrics.PERMISSION_DENIALS.labels("read").increment();
+            request.status(403);
+            return;
+        }
+
+        List<String> prefixes = List.of("");
+        String name = request.queryParam("repository");
+        if (name != null) {
+            Repository repository = Repositories.get(name);
+            if (repository == null) {
+                request.status(404);
+                return;
+            }
+            prefixes = repository.route(groupID).stream().map(Repository::prefix).toList();
+        }
+
+        if (!RateLimiter.admit(request, user, false))
+            return;
+
+        String query = request.queryParam("version");
+        VersionRange range = null;
+        if (query != null && !query.equals("LATEST") && !query.equals("RELEASE")) {
+            try {
+                range = VersionRange.parse(query);
+            } catch (IllegalArgumentException e) {
+                request.status(400).result(e.getMessage());
+                return;
+            }
+        }
+        boolean newest = "LATEST".equals(query) || "RELEASE".equals(query) || request.queryParam("latest") != null;
+
+        // Each member answers from its own index, and the answers are merged in order.
+        NavigableSet<MavenVersion> versions = new TreeSet<>();
+        for (String prefix : prefixes) {
+            Artifact artifact = RepoCache.get(prefix + groupID, artifactID);
+            if (artifact == null)
+                continue;
+            if (range != null && newest)
+                add(versions, artifact.getLatest(range));
+            else if (range != null)
+                artifact.getVersions(range).forEach(version -> versions.add(MavenVersion.parse(version)));
+            else if ("RELEASE".equals(query))
+                add(versions, artifact.getRelease());
+            else if (newest)
+                add(versions, artifact.getLatest());
+            else
+                artifact.getVersions().forEach(version -> versions.add(MavenVersion.parse(version)));
+        }
+
+        if (versions.isEmpty()) {
+            request.status(404);
+            return;
+        }
+        request.contentType("text/plain; charset=utf-8");
+        if (newest)
+            request.result(versions.last() + "\n");
+        else
+            request.result(versions.stream().map(version -> version + "\n").collect(Collectors.joining()));
+    }
+
+    private static void add(NavigableSet<MavenVersion> versions, String version) {
+        if (version != null)
+            versions.add(MavenVersion.parse(version));
+    }
+
+    /**
+     * Start a warm-up job with the coordinates (or lockfile) in the request body.
+     * Only the administrator may do this, and only one job may run at once.
+     * @param request The metadata of the request.
+     */
+    private static void postWarmup(Context request) {
+        if (!authenticateAdmin(request))
+            return;
+
+        synchronized (Server.class) {
+            if (warmup != null && !warmup.isDone()) {
+                request.status(409).result(warmup.progress());
+                return;
+            }
+
+            List<MavenCoordinate> coordinates = WarmupJob.parse(request.body().lines().toList());
+            warmup = new WarmupJob(coordinates, Config.WARMUP_THREADS, Config.WARMUP_RETRIES);
+            warmup.start();
+            request.status(202).result(warmup.progress());
+        }
+    }
+
+    /**
+     * Report the progress of the most recent warm-up job.
+     * @param request The metadata of the request.
+     */
+    private static void getWarmup(Context request) {
+        if (!authenticateAdmin(request))
+            return;
+
+        WarmupJob job = warmup;
+        if (job == null) {
+            request.status(404);
+            return;
+        }
+        request.result(job.progress());
+    }
+
+    /**
+     * Report every metric, for Prometheus to scrape.
+     * @param request The metadata of the request.
+     */
+    private static void getMetrics(Context request) {
+        if (!authenticateAdmin(request))
+            return;
+
+        request.contentType("text/plain; version=0.0.4; charset=utf-8");
+        request.result(Metrics.scrape());
+    }
+
+    /**
+     * Report whether every stored file is indexed, so load balancers can hold off sending requests until it is.
+     * Open to anyone, and not rate limited, as it says nothing about what is stored.
+     * @param request The metadata of the request.
+     */
+    private static void getReady(Context request) {
+        request.status(RepoCache.isReady() ? 200 : 503);
+        request.result(RepoCache.progress() + "\n");
+    }
+
+    /**
+     * Report the most recent requests, slowest first, with where their time went.
+     * @param request The metadata of the request.
+     */
+    private static void getTraces(Context request) {
+        if (!authenticateAdmin(request))
+            return;
+
+        List<Trace> traces = Tracer.recent();
+        traces.sort(Comparator.comparingLong(Trace::durationNanos).reversed());
+        StringBuilder out = new StringBuilder();
+        for (Trace trace : traces)
+            out.append(trace).append('\n');
+        request.result(out.toString());
+    }
+
+    /**
+     * Figure out who is making a request.
+     * Requests without credentials are made by the anonymous user.
+     * @param request The metadata of the request.
+     * @return The user, or null if the request was rejected. The status is already set in that case.
+     */
+    private static User authenticate(Context request) {
+        long started = Trace.start();
+        try{
+            if(request.basicAuthCredentialsExist()) {
+                BasicAuthCredentials credentials = request.basicAuthCredentials();
+                if (!Auth.checkPassword(credentials.getUsername(), credentials.getPassword())) {
+                    request.status(401);
+                    return null;
+                }
+                User user = Auth.getUser(credentials.getUsername()).get();
+                request.attribute(USER_ATTRIBUTE, user.getUsername());
+                return user;
+            } else {
+                request.attribute(USER_ATTRIBUTE, Auth.anonymous.getUsername());
+                return Auth.anonymous;
+            }
+        } catch (CalledTooEarlyException exception) {
+            request.status(503);
+            return null;
+        } catch (NoSuchElementException exception) {
+            request.status(401);
+            return null;
+        } finally {
+            Trace.end(Trace.Phase.AUTHENTICATE, started);
+        }
+    }
+
+    /**
+     * Let through a request from a peer. See {@link Peers}.
+     * Peers may read anything, so the user they're given only matters for the access log.
+     * @param request The metadata of the request.
+     * @return The anonymous user.
+     */
+    private static User authenticatePeer(Context request) {
+        request.attribute(USER_ATTRIBUTE, "(peer)");
+        return Auth.anonymous;
+    }
+
+    /**
+     * Make sure a request to the admin panel was made by the administrator.
+     * @param request The metadata of the request.
+     * @return Whether the request may continue. If not, the status is already set.
+     */
+    private static boolean authenticateAdmin(Context request) {
+        User user = authenticate(request);
+        if (user == null)
+            return false;
+
+        if (user == Auth.anonymous) {
+            request.header("WWW-Authenticate", "Basic realm=\"Waitress\"");
+            request.status(401);
+            return false;
+        }
+
+        if (!user.getUsername().equals(Config.ADMIN_USERNAME)) {
+            Metrics.PERMISSION_DENIALS.labels("admin").increment();
+            request.status(403);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Sets up all the routing.
      *
      * By default, all maven coordinates are handled by a wrapper on "/".
      * TODO: All endpoints are handled by their own wrapper.
+     *
+     * Returns once the server is listening. Requests are handled on Jetty's threads.
      */
-    public static void start() throws InterruptedException {
-        Javalin server = Javalin.create().start(Config.LISTEN_PORT);
+    public static void start() {
+        server = Javalin.create(config -> {
+            // Text files are compressed once when they're stored. Compressing every response again would waste that.
+            if (Config.PRECOMPRESS)
+                config.compressionStrategy(CompressionStrategy.NONE);
+            // Filters wrap the whole request. The adaptive limit comes first, so that requests it turns away aren't
+            // kept waiting by the concurrency limiter.
+            List<Filter> filters = new ArrayList<>();
+            if (Config.ADAPTIVE_CONCURRENCY)
+                filters.add(new AdaptiveLimiter(Config.ADAPTIVE_MIN_CONCURRENCY, Config.ADAPTIVE_MAX_CONCURRENCY, Config.ADAPTIVE_LATENCY_TOLERANCE));
+            if (Config.EXECUTION.equals("virtual"))
+                useVirtualThreads(config, filters);
+            if (!filters.isEmpty())
+                config.configureServletContextHandler(handler -> filters.forEach(filter ->
+                        handler.addFilter(new FilterHolder(filter), "/*", EnumSet.of(DispatcherType.REQUEST))));
+            // Called once the response has been sent, so this covers the whole request.
+            config.requestLogger((request, millis) -> {
+                Metrics.REQUESTS_IN_FLIGHT.decrement();
+                Trace trace = request.attribute(TRACE_ATTRIBUTE);
+                if (trace == null)
+                    return;
+
+                long duration = System.nanoTime() - trace.startNanos();
+                Metrics.REQUEST_DURATION.labels(request.method(), STATUSES[Math.min(request.status(), 599)]).observe(duration);
+                Request base = Request.getBaseRequest(request.req);
+                AccessLog.record(request.method(), request.path(), request.attribute(USER_ATTRIBUTE), request.status(),
+                        base == null ? -1 : base.getResponse().getContentCount(), duration, request.attribute(CACHE_ATTRIBUTE));
+                Long handled = request.attribute(HANDLED_ATTRIBUTE);
+                if (handled != null)
+                    trace.span(Trace.Phase.WRITE, handled, System.nanoTime());
+                trace.finish(request.status());
+                Tracer.record(trace);
+            });
+        }).start(Config.LISTEN_PORT);
 
+        server.before(request -> {
+            Metrics.REQUESTS_IN_FLIGHT.increment();
+            request.attribute(TRACE_ATTRIBUTE, Trace.begin(request.method(), request.path()));
+        });
+        // The response is sent after every handler has run, so anything from here on is writing it.
+        server.after(request -> request.attribute(HANDLED_ATTRIBUTE, System.nanoTime()));
+
+        // Specific routes must be added before the catch-all, as the first match wins.
+        server.get(Config.METRICS_PATH, Server::getMetrics);
+        server.get(Config.READY_PATH, Server::getReady);
+        server.get(Config.ADMIN_PANEL + "/traces", Server::getTraces);
+        server.get(Config.ADMIN_PANEL + "/warmup", Server::getWarmup);
+        server.post(Config.ADMIN_PANEL + "/warmup", Server::postWarmup);
+        server.post(Config.ADMIN_PANEL + "/replication", Server::postReplication);
+        server.post(Config.BATCH_PATH, Server::postBatch);
+        server.post(Config.RESOLVE_PATH, Server::postResolve);
+        server.get(Config.VERSIONS_PATH + "/*", Server::getVersions);
+
+        // Only claimed if there are named repositories, so that a group called "repository" still works without them.
+        if (Repositories.isEnabled()) {
+            server.get("/" + Repositories.PATH + "*", Server::getRepository);
+            server.put("/" + Repositories.PATH + "*", Server::putRepository);
+        }
         server.get("/*", Server::getMaven);
         server.put("/*", Server::putMaven);
 
         Waitress.LOGGER.info("Server started. Waiting for requests.");
+    }
+
+    /**
+     * Handle every request on its own virtual thread, with a {@link ConcurrencyLimiter} in place of the thread pool's
+     *  ceiling. Falls back on the thread pool if this Java doesn't have virtual threads.
+     * @param filters The filters that will wrap every request. The limiter is added to them.
+     */
+    private static void useVirtualThreads(JavalinConfig config, List<Filter> filters) {
+        ThreadFactory factory = VirtualThreadPool.virtualThreadFactory();
+        if (factory == null) {
+            Waitress.LOGGER.warn("Virtual threads need Java 21 or newer, and this is " + Runtime.version().feature() + ". Using platform threads.");
+            return;
+        }
 
-        // Deadlock the current thread to keep it active.
-        Thread.currentThread().join();
+        config.server(() -> new org.eclipse.jetty.server.Server(new VirtualThreadPool(factory)));
+        if (Config.MAX_CONCURRENT_REQUESTS > 0)
+            filters.add(new ConcurrencyLimiter(Config.MAX_CONCURRENT_REQUESTS));
+        Waitress.LOGGER.info("Requests are handled on virtual threads, at most " + Config.MAX_CONCURRENT_REQUESTS + " at once.");
+    }
+
+    /**
+     * Stop accepting requests, and wait for the ones in progress to finish.
+     */
+    public static void stop() {
+        if (server != null)
+            server.stop();
+        server = null;
+    }
+
+    /**
+     * @return The named repository that a request is for, or null if there is no such repository.
+     */
+    private static Repository parseRepository(Context request) {
+        String path = request.path();
+        int end = path.indexOf('/', REPOSITORY_PATH.length());
+        return end < 0 ? null : Repositories.get(path.substring(REPOSITORY_PATH.length(), end));
     }
 
     private static MavenCoordinate parseCoordinate(Context request, boolean getEndpoint) {
@@ -212,41 +1008,12 @@ public class Server {
         // Note that this is more complicated because of the fact that repo proxies exist.
         // We need to be able to reorganize any request into something appropriate for another repository.
 
-        final Matcher matcher = MAVEN_PATTERN.matcher(request.path());
+        final MavenCoordinate coordinate = MavenCoordinate.parse(request.path());
 
         // Early exit if this isn't a valid coordinate.
-        if(!matcher.matches()) {
-            if (getEndpoint) getEndpoint(request);
-            return null;
-        }
-
-        // Set up components of the request.
-        String groupID = matcher.group("group");
-        final String artifactID = matcher.group("artifact");
-        final String version = matcher.group("version");
-        String classifier = matcher.group("classifier");
-        final String extension = matcher.group("extension");
-
-        // Cleanup the group. Sometimes it ends with a "/".
-        if (groupID.charAt(groupID.length() - 1) == '/')
-            groupID = groupID.substring(0, groupID.length() - 1);
-
-        // Sometimes the classifier is null. We need it to be "".
-        if (classifier == null)
-            classifier = "";
-        return new MavenCoordinate(groupID, artifactID, version, classifier, extension);
-    }
-
-    /**
-     * Data class for describing maven coordinate
-     */
-    private record MavenCoordinate(
-            @NotNull String groupID,
-            @NotNull String artifactID,
-            @NotNull String version,
-            @NotNull String classifier,
-            @NotNull String extension
-    ) {
+        if (coordinate == null && getEndpoint)
+            getEndpoint(request);
 
+        return coordinate;
     }
 }
@@ -0,0 +1,258 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Metrics;
+import uk.gemwire.waitress.web.repository.Artifact;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+import uk.gemwire.waitress.web.repository.Metadata;
+import uk.gemwire.waitress.web.storage.Precompressed;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Removes old timestamped SNAPSHOT builds, so that deploying SNAPSHOTs doesn't fill the disk forever.
+ *
+ * Builds past the newest SNAPSHOT_KEEP_BUILDS of a SNAPSHOT, or older than SNAPSHOT_MAX_AGE_DAYS, are removed, unless
+ *  their group is protected. The newest build of each SNAPSHOT is always kept, so the SNAPSHOT can still be resolved,
+ *  and the versions listed in the artifact's metadata never change.
+ *
+ * Runs on a low priority background thread every CLEANUP_MINUTES, once the index is complete. Builds are removed one
+ *  at a time, and files no faster than CLEANUP_FILES_PER_SECOND, so that it never competes with requests for the disk.
+ * Each file is taken out of the index before it is removed, so a request never finds a file that isn't there. Once a
+ *  SNAPSHOT's builds are gone, they're taken out of its maven-metadata.xml, if one is stored.
+ *
+ * Space held by removed files is given back by the blob collector or by segment compaction, if either is in use.
+ *
+ * @author Curle
+ */
+public class SnapshotCleaner {
+
+    // The end of a timestamped version: when it was built, and which build of the SNAPSHOT it is.
+    private static final Pattern BUILD = Pattern.compile("^.+-(?<timestamp>\\d{8}\\.\\d{6})-(?<number>\\d+)$");
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd.HHmmss");
+
+    // Checksum file extension -> the digest it holds.
+    private static final Map<String, String> DIGESTS = Map.of("md5", "MD5", "sha1", "SHA-1", "sha256", "SHA-256", "sha512", "SHA-512");
+
+    // A SNAPSHOT of an artifact, with its group as it is stored.
+    private record Snapshot(String groupID, String artifactID, String version) {}
+
+    /**
+     * @return Whether any builds are ever removed.
+     */
+    public static boolean isEnabled() {
+        return Config.SNAPSHOT_KEEP_BUILDS > 0 || Config.SNAPSHOT_MAX_AGE_DAYS > 0;
+    }
+
+    /**
+     * Start a background thread that periodically removes the builds that the retention policy doesn't keep.
+     * Does nothing if there is no policy.
+     */
+    public static void start() {
+        if (!isEnabled())
+            return;
+
+        Thread cleaner = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(Config.CLEANUP_MINUTES));
+                    // Until then, a file missing from the index may be looked for in storage, and found again.
+                    if (RepoCache.isReady())
+                        clean();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    Waitress.LOGGER.warn("SNAPSHOT cleanup failed: " + e.getMessage());
+                }
+            }
+        }, "snapshot cleaner");
+        cleaner.setDaemon(true);
+        cleaner.setPriority(Thread.MIN_PRIORITY);
+        cleaner.start();
+    }
+
+    /**
+     * Remove every build that the retention policy doesn't keep.
+     * @return The number of builds removed.
+     */
+    public static int clean() throws InterruptedException {
+        long started = System.currentTimeMillis();
+        List<String> protectedGroups = new ArrayList<>();
+        for (String group : Config.SNAPSHOT_PROTECTED_GROUPS.split(","))
+            if (!group.isBlank())
+                protectedGroups.add(group.strip().replace('.', '/'));
+
+        Map<Snapshot, List<String>> snapshots = new HashMap<>();
+        RepoCache.forEachVersion((groupID, artifactID, version) -> {
+            String base = new MavenCoordinate(groupID, artifactID, version, "", "pom").baseVersion();
+            if (!base.equals(version) && !isProtected(groupID, protectedGroups))
+                snapshots.computeIfAbsent(new Snapshot(groupID, artifactID, base), key -> new ArrayList<>()).add(version);
+        });
+
+        // Starts full, so a small cleanup doesn't wait at all.
+        TokenBucket budget = new TokenBucket(Config.CLEANUP_FILES_PER_SECOND, Config.CLEANUP_FILES_PER_SECOND, System.nanoTime());
+        int builds = 0;
+        long files = 0;
+        for (Map.Entry<Snapshot, List<String>> entry : snapshots.entrySet()) {
+            List<String> expired = expired(entry.getValue(), started);
+            if (expired.isEmpty())
+                continue;
+
+            Snapshot snapshot = entry.getKey();
+            for (String build : expired)
+                files += remove(snapshot, build, budget);
+            builds += expired.size();
+            Metrics.SNAPSHOT_BUILDS_REMOVED.add(expired.size());
+
+            try {
+                rewriteMetadata(snapshot, expired);
+            } catch (IOException e) {
+                Waitress.LOGGER.warn("The metadata of " + snapshot.groupID() + "/" + snapshot.artifactID() + "/" + snapshot.version()
+                        + " couldn't be updated after its builds were removed: " + e.getMessage());
+            }
+        }
+
+        if (builds > 0)
+            Waitress.LOGGER.info("Removed " + builds + " SNAPSHOT builds (" + files + " files) in " + (System.currentTimeMillis() - started) + "ms.");
+        return builds;
+    }
+
+    /**
+     * Work out which builds of a SNAPSHOT the retention policy doesn't keep.
+     * @param builds The timestamped versions of every build of one SNAPSHOT, in any order.
+     * @param now The current time, in milliseconds since the epoch.
+     * @return The builds to remove.
+     */
+    static List<String> expired(List<String> builds, long now) {
+        List<String> newestFirst = new ArrayList<>(builds);
+        newestFirst.sort(Comparator.comparingLong(SnapshotCleaner::builtAt).thenComparingLong(SnapshotCleaner::number).reversed());
+
+        long cutoff = Config.SNAPSHOT_MAX_AGE_DAYS > 0 ? now - TimeUnit.DAYS.toMillis(Config.SNAPSHOT_MAX_AGE_DAYS) : Long.MIN_VALUE;
+        List<String> expired = new ArrayList<>();
+        // The newest is always kept.
+        for (int i = 1; i < newestFirst.size(); i++) {
+            String build = newestFirst.get(i);
+            if ((Config.SNAPSHOT_KEEP_BUILDS > 0 && i >= Config.SNAPSHOT_KEEP_BUILDS) || builtAt(build) < cutoff)
+                expired.add(build);
+        }
+        return expired;
+    }
+
+    /**
+     * @return When the build was made, in milliseconds since the epoch. Timestamps are in UTC.
+     */
+    private static long builtAt(String build) {
+        Matcher matcher = BUILD.matcher(build);
+        if (!matcher.matches())
+            return 0;
+        try {
+            return LocalDateTime.parse(matcher.group("timestamp"), TIMESTAMP).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return Which build of its SNAPSHOT it is. Two builds in the same second are told apart by this.
+     */
+    private static long number(String build) {
+        Matcher matcher = BUILD.matcher(build);
+        return matcher.matches() ? Long.parseLong(matcher.group("number")) : 0;
+    }
+
+    /**
+     * @param groupID The group as it is stored, so inside a repository's folder if it belongs to one.
+     */
+    private static boolean isProtected(String groupID, List<String> protectedGroups) {
+        Repository repository = Repositories.holding(groupID + "/");
+        if (repository != null)
+            groupID = groupID.substring(repository.prefix().length());
+        for (String group : protectedGroups)
+            if (groupID.equals(group) || groupID.startsWith(group + "/"))
+                return true;
+        return false;
+    }
+
+    /**
+     * Remove every file of a build, waiting for the budget before each.
+     * @return The number of files removed.
+     */
+    private static int remove(Snapshot snapshot, String build, TokenBucket budget) throws InterruptedException {
+        Artifact artifact = RepoCache.get(snapshot.groupID(), snapshot.artifactID());
+        if (artifact == null)
+            return 0;
+
+        int removed = 0;
+        for (MavenCoordinate file : artifact.getFiles(build)) {
+            long wait;
+            while ((wait = budget.take(System.nanoTime())) > 0)
+                TimeUnit.NANOSECONDS.sleep(wait);
+
+            RepoCache.untrack(file);
+            String path = file.path();
+            try {
+                Waitress.storage.delete(path);
+                Precompressed.remove(path);
+                Metrics.SNAPSHOT_FILES_REMOVED.increment();
+                removed++;
+            } catch (IOException e) {
+                // Still stored, so it is tracked again, to be served until it is removed the next time round.
+                RepoCache.track(path);
+                Waitress.LOGGER.warn("Unable to remove " + path + ": " + e.getMessage());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Take removed builds out of the SNAPSHOT's maven-metadata.xml, and bring its checksums up to date.
+     * Does nothing if there is no such file.
+     */
+    private static void rewriteMetadata(Snapshot snapshot, List<String> removed) throws IOException {
+        String path = snapshot.groupID() + "/" + snapshot.artifactID() + "/" + snapshot.version() + "/maven-metadata.xml";
+        if (!Waitress.storage.exists(path))
+            return;
+
+        final byte[] content;
+        try (InputStream stream = Waitress.storage.read(path)) {
+            content = Metadata.withoutBuilds(stream, new HashSet<>(removed));
+        }
+        Precompressed.remove(path);
+        List<String> written = Waitress.storage.write(path, new ByteArrayInputStream(content));
+
+        // Any checksums that weren't written alongside it would be wrong now.
+        for (Map.Entry<String, String> digest : DIGESTS.entrySet()) {
+            String checksum = path + "." + digest.getKey();
+            if (written.contains(checksum) || !Waitress.storage.exists(checksum))
+                continue;
+            try {
+                byte[] hash = MessageDigest.getInstance(digest.getValue()).digest(content);
+                Waitress.storage.write(checksum, new ByteArrayInputStream(HexFormat.of().formatHex(hash).getBytes(StandardCharsets.US_ASCII)));
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java has these.
+                throw new IllegalStateException(e);
+            }
+        }
+        Precompressed.compress(path);
+    }
+}
@@ -0,0 +1,72 @@
+package uk.gemwire.waitress.web;
+
+/**
+ * A budget of requests that refills at a steady rate.
+ *
+ * The bucket holds up to {@code burst} tokens, and gains {@code rate} tokens a second. Every request takes one. A
+ *  client that has been quiet may make a burst of requests at once, but over time can't go faster than the rate.
+ *
+ * Tokens are kept fractionally, so slow rates (ie. one request every ten seconds) work.
+ *
+ * @author Curle
+ */
+public class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final double rate;
+    private final double burst;
+
+    private double tokens;
+    // When tokens was last brought up to date, in System.nanoTime().
+    private long refilled;
+
+    /**
+     * @param rate How many tokens are added a second.
+     * @param burst How many tokens the bucket holds. It starts full.
+     * @param now The current System.nanoTime().
+     */
+    public TokenBucket(double rate, double burst, long now) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilled = now;
+    }
+
+    /**
+     * Take a token, if there is one.
+     * @param now The current System.nanoTime().
+     * @return 0 if a token was taken, otherwise how many nanoseconds until there will be one.
+     */
+    public synchronized long take(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / rate * NANOS_PER_SECOND);
+    }
+
+    /**
+     * Put back a token that was taken for a request that was turned away after all.
+     */
+    public synchronized void giveBack() {
+        tokens = Math.min(burst, tokens + 1);
+    }
+
+    /**
+     * @param now The current System.nanoTime().
+     * @return Whether the bucket has refilled completely, so forgetting it changes nothing.
+     */
+    public synchronized boolean isFull(long now) {
+        refill(now);
+        return tokens >= burst;
+    }
+
+    private void refill(long now) {
+        if (now > refilled) {
+            tokens = Math.min(burst, tokens + (now - refilled) / NANOS_PER_SECOND * rate);
+            refilled = now;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package uk.gemwire.waitress.web;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread pool for Jetty that isn't a pool at all: every task gets a new virtual thread.
+ *
+ * Virtual threads are cheap enough to make one per request, and a request that blocks (on BCrypt, on the proxy, on a
+ *  slow client) only parks its own virtual thread rather than holding one of a fixed number of platform threads.
+ * So there is no ceiling on threads. The number of requests handled at once is bounded by a {@link ConcurrencyLimiter}
+ *  instead.
+ *
+ * Virtual threads need Java 21. They are found by reflection, so that Waitress still builds and runs on 17.
+ * See {@link #virtualThreadFactory()}.
+ *
+ * @author Curle
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private final ThreadFactory factory;
+    // How many tasks are running right now.
+    private final AtomicInteger threads = new AtomicInteger();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * @param factory Where threads come from. Normally {@link #virtualThreadFactory()}.
+     */
+    public VirtualThreadPool(ThreadFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return A factory of virtual threads named "request-N", or null if this Java doesn't have them.
+     */
+    public static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "request-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Older than 21, or 19 and 20 without preview features.
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        threads.incrementAndGet();
+        try {
+            factory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    threads.decrementAndGet();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            threads.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void doStop() {
+        stopped.countDown();
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        stopped.await();
+    }
+
+    @Override
+    public int getThreads() {
+        return threads.get();
+    }
+
+    /**
+     * A new thread is always available, so there is never an idle one waiting.
+     */
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
@@ -0,0 +1,212 @@
+package uk.gemwire.waitress.web;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.web.repository.MavenCoordinate;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pre-populates the cache with a known set of artifacts, so that builds don't depend on the proxy being up.
+ *
+ * Accepts a list of coordinates, one per line, in any of these forms:
+ *      group:artifact:version                          - the POM and the jar
+ *      group:artifact:extension:version                - the POM and the file with the given extension
+ *      group:artifact:extension:classifier:version     - the POM and the classified file
+ *      group:artifact:version=configurations           - a Gradle lockfile entry, same as the first form
+ *      /group/artifact/version/artifact-version.ext    - a single file, as it would be requested
+ *
+ * Blank lines and # comments are skipped, so a Gradle lockfile can be passed in as-is.
+ *
+ * Every file is downloaded through {@link MavenDownloader#fetch(MavenCoordinate)}, on a fixed size pool.
+ * Failed downloads are retried with a growing delay, except for files that the proxy says don't exist.
+ *
+ * @author Curle
+ */
+public class WarmupJob {
+
+    // The delay before the first retry of a failed download. Doubled for every retry after that.
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private final List<MavenCoordinate> coordinates;
+    private final int threads;
+    private final int retries;
+
+    private final AtomicInteger cached = new AtomicInteger();
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger retried = new AtomicInteger();
+
+    private ExecutorService executor;
+    private long startTime;
+
+    /**
+     * @param coordinates Every file that should be in the cache when the job is done.
+     * @param threads How many files may be downloaded at once.
+     * @param retries How many times to retry a failed download before giving up on it.
+     */
+    public WarmupJob(List<MavenCoordinate> coordinates, int threads, int retries) {
+        this.coordinates = coordinates;
+        this.threads = threads;
+        this.retries = retries;
+    }
+
+    /**
+     * Read a list of coordinates or a lockfile into the files that should be fetched.
+     * Lines that can't be understood are logged and skipped.
+     * @param lines The lines of the list.
+     * @return Every file named in the list, without duplicates.
+     */
+    public static List<MavenCoordinate> parse(List<String> lines) {
+        Set<MavenCoordinate> result = new LinkedHashSet<>();
+
+        for (String line : lines) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            // A single file, written as a path.
+            if (line.startsWith("/")) {
+                MavenCoordinate coordinate = MavenCoordinate.parse(line);
+                if (coordinate == null)
+                    Waitress.LOGGER.warn("Warm-up entry " + line + " is not a valid coordinate. Skipping.");
+                else
+                    result.add(coordinate);
+                continue;
+            }
+
+            // Lockfiles list the configurations after an =. We don't care about them.
+            if (line.contains("="))
+                line = line.substring(0, line.indexOf('='));
+            // Gradle writes this for lockfiles with nothing in them.
+            if (line.equals("empty"))
+                continue;
+
+            String[] parts = line.split(":");
+            if (parts.length < 3 || parts.length > 5) {
+                Waitress.LOGGER.warn("Warm-up entry " + line + " is not a valid coordinate. Skipping.");
+                continue;
+            }
+
+            String group = parts[0].replace('.', '/');
+            String artifact = parts[1];
+            String version = parts[parts.length - 1];
+            String extension = parts.length >= 4 ? parts[2] : "jar";
+            String classifier = parts.length == 5 ? "-" + parts[3] : "";
+
+            MavenCoordinate pom = new MavenCoordinate(group, artifact, version, "", "pom");
+            MavenCoordinate file = new MavenCoordinate(group, artifact, version, classifier, extension);
+            // Anything a request path couldn't name (ie. with a "/" or ".." in it) could be fetched from or stored anywhere.
+            if (!pom.equals(MavenCoordinate.parse("/" + pom.path())) || !file.equals(MavenCoordinate.parse("/" + file.path()))) {
+                Waitress.LOGGER.warn("Warm-up entry " + line + " is not a valid coordinate. Skipping.");
+                continue;
+            }
+
+            result.add(pom);
+            result.add(file);
+        }
+
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Start downloading in the background.
+     * May only be called once.
+     */
+    public synchronized void start() {
+        if (executor != null)
+            throw new IllegalStateException("Warm-up job was already started.");
+
+        startTime = System.currentTimeMillis();
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "warmup " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Waitress.LOGGER.info("Warming up the cache with " + coordinates.size() + " files on " + threads + " threads.");
+        coordinates.forEach(coordinate -> executor.execute(() -> warm(coordinate)));
+        executor.shutdown();
+    }
+
+    /**
+     * Block until every file has been handled, printing the progress every few seconds.
+     */
+    public void await() throws InterruptedException {
+        while (!executor.awaitTermination(5, TimeUnit.SECONDS))
+            Waitress.LOGGER.info(progress());
+
+        Waitress.LOGGER.info(progress());
+    }
+
+    /**
+     * @return Whether every file has been handled.
+     */
+    public boolean isDone() {
+        return executor != null && executor.isTerminated();
+    }
+
+    /**
+     * @return Whether any file could not be fetched.
+     */
+    public boolean hasFailures() {
+        return failed.get() > 0;
+    }
+
+    /**
+     * @return A one line summary of how far along the job is.
+     */
+    public String progress() {
+        int handled = cached.get() + downloaded.get() + failed.get();
+        long elapsed = (System.currentTimeMillis() - startTime) / 1000;
+        return "Warm-up " + (isDone() ? "finished" : "running") + ": " + handled + "/" + coordinates.size() + " files, "
+                + downloaded.get() + " downloaded, " + cached.get() + " already cached, " + failed.get() + " failed, "
+                + retried.get() + " retries, " + elapsed + "s elapsed.";
+    }
+
+    /**
+     * Make sure a single file is in the cache, retrying as configured.
+     */
+    private void warm(MavenCoordinate coordinate) {
+        if (RepoCache.contains(coordinate.groupID(), coordinate.artifactID(), coordinate.version(), coordinate.classifier(), coordinate.extension())) {
+            cached.incrementAndGet();
+            return;
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                MavenDownloader.fetch(coordinate);
+                downloaded.incrementAndGet();
+                return;
+            } catch (FileNotFoundException e) {
+                // The proxy doesn't have it. Asking again won't help.
+                Waitress.LOGGER.warn("Warm-up entry " + coordinate + " does not exist in the proxy repository.");
+                failed.incrementAndGet();
+                return;
+            } catch (IOException | IllegalStateException e) {
+                if (attempt >= retries) {
+                    Waitress.LOGGER.warn("Warm-up entry " + coordinate + " failed after " + (attempt + 1) + " attempts: " + e.getMessage());
+                    failed.incrementAndGet();
+                    return;
+                }
+            }
+
+            retried.incrementAndGet();
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS << attempt);
+            } catch (InterruptedException e) {
+                failed.incrementAndGet();
+                return;
+            }
+        }
+    }
+}
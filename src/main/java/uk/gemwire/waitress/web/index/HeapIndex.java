@@ -0,0 +1,98 @@
+package uk.gemwire.waitress.web.index;
+
+import uk.gemwire.waitress.web.repository.Artifact;
+import uk.gemwire.waitress.web.repository.StringTable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index kept on the heap, as {@link Artifact}s. It starts empty every run.
+ *
+ * @author Curle
+ */
+public final class HeapIndex implements Index {
+
+    // Group ID -> Artifact ID -> Artifact.
+    // Looked up a level at a time, so that nothing has to be built to look something up.
+    private final Map<String, Map<String, Artifact>> artifacts = new ConcurrentHashMap<>();
+    // Groups are shared by every artifact in them, so only one copy of each is kept.
+    private final StringTable groups = new StringTable();
+
+    @Override
+    public boolean add(String groupID, String artifactID, String version, String classifier, String extension) {
+        Artifact artifact = find(groupID, artifactID);
+        if (artifact == null) {
+            String group = groups.intern(groupID);
+            artifact = artifacts.computeIfAbsent(group, key -> new ConcurrentHashMap<>(4))
+                    .computeIfAbsent(artifactID, key -> new Artifact(group, artifactID));
+        }
+        if (artifact.tracksVersion(version, classifier, extension))
+            return false;
+        artifact.addVersion(version, classifier, extension);
+        return true;
+    }
+
+    @Override
+    public boolean remove(String groupID, String artifactID, String version, String classifier, String extension) {
+        Artifact artifact = find(groupID, artifactID);
+        return artifact != null && artifact.removeVersion(version, classifier, extension);
+    }
+
+    @Override
+    public boolean contains(String groupID, String artifactID) {
+        return get(groupID, artifactID) != null;
+    }
+
+    @Override
+    public boolean contains(String groupID, String artifactID, String version, String classifier, String extension) {
+        Artifact artifact = get(groupID, artifactID);
+        return artifact != null && artifact.tracksVersion(version, classifier, extension);
+    }
+
+    /**
+     * Artifacts whose every file was removed are kept, empty, so that adding to one never races with taking it out
+     *  of the map. They're treated as missing.
+     */
+    @Override
+    public Artifact get(String groupID, String artifactID) {
+        Artifact artifact = find(groupID, artifactID);
+        return artifact == null || artifact.isEmpty() ? null : artifact;
+    }
+
+    private Artifact find(String groupID, String artifactID) {
+        Map<String, Artifact> group = artifacts.get(groupID);
+        return group == null ? null : group.get(artifactID);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Map<String, Artifact> group : artifacts.values())
+            for (Artifact artifact : group.values())
+                if (!artifact.isEmpty())
+                    size++;
+        return size;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return false;
+    }
+
+    @Override
+    public void markComplete() {
+    }
+
+    @Override
+    public void forEachVersion(VersionConsumer consumer) {
+        for (Map<String, Artifact> group : artifacts.values())
+            for (Artifact artifact : group.values())
+                for (String version : artifact.getVersions())
+                    consumer.accept(artifact.getGroupID(), artifact.getArtifactID(), version);
+    }
+
+    @Override
+    public void close() {
+    }
+}
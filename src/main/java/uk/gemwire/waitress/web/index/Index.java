@@ -0,0 +1,94 @@
+package uk.gemwire.waitress.web.index;
+
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.web.repository.Artifact;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Where the {@link uk.gemwire.waitress.web.RepoCache} keeps track of which files are stored.
+ *
+ * Groups are paths relative to the storage root, ie. "com/example", and classifiers have their leading "-", as in a
+ *  {@link uk.gemwire.waitress.web.repository.MavenCoordinate}.
+ *
+ * Lookups may happen from any number of threads at once, alongside additions.
+ *
+ * @author Curle
+ */
+public interface Index {
+
+    /**
+     * Receives the versions in an index. See {@link #forEachVersion(VersionConsumer)}.
+     */
+    @FunctionalInterface
+    interface VersionConsumer {
+        void accept(String groupID, String artifactID, String version);
+    }
+
+    /**
+     * Create the index named in the config.
+     * "heap" keeps it in memory, and "mapped" keeps it off the heap, in files in the data directory that are kept
+     *  between runs.
+     */
+    static Index create() throws IOException {
+        return switch (Config.INDEX) {
+            case "heap" -> new HeapIndex();
+            case "mapped" -> new MappedIndex(Paths.get(Config.DATA_DIR, MappedIndex.DIRECTORY));
+            default -> throw new IllegalArgumentException("Unknown index " + Config.INDEX + ". Expected heap or mapped.");
+        };
+    }
+
+    /**
+     * Start tracking a file.
+     * @return Whether it is new, rather than already tracked.
+     */
+    boolean add(String groupID, String artifactID, String version, String classifier, String extension);
+
+    /**
+     * Stop tracking a file. An artifact or version is forgotten along with its last file.
+     * @return Whether it was tracked.
+     */
+    boolean remove(String groupID, String artifactID, String version, String classifier, String extension);
+
+    /**
+     * @return Whether any file of the artifact is tracked.
+     */
+    boolean contains(String groupID, String artifactID);
+
+    /**
+     * @return Whether the file is tracked.
+     */
+    boolean contains(String groupID, String artifactID, String version, String classifier, String extension);
+
+    /**
+     * @return Everything tracked of the artifact, or null if nothing is.
+     */
+    Artifact get(String groupID, String artifactID);
+
+    /**
+     * @return How many artifacts are tracked.
+     */
+    int size();
+
+    /**
+     * @return Whether everything that is stored was already tracked when this was opened, so it doesn't need filling.
+     */
+    boolean isComplete();
+
+    /**
+     * Note that every stored file has been added, so that an index kept between runs can be trusted on the next start.
+     * Until this is called, closing the index doesn't mark it complete.
+     */
+    void markComplete();
+
+    /**
+     * Pass every tracked version of every artifact to the consumer, in no particular order.
+     */
+    void forEachVersion(VersionConsumer consumer);
+
+    /**
+     * Save anything that is kept between runs. The index is not used after this.
+     */
+    void close() throws IOException;
+}
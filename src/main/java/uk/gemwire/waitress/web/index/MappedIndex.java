@@ -0,0 +1,496 @@
+package uk.gemwire.waitress.web.index;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.web.repository.Artifact;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An index kept off the heap, in memory-mapped files in the data directory, for repositories with tens of millions of
+ *  files. The heap holds nothing per file, so the index costs the collector nothing, and the operating system pages it
+ *  in and out as it is used.
+ *
+ * It is two files:
+ *  - "keys", an append-only arena of records, one for each artifact, each version of an artifact and each file.
+ *    A record is its key ("group:artifact", "group:artifact:version" or "group:artifact:version:classifier:extension")
+ *    and two links: an artifact links to its newest version, and a version to the next version of the same artifact
+ *    and to its newest file, so that everything tracked of an artifact can be listed. Each record also counts the
+ *    files under it that are still tracked, so a file is removed by counting it out, and an artifact or version with
+ *    none left is treated as missing. Records are never taken out, so a file that is added again is counted back in.
+ *  - "table", an open-addressing hash table of every record, with linear probing. Each slot is the record's offset in
+ *    the arena, with the top bits of the key's hash above it, so that most slots that don't match are passed over
+ *    without reading the arena.
+ *
+ * Readers never lock. A record is written in full before the slot (or link) pointing at it is published, with release
+ *  and acquire ordering, so a reader sees either nothing or all of it. Only one thread adds at a time.
+ * When the table fills up, a table twice the size is built in a new file, renamed over the old one, and swapped in.
+ *  Readers part of the way through a lookup finish it in the old table, which is still mapped.
+ *
+ * The files are the index's snapshot as well. When the server stops cleanly after every stored file was indexed,
+ *  they're marked as complete, and the next start maps them as they are, rather than listing every stored file. If it
+ *  didn't stop cleanly, was stopped part of the way through indexing, or the files are missing, they're built again
+ *  from storage.
+ *
+ * @author Curle
+ */
+public final class MappedIndex implements Index {
+
+    // The hidden folder in the data directory that the index is kept in.
+    static final String DIRECTORY = ".index";
+
+    private static final long MAGIC = 0x5741495452455832L;
+
+    // The arena is mapped this many bytes at a time. Records never cross from one chunk to the next.
+    private static final int CHUNK_BITS = 26;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    // The first bytes of the arena are unused, so that a slot or link of 0 means none.
+    private static final long ARENA_START = 64;
+
+    // The table's header, then its slots.
+    private static final int HEADER = 64;
+    private static final int MAGIC_AT = 0, CAPACITY_AT = 8, COUNT_AT = 16, END_AT = 24, CLEAN_AT = 32, ARTIFACTS_AT = 40;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    // A mapping can't be larger than 2GB.
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    // Offsets fit in the bottom of a slot, and the top of the hash goes above them.
+    private static final int OFFSET_BITS = 48;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    // Where each part of a record is, relative to its start.
+    private static final int FIRST_LINK = 0, SECOND_LINK = 8, LIVE = 16, KEY_LENGTH = 24, KEY = 28;
+
+    // Reads and writes longs in a mapped buffer, with the memory ordering asked for.
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // The slots, and the header.
+    private record Table(MappedByteBuffer buffer, int capacity) {}
+
+    private final Path directory;
+    private final FileChannel keys;
+    // The mapped chunks of the arena. Replaced with a longer copy when a chunk is added.
+    private volatile MappedByteBuffer[] chunks;
+    private volatile Table table;
+    // Where the next record goes. Only touched while adding.
+    private long end;
+    private final boolean complete;
+    // Whether every stored file has been added, so the files can be marked complete when closed.
+    private volatile boolean filled;
+
+    public MappedIndex(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        Path keysFile = directory.resolve("keys");
+        Path tableFile = directory.resolve("table");
+
+        Table existing = Files.exists(tableFile) && Files.exists(keysFile) ? open(tableFile) : null;
+        complete = existing != null && (long) LONGS.get(existing.buffer(), CLEAN_AT) == 1;
+        if (!complete) {
+            if (existing != null)
+                Waitress.LOGGER.warn("The index in " + directory + " wasn't closed cleanly, so it will be built again.");
+            Files.deleteIfExists(keysFile);
+            existing = create(tableFile, INITIAL_CAPACITY);
+            LONGS.set(existing.buffer(), END_AT, ARENA_START);
+        }
+        table = existing;
+        filled = complete;
+        end = (long) LONGS.get(table.buffer(), END_AT);
+
+        keys = FileChannel.open(keysFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[(int) Math.max(1, (end + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+        for (int i = 0; i < mapped.length; i++)
+            mapped[i] = keys.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_SIZE, CHUNK_SIZE);
+        chunks = mapped;
+
+        // Until it is closed, a crash could leave it half written.
+        LONGS.set(table.buffer(), CLEAN_AT, 0L);
+        table.buffer().force();
+    }
+
+    /**
+     * Map an existing table, if it is one.
+     */
+    private static Table open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER)
+                return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            long capacity = (long) LONGS.get(buffer, CAPACITY_AT);
+            if ((long) LONGS.get(buffer, MAGIC_AT) != MAGIC || capacity <= 0 || HEADER + capacity * 8 != channel.size())
+                return null;
+            return new Table(buffer, (int) capacity);
+        }
+    }
+
+    /**
+     * Create an empty table, replacing any file that is already there.
+     */
+    private static Table create(Path file, int capacity) throws IOException {
+        Files.deleteIfExists(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * 8);
+            LONGS.set(buffer, MAGIC_AT, MAGIC);
+            LONGS.set(buffer, CAPACITY_AT, (long) capacity);
+            return new Table(buffer, capacity);
+        }
+    }
+
+    @Override
+    public boolean add(String groupID, String artifactID, String version, String classifier, String extension) {
+        String artifactKey = groupID + ":" + artifactID;
+        String versionKey = artifactKey + ":" + version;
+        byte[] fileKey = (versionKey + ":" + classifier + ":" + extension).getBytes(StandardCharsets.UTF_8);
+        long fileHash = hash(fileKey);
+        long found = find(fileKey, fileHash);
+        if (found != 0 && live(found) != 0)
+            return false;
+
+        synchronized (this) {
+            // Someone else may have added it while we waited.
+            found = find(fileKey, fileHash);
+            if (found != 0 && live(found) != 0)
+                return false;
+
+            long artifact = findOrAdd(artifactKey.getBytes(StandardCharsets.UTF_8), 0, true);
+            long versionRecord = findOrAdd(versionKey.getBytes(StandardCharsets.UTF_8), artifact, false);
+            count(artifact, 1, true);
+            count(versionRecord, 1, false);
+            if (found != 0) {
+                // Removed before. It's still linked in, so it only has to be counted again.
+                LONGS.setRelease(chunk(found), within(found) + LIVE, 1L);
+                return true;
+            }
+
+            long file = append(fileKey, fileHash);
+            // The file's first link is the version's next newest file, which it goes in front of.
+            link(file, FIRST_LINK, (long) LONGS.getAcquire(chunk(versionRecord), within(versionRecord) + SECOND_LINK));
+            link(file, LIVE, 1L);
+            publish(file, fileHash);
+            LONGS.setRelease(chunk(versionRecord), within(versionRecord) + SECOND_LINK, file);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean remove(String groupID, String artifactID, String version, String classifier, String extension) {
+        String artifactKey = groupID + ":" + artifactID;
+        String versionKey = artifactKey + ":" + version;
+        byte[] fileKey = (versionKey + ":" + classifier + ":" + extension).getBytes(StandardCharsets.UTF_8);
+
+        synchronized (this) {
+            long file = find(fileKey, hash(fileKey));
+            if (file == 0 || live(file) == 0)
+                return false;
+
+            byte[] key = versionKey.getBytes(StandardCharsets.UTF_8);
+            long versionRecord = find(key, hash(key));
+            key = artifactKey.getBytes(StandardCharsets.UTF_8);
+            long artifact = find(key, hash(key));
+            // The file goes first, so nobody sees it tracked in a version that isn't.
+            LONGS.setRelease(chunk(file), within(file) + LIVE, 0L);
+            count(versionRecord, -1, false);
+            count(artifact, -1, true);
+            return true;
+        }
+    }
+
+    /**
+     * Change how many files are tracked under an artifact or version record.
+     * Artifacts are only counted in the header while they have any.
+     */
+    private void count(long record, long change, boolean isArtifact) {
+        long was = live(record);
+        LONGS.setRelease(chunk(record), within(record) + LIVE, was + change);
+        if (isArtifact && (was == 0 || was + change == 0)) {
+            MappedByteBuffer header = table.buffer();
+            LONGS.set(header, ARTIFACTS_AT, (long) LONGS.get(header, ARTIFACTS_AT) + change);
+        }
+    }
+
+    /**
+     * @return How many files are tracked under the record. 1 or 0 for a file.
+     */
+    private long live(long record) {
+        return (long) LONGS.getAcquire(chunk(record), within(record) + LIVE);
+    }
+
+    /**
+     * Find an artifact or version record, adding it if it isn't there.
+     * @param artifact For a version, the artifact record it goes in front of the versions of.
+     */
+    private long findOrAdd(byte[] key, long artifact, boolean isArtifact) {
+        long hash = hash(key);
+        long found = find(key, hash);
+        if (found != 0)
+            return found;
+
+        long record = append(key, hash);
+        if (!isArtifact)
+            link(record, FIRST_LINK, (long) LONGS.getAcquire(chunk(artifact), within(artifact) + FIRST_LINK));
+        publish(record, hash);
+        if (!isArtifact)
+            LONGS.setRelease(chunk(artifact), within(artifact) + FIRST_LINK, record);
+        return record;
+    }
+
+    private void link(long record, int link, long target) {
+        LONGS.set(chunk(record), within(record) + link, target);
+    }
+
+    /**
+     * Write a record to the end of the arena, with no links. Nothing can find it until it is published.
+     * @return Its offset.
+     */
+    private long append(byte[] key, long hash) {
+        int size = (KEY + key.length + 7) & ~7;
+        if ((end & (CHUNK_SIZE - 1)) + size > CHUNK_SIZE)
+            end = (end + CHUNK_SIZE) & ~(CHUNK_SIZE - 1);
+        int index = (int) (end >>> CHUNK_BITS);
+        if (index == chunks.length) {
+            MappedByteBuffer[] grown = Arrays.copyOf(chunks, index + 1);
+            try {
+                grown[index] = keys.map(FileChannel.MapMode.READ_WRITE, index * CHUNK_SIZE, CHUNK_SIZE);
+            } catch (IOException e) {
+                throw new IllegalStateException("The index can't grow.", e);
+            }
+            chunks = grown;
+        }
+
+        long record = end;
+        MappedByteBuffer chunk = chunks[index];
+        int at = within(record);
+        LONGS.set(chunk, at + FIRST_LINK, 0L);
+        LONGS.set(chunk, at + SECOND_LINK, 0L);
+        LONGS.set(chunk, at + LIVE, 0L);
+        chunk.putInt(at + KEY_LENGTH, key.length);
+        chunk.put(at + KEY, key);
+        end += size;
+        return record;
+    }
+
+    /**
+     * Put a record in the table, where readers can find it, growing the table first if it is getting full.
+     */
+    private void publish(long record, long hash) {
+        Table current = table;
+        long count = (long) LONGS.get(current.buffer(), COUNT_AT) + 1;
+        if (count > current.capacity() * 7L / 10)
+            current = grow(current);
+
+        int mask = current.capacity() - 1;
+        int slot = (int) hash & mask;
+        while ((long) LONGS.get(current.buffer(), offset(slot)) != 0)
+            slot = (slot + 1) & mask;
+        LONGS.setRelease(current.buffer(), offset(slot), tag(hash) | record);
+
+        LONGS.set(current.buffer(), COUNT_AT, count);
+        LONGS.set(current.buffer(), END_AT, end);
+    }
+
+    /**
+     * Build a table twice the size of the current one, and swap it in.
+     */
+    private Table grow(Table current) {
+        if (current.capacity() >= MAX_CAPACITY)
+            throw new IllegalStateException("The index is full.");
+
+        try {
+            Path file = directory.resolve("table");
+            Path next = directory.resolve("table.new");
+            Table grown = create(next, current.capacity() * 2);
+            int mask = grown.capacity() - 1;
+            for (int i = 0; i < current.capacity(); i++) {
+                long entry = (long) LONGS.get(current.buffer(), offset(i));
+                if (entry == 0)
+                    continue;
+                long record = entry & OFFSET_MASK;
+                int slot = (int) hash(key(record)) & mask;
+                while ((long) LONGS.get(grown.buffer(), offset(slot)) != 0)
+                    slot = (slot + 1) & mask;
+                LONGS.set(grown.buffer(), offset(slot), entry);
+            }
+            for (int at = COUNT_AT; at < HEADER; at += 8)
+                if (at != CAPACITY_AT)
+                    LONGS.set(grown.buffer(), at, (long) LONGS.get(current.buffer(), at));
+
+            // Readers that already have the old table finish with it. It stays mapped until they're done.
+            Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            table = grown;
+            return grown;
+        } catch (IOException e) {
+            throw new IllegalStateException("The index can't grow.", e);
+        }
+    }
+
+    /**
+     * @return The offset of the record with the given key, or 0 if there is none.
+     */
+    private long find(byte[] key, long hash) {
+        Table current = table;
+        int mask = current.capacity() - 1;
+        long tag = tag(hash);
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = (long) LONGS.getAcquire(current.buffer(), offset(slot));
+            if (entry == 0)
+                return 0;
+            if ((entry & ~OFFSET_MASK) == tag && matches(entry & OFFSET_MASK, key))
+                return entry & OFFSET_MASK;
+        }
+    }
+
+    private boolean matches(long record, byte[] key) {
+        MappedByteBuffer chunk = chunk(record);
+        int at = within(record);
+        if (chunk.getInt(at + KEY_LENGTH) != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++)
+            if (chunk.get(at + KEY + i) != key[i])
+                return false;
+        return true;
+    }
+
+    private byte[] key(long record) {
+        MappedByteBuffer chunk = chunk(record);
+        int at = within(record);
+        byte[] key = new byte[chunk.getInt(at + KEY_LENGTH)];
+        chunk.get(at + KEY, key);
+        return key;
+    }
+
+    private String keyString(long record) {
+        return new String(key(record), StandardCharsets.UTF_8);
+    }
+
+    private MappedByteBuffer chunk(long record) {
+        return chunks[(int) (record >>> CHUNK_BITS)];
+    }
+
+    private static int within(long record) {
+        return (int) (record & (CHUNK_SIZE - 1));
+    }
+
+    private static int offset(int slot) {
+        return HEADER + slot * 8;
+    }
+
+    private static long tag(long hash) {
+        return hash & ~OFFSET_MASK;
+    }
+
+    /**
+     * FNV-1a, with a final mix so that the bottom bits (the slot) and the top bits (the tag) both vary.
+     */
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key)
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public boolean contains(String groupID, String artifactID) {
+        byte[] key = (groupID + ":" + artifactID).getBytes(StandardCharsets.UTF_8);
+        long record = find(key, hash(key));
+        return record != 0 && live(record) != 0;
+    }
+
+    @Override
+    public boolean contains(String groupID, String artifactID, String version, String classifier, String extension) {
+        byte[] key = (groupID + ":" + artifactID + ":" + version + ":" + classifier + ":" + extension).getBytes(StandardCharsets.UTF_8);
+        long record = find(key, hash(key));
+        return record != 0 && live(record) != 0;
+    }
+
+    /**
+     * Follow the artifact's links to everything tracked of it. The artifact is built fresh every time.
+     */
+    @Override
+    public Artifact get(String groupID, String artifactID) {
+        byte[] key = (groupID + ":" + artifactID).getBytes(StandardCharsets.UTF_8);
+        long record = find(key, hash(key));
+        if (record == 0 || live(record) == 0)
+            return null;
+
+        // Thrown away once the caller is done with it, so its versions aren't interned.
+        Artifact artifact = new Artifact(groupID, artifactID, false);
+        int skip = key.length + 1;
+        for (long version = next(record, FIRST_LINK); version != 0; version = next(version, FIRST_LINK)) {
+            String versionID = keyString(version).substring(skip);
+            int versionSkip = skip + versionID.length() + 1;
+            for (long file = next(version, SECOND_LINK); file != 0; file = next(file, FIRST_LINK)) {
+                if (live(file) == 0)
+                    continue;
+                String rest = keyString(file).substring(versionSkip);
+                int colon = rest.indexOf(':');
+                artifact.addVersion(versionID, rest.substring(0, colon), rest.substring(colon + 1));
+            }
+        }
+        return artifact;
+    }
+
+    private long next(long record, int link) {
+        return (long) LONGS.getAcquire(chunk(record), within(record) + link);
+    }
+
+    @Override
+    public int size() {
+        return (int) (long) LONGS.get(table.buffer(), ARTIFACTS_AT);
+    }
+
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Walk the whole table, passing on every version record with files left. Keys with three parts are versions.
+     */
+    @Override
+    public void forEachVersion(VersionConsumer consumer) {
+        Table current = table;
+        for (int i = 0; i < current.capacity(); i++) {
+            long entry = (long) LONGS.getAcquire(current.buffer(), offset(i));
+            if (entry == 0)
+                continue;
+            String[] parts = keyString(entry & OFFSET_MASK).split(":");
+            if (parts.length == 3 && live(entry & OFFSET_MASK) != 0)
+                consumer.accept(parts[0], parts[1], parts[2]);
+        }
+    }
+
+    @Override
+    public void markComplete() {
+        filled = true;
+    }
+
+    /**
+     * Write everything out, and if every stored file was added, mark the index as complete, so that the next start can
+     *  use it as it is.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer chunk : chunks)
+            chunk.force();
+        Table current = table;
+        current.buffer().force();
+        if (filled) {
+            LONGS.set(current.buffer(), CLEAN_AT, 1L);
+            current.buffer().force();
+        }
+        keys.close();
+    }
+}
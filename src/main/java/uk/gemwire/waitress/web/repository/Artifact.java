@@ -1,8 +1,9 @@
 package uk.gemwire.waitress.web.repository;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Objects;
 
 /**
  * Represents all the relevant metadata about a hosted artifact.
@@ -15,42 +16,62 @@ import java.util.Objects;
  *
  * Artifacts may also be owned, but this information is stored elsewhere.
  *
+ * There is one of these for every artifact that is stored, so they are kept as small as they can be. Versions are
+ *  shared between every artifact that has them, and kept in an array in the order Maven sorts them, so the newest or
+ *  those in a range are found by a binary search. The files of each version are numbers, from the classifier and
+ *  extension dictionaries. Nothing is kept for each file but those numbers.
+ *
  * @author Curle
  */
 public class Artifact {
 
     private String groupID = "";
     private String artifactID = "";
+    // Whether versions are interned. See {@link #Artifact(String, String, boolean)}.
+    private boolean intern = true;
+
+    private static final MavenVersion[] NO_VERSIONS = new MavenVersion[0];
+    private static final long[][] NO_FILES = new long[0][];
+    private static final long[] NONE = new long[0];
+
+    // Classifiers (with their leading "-") and extensions, as numbers, shared by every artifact.
+    private static final StringTable classifiers = new StringTable();
+    private static final StringTable extensions = new StringTable();
 
-    // The three lists here should be perfectly synchronized.
-    // If a version has no classifier, an empty string should be pushed to classifiers.
-    // This allows for multiple files (such as -api, -common, etc) to be stored in the same version folder.
-    private final List<String> versions;
-    private final List<String> classifiers;
-    private final List<String> extensions;
+    // Every version, ordered as Maven orders them. Only the first size are used.
+    // Files may be added from several threads at once, so every access is synchronized.
+    private MavenVersion[] versions = NO_VERSIONS;
+    // The files of each version: the classifier's number in the top half of each, and the extension's in the bottom
+    //  half, sorted.
+    private long[][] files = NO_FILES;
+    private int size = 0;
+    // Where the newest version that isn't a SNAPSHOT is, or -1 if there is none.
+    private int release = -1;
 
     /**
      * Public constructor of Artifact.
-     * Initializes all lists to zero.
      * Group and ID remain empty.
      */
     public Artifact() {
-        versions = new ArrayList<>();
-        classifiers = new ArrayList<>();
-        extensions = new ArrayList<>();
     }
 
     /**
      * Public constructor of Artifact.
-     * Initializes all lists to zero.
      * Group and ID are set with the given parameters.
      */
     public Artifact(String group, String artifact) {
         groupID = group;
         artifactID = artifact;
-        versions = new ArrayList<>();
-        classifiers = new ArrayList<>();
-        extensions = new ArrayList<>();
+    }
+
+    /**
+     * Public constructor of Artifact.
+     * @param intern Whether versions are interned. Copies that are thrown away after one lookup shouldn't intern them,
+     *  or every version ever looked up stays on the heap. They still share any instance that is interned already.
+     */
+    public Artifact(String group, String artifact, boolean intern) {
+        this(group, artifact);
+        this.intern = intern;
     }
 
     public String getGroupID() {
@@ -67,9 +88,7 @@ public class Artifact {
      * @param version The version to add. May contain any special character, including "." and "-".
      */
     public void addVersion(String version) {
-        versions.add(version);
-        classifiers.add("");
-        extensions.add("jar");
+        addVersion(version, "", "jar");
     }
 
     /**
@@ -80,9 +99,7 @@ public class Artifact {
      * @param classifier The classifier of the version to add. May only be alphanumeric characters. "api" is the expected value.
      */
     public void addVersion(String version, String classifier) {
-        versions.add(version);
-        classifiers.add(classifier);
-        extensions.add("jar");
+        addVersion(version, classifier, "jar");
     }
 
     /**
@@ -92,43 +109,246 @@ public class Artifact {
      * @param version The version to add. May contain any special character, including "." and "-".
      * @param classifier The classifier of the version to add. May only be alphanumeric characters. "api" is the expected value.
      */
-    public void addVersion(String version, String classifier, String extension) {
-        versions.add(version);
-        classifiers.add(classifier);
-        extensions.add(extension);
+    public synchronized void addVersion(String version, String classifier, String extension) {
+        long file = (long) classifiers.id(classifier) << 32 | extensions.id(extension);
+        MavenVersion parsed = version(version);
+        int index = search(parsed);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, parsed);
+        }
+
+        long[] stored = files[index];
+        int at = Arrays.binarySearch(stored, file);
+        if (at >= 0)
+            return;
+        at = -at - 1;
+        long[] added = new long[stored.length + 1];
+        System.arraycopy(stored, 0, added, 0, at);
+        added[at] = file;
+        System.arraycopy(stored, at, added, at + 1, stored.length - at);
+        files[index] = added;
+    }
+
+    /**
+     * Stop tracking a file of this Artifact. The version is forgotten along with its last file.
+     * @return Whether the file was tracked.
+     */
+    public synchronized boolean removeVersion(String version, String classifier, String extension) {
+        int index = find(version);
+        int classifierID = classifiers.find(classifier);
+        int extensionID = extensions.find(extension);
+        if (index < 0 || classifierID < 0 || extensionID < 0)
+            return false;
+
+        long[] stored = files[index];
+        int at = Arrays.binarySearch(stored, (long) classifierID << 32 | extensionID);
+        if (at < 0)
+            return false;
+        if (stored.length > 1) {
+            long[] removed = new long[stored.length - 1];
+            System.arraycopy(stored, 0, removed, 0, at);
+            System.arraycopy(stored, at + 1, removed, at, removed.length - at);
+            files[index] = removed;
+            return true;
+        }
+
+        System.arraycopy(versions, index + 1, versions, index, size - index - 1);
+        System.arraycopy(files, index + 1, files, index, size - index - 1);
+        size--;
+        versions[size] = null;
+        files[size] = null;
+
+        if (release > index) {
+            release--;
+        } else if (release == index) {
+            // The newest release is gone, so the next newest takes its place.
+            release = -1;
+            for (int i = index - 1; i >= 0 && release < 0; i--)
+                if (!versions[i].isSnapshot())
+                    release = i;
+        }
+        return true;
+    }
+
+    /**
+     * Make room for a new version, with no files yet, keeping the versions in order.
+     */
+    private void insert(int index, MavenVersion version) {
+        if (size == versions.length) {
+            // Grown by an eighth at a time, as most artifacts only ever get a few more versions.
+            int capacity = size + Math.max(2, size >> 3);
+            versions = Arrays.copyOf(versions, capacity);
+            files = Arrays.copyOf(files, capacity);
+        }
+        System.arraycopy(versions, index, versions, index + 1, size - index);
+        System.arraycopy(files, index, files, index + 1, size - index);
+        versions[index] = version;
+        files[index] = NONE;
+        size++;
+
+        if (release >= index)
+            release++;
+        if (!version.isSnapshot() && index > release)
+            release = index;
+    }
+
+    /**
+     * @return Where the version is, or (-(where it would go) - 1) if it isn't tracked. See {@link Arrays#binarySearch}.
+     */
+    private int search(MavenVersion version) {
+        return Arrays.binarySearch(versions, 0, size, version);
+    }
+
+    /**
+     * @return The instance of a version to store.
+     */
+    private MavenVersion version(String version) {
+        if (intern)
+            return MavenVersion.intern(version);
+        MavenVersion interned = MavenVersion.findInterned(version);
+        return interned != null ? interned : MavenVersion.parse(version);
+    }
+
+    /**
+     * @return Where the version is, or -1 if it isn't tracked. Looking up a version that nothing has parses nothing,
+     *  unless versions aren't interned.
+     */
+    private int find(String version) {
+        MavenVersion interned = MavenVersion.findInterned(version);
+        if (interned == null) {
+            if (intern)
+                return -1;
+            interned = MavenVersion.parse(version);
+        }
+        int index = search(interned);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return Every tracked version of this Artifact, once each, oldest first.
+     */
+    public synchronized List<String> getVersions() {
+        List<String> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            result.add(versions[i].toString());
+        return result;
+    }
+
+    /**
+     * @return Every tracked file of the given version, or an empty list if the version isn't tracked.
+     */
+    public synchronized List<MavenCoordinate> getFiles(String version) {
+        int index = find(version);
+        if (index < 0)
+            return List.of();
+        List<MavenCoordinate> result = new ArrayList<>(files[index].length);
+        for (long file : files[index])
+            result.add(new MavenCoordinate(groupID, artifactID, version, classifiers.get((int) (file >>> 32)), extensions.get((int) file)));
+        return result;
+    }
+
+    /**
+     * @return Whether no file of this Artifact is tracked.
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The newest tracked version, SNAPSHOT or not, or null if there are none.
+     */
+    public synchronized String getLatest() {
+        return size == 0 ? null : versions[size - 1].toString();
+    }
+
+    /**
+     * @return The newest tracked version that isn't a SNAPSHOT, or null if there are none.
+     */
+    public synchronized String getRelease() {
+        return release < 0 ? null : versions[release].toString();
+    }
+
+    /**
+     * @return Every tracked version in the range, oldest first.
+     */
+    public synchronized List<String> getVersions(VersionRange range) {
+        // Only the versions between the ends of each part of the range are looked at. The parts may overlap.
+        List<int[]> spans = new ArrayList<>();
+        for (VersionRange.Restriction restriction : range.restrictions()) {
+            int from = restriction.lower() == null ? 0 : insertionPoint(restriction.lower());
+            int to = restriction.upper() == null ? size : insertionPoint(restriction.upper());
+            if (from < to)
+                spans.add(new int[] { from, to });
+        }
+        spans.sort(Comparator.comparingInt(span -> span[0]));
+
+        List<String> result = new ArrayList<>();
+        int done = 0;
+        for (int[] span : spans) {
+            for (int i = Math.max(span[0], done); i < span[1]; i++)
+                result.add(versions[i].toString());
+            done = Math.max(done, span[1]);
+        }
+        return result;
+    }
+
+    /**
+     * @return The newest tracked version in the range, or null if there are none.
+     */
+    public synchronized String getLatest(VersionRange range) {
+        int newest = -1;
+        for (VersionRange.Restriction restriction : range.restrictions()) {
+            // The newest version below the top of this part of the range, if it isn't below the bottom too.
+            int candidate = (restriction.upper() == null ? size : insertionPoint(restriction.upper())) - 1;
+            if (candidate >= 0 && restriction.contains(versions[candidate]))
+                newest = Math.max(newest, candidate);
+        }
+        return newest < 0 ? null : versions[newest].toString();
+    }
+
+    /**
+     * @return Where a version would go. The ends of ranges are never tracked, so this is never an existing version.
+     */
+    private int insertionPoint(MavenVersion version) {
+        int index = search(version);
+        return index < 0 ? -index - 1 : index;
     }
 
     /**
      * Returns whether this Artifact contains the given version.
      * Disregards classifiers, as an "api" release counts as a tracked version.
      */
-    public boolean tracksVersion(String version) {
-        return versions.contains(version);
+    public synchronized boolean tracksVersion(String version) {
+        return find(version) >= 0;
     }
 
     /**
      * Returns whether this Artifact contains the given version with the given classifier.
      * Both must be valid to return true.
      */
-    public boolean tracksVersion(String version, String classifier) {
-        // We need to index two lists, so use a for loop.
-        for (int i = 0; i < versions.size(); i++)
-            if (versions.get(i).equals(version) && classifiers.get(i).equals(classifier))
-                return true;
-
-        return false;
+    public synchronized boolean tracksVersion(String version, String classifier) {
+        int index = find(version);
+        int id = classifiers.find(classifier);
+        if (index < 0 || id < 0)
+            return false;
+        // Files are sorted by classifier first, so any with this one start where it would.
+        long[] stored = files[index];
+        int at = Arrays.binarySearch(stored, (long) id << 32);
+        at = at < 0 ? -at - 1 : at;
+        return at < stored.length && stored[at] >>> 32 == id;
     }
 
     /**
      * Returns whether this Artifact contains the given version with the given classifier and the given extension
      * All three must be valid to return true.
      */
-    public boolean tracksVersion(String version, String classifier, String extension) {
-        // We need to index three lists, so use a for loop.
-        for (int i = 0; i < versions.size(); i++)
-            if (versions.get(i).equals(version) && classifiers.get(i).equals(classifier) && extensions.get(i).equals(extension))
-                return true;
-
-        return false;
+    public synchronized boolean tracksVersion(String version, String classifier, String extension) {
+        int index = find(version);
+        int classifierID = classifiers.find(classifier);
+        int extensionID = extensions.find(extension);
+        if (index < 0 || classifierID < 0 || extensionID < 0)
+            return false;
+        return Arrays.binarySearch(files[index], (long) classifierID << 32 | extensionID) >= 0;
     }
 }
@@ -0,0 +1,114 @@
+package uk.gemwire.waitress.web.repository;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Data class for describing a single file in a maven repository.
+ *
+ * The classifier is stored with its leading dash (ie. "-api"), or as an empty string if there is none.
+ * The extension may contain dots, so that checksums ("jar.sha1") are coordinates in their own right.
+ *
+ * Snapshots may be deployed with a timestamp in place of "SNAPSHOT" in the file name, ie.
+ *  "1.0-SNAPSHOT/artifact-1.0-20210101.120000-1.jar". In that case, the version is the timestamped one,
+ *  as that is what identifies the file, and the folder is worked out from it by {@link #baseVersion()}.
+ *
+ * @author Curle
+ */
+public record MavenCoordinate(
+        @NotNull String groupID,
+        @NotNull String artifactID,
+        @NotNull String version,
+        @NotNull String classifier,
+        @NotNull String extension
+) {
+
+    // The regex that filters "traditional" valid Maven Coordinates.
+    // Courtesy of AterAnimAvis.
+    private static final Pattern MAVEN_PATTERN = Pattern.compile("^/(?<group>(\\w+\\/)+)(?<artifact>[\\w-]+)\\/(?<version>[\\d.\\-\\w]+)\\/\\3-\\4(?<classifier>-\\w+)?\\.(?<extension>\\w+(\\.\\w+)*)$");
+
+    // The same, but for timestamped snapshots. The folder is base-SNAPSHOT, the file is base-timestamp-build.
+    private static final Pattern SNAPSHOT_PATTERN = Pattern.compile("^/(?<group>(\\w+\\/)+)(?<artifact>[\\w-]+)\\/(?<base>[\\d.\\-\\w]+)-SNAPSHOT\\/\\3-\\4-(?<timestamp>\\d{8}\\.\\d{6}-\\d+)(?<classifier>-\\w+)?\\.(?<extension>\\w+(\\.\\w+)*)$");
+
+    // Matches the version of a timestamped snapshot file.
+    private static final Pattern TIMESTAMPED_VERSION = Pattern.compile("^(?<base>.+)-\\d{8}\\.\\d{6}-\\d+$");
+
+    /**
+     * Parse a request path (in the form /group/artifact/version/artifact-version-classifier.ext) into a coordinate.
+     * @param path The path to parse. Must start with a forward slash.
+     * @return The coordinate, or null if the path isn't a valid maven coordinate.
+     */
+    @Nullable
+    public static MavenCoordinate parse(String path) {
+        Matcher matcher = MAVEN_PATTERN.matcher(path);
+        String version;
+
+        if (matcher.matches()) {
+            version = matcher.group("version");
+        } else {
+            matcher = SNAPSHOT_PATTERN.matcher(path);
+            // Early exit if this isn't a valid coordinate.
+            if (!matcher.matches())
+                return null;
+            version = matcher.group("base") + "-" + matcher.group("timestamp");
+        }
+
+        // Set up components of the request.
+        String groupID = matcher.group("group");
+        String classifier = matcher.group("classifier");
+
+        // Cleanup the group. Sometimes it ends with a "/".
+        if (groupID.charAt(groupID.length() - 1) == '/')
+            groupID = groupID.substring(0, groupID.length() - 1);
+
+        // Sometimes the classifier is null. We need it to be "".
+        if (classifier == null)
+            classifier = "";
+
+        return new MavenCoordinate(groupID, matcher.group("artifact"), version, classifier, matcher.group("extension"));
+    }
+
+    /**
+     * @return The version of the folder this file is in. Only differs from the version for timestamped snapshots.
+     */
+    public String baseVersion() {
+        Matcher matcher = TIMESTAMPED_VERSION.matcher(version);
+        return matcher.matches() ? matcher.group("base") + "-SNAPSHOT" : version;
+    }
+
+    /**
+     * @return Whether this file may change after it is published, ie. it is a SNAPSHOT that isn't timestamped.
+     */
+    public boolean isMutable() {
+        return version.endsWith("-SNAPSHOT");
+    }
+
+    /**
+     * @return The name of the file this coordinate points to, ie. artifact-version-classifier.ext
+     */
+    public String fileName() {
+        return artifactID + "-" + version + classifier + "." + extension;
+    }
+
+    /**
+     * @return The path of this coordinate relative to the root of a repository, without a leading slash.
+     */
+    public String path() {
+        return groupID + "/" + artifactID + "/" + baseVersion() + "/" + fileName();
+    }
+
+    /**
+     * @return A coordinate for another file in the same version folder, with no classifier.
+     */
+    public MavenCoordinate withExtension(String newExtension) {
+        return new MavenCoordinate(groupID, artifactID, version, "", newExtension);
+    }
+
+    @Override
+    public String toString() {
+        return path();
+    }
+}
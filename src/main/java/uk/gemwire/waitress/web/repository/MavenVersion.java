@@ -0,0 +1,273 @@
+package uk.gemwire.waitress.web.repository;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A version, ordered the way Maven orders them.
+ *
+ * The version is split into numbers and words once, when it is parsed, so comparing two is just walking the pieces.
+ * Numbers compare as numbers, and trailing zeros don't count, so "1.0" is the same as "1". Well-known qualifiers are
+ *  ordered alpha < beta < milestone < rc < snapshot < (release) < sp, and any other word comes after those,
+ *  alphabetically. A "-" starts a new, nested list of pieces, as does going from a word to a number ("1.0alpha2").
+ *
+ * Each version is parsed once, and the same instance is shared by every artifact that has it. See {@link #intern(String)}.
+ *
+ * Versions that Maven considers the same (ie. "1.0" and "1") are told apart by how they're written, so each stored
+ *  folder is its own version. A timestamped SNAPSHOT build is ordered as the SNAPSHOT it belongs to, so the builds
+ *  of a SNAPSHOT sit together, oldest first.
+ *
+ * @author Curle
+ */
+public final class MavenVersion implements Comparable<MavenVersion> {
+
+    private static final Pattern TIMESTAMPED = Pattern.compile("^(?<base>.+)-\\d{8}\\.\\d{6}-\\d+$");
+
+    // The well-known qualifiers, in order. The empty string is a release.
+    private static final List<String> QUALIFIERS = List.of("alpha", "beta", "milestone", "rc", "snapshot", "", "sp");
+    private static final int RELEASE = QUALIFIERS.indexOf("");
+    private static final Map<String, String> ALIASES = Map.of("ga", "", "final", "", "release", "", "cr", "rc");
+
+    // Every version that has been interned, as it is written -> the shared instance.
+    private static final Map<String, MavenVersion> interned = new ConcurrentHashMap<>();
+
+    private final String version;
+    private final List<Object> pieces;
+
+    private MavenVersion(String version, List<Object> pieces) {
+        this.version = version;
+        this.pieces = pieces;
+    }
+
+    /**
+     * @param version The version, as it is written. May be anything at all.
+     */
+    public static MavenVersion parse(String version) {
+        Matcher matcher = TIMESTAMPED.matcher(version);
+        return new MavenVersion(version, split(matcher.matches() ? matcher.group("base") + "-SNAPSHOT" : version));
+    }
+
+    /**
+     * @return The shared instance of the version, parsing it if it hasn't been seen before.
+     */
+    public static MavenVersion intern(String version) {
+        MavenVersion existing = interned.get(version);
+        return existing != null ? existing : interned.computeIfAbsent(version, MavenVersion::parse);
+    }
+
+    /**
+     * @return The shared instance of the version, or null if it has never been interned, so isn't stored anywhere.
+     */
+    public static MavenVersion findInterned(String version) {
+        return interned.get(version);
+    }
+
+    /**
+     * @return A version that orders before every way of writing the given version, for the start of a range.
+     */
+    static MavenVersion lowest(String version) {
+        return new MavenVersion("", parse(version).pieces);
+    }
+
+    /**
+     * @return A version that orders after every way of writing the given version, for the end of a range.
+     */
+    static MavenVersion highest(String version) {
+        return new MavenVersion("\uffff", parse(version).pieces);
+    }
+
+    @Override
+    public String toString() {
+        return version;
+    }
+
+    /**
+     * @return Whether this is a SNAPSHOT, or a build of one.
+     */
+    public boolean isSnapshot() {
+        return version.endsWith("-SNAPSHOT") || TIMESTAMPED.matcher(version).matches();
+    }
+
+    /**
+     * @return Whether Maven considers the two versions the same, however they're written.
+     */
+    public boolean matches(MavenVersion other) {
+        return compareList(pieces, other.pieces) == 0;
+    }
+
+    @Override
+    public int compareTo(MavenVersion other) {
+        int result = compareList(pieces, other.pieces);
+        return result != 0 ? result : version.compareTo(other.version);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof MavenVersion that && version.equals(that.version);
+    }
+
+    @Override
+    public int hashCode() {
+        return version.hashCode();
+    }
+
+    /**
+     * Split a version into its pieces: BigIntegers for numbers, Strings for qualifiers, and Lists for everything
+     *  after a "-" or a word followed by a number.
+     */
+    private static List<Object> split(String version) {
+        version = version.toLowerCase(Locale.ROOT);
+        List<Object> top = new ArrayList<>();
+        List<Object> list = top;
+        List<List<Object>> lists = new ArrayList<>();
+        lists.add(top);
+
+        boolean digit = false;
+        int start = 0;
+        for (int i = 0; i < version.length(); i++) {
+            char c = version.charAt(i);
+            if (c == '.' || c == '-') {
+                list.add(i == start ? BigInteger.ZERO : piece(digit, version.substring(start, i), false));
+                start = i + 1;
+                if (c == '-') {
+                    List<Object> nested = new ArrayList<>();
+                    list.add(nested);
+                    list = nested;
+                    lists.add(nested);
+                }
+            } else if (Character.isDigit(c)) {
+                if (!digit && i > start) {
+                    // A word followed by a number, ie. "alpha2", so the word is a qualifier and the number goes under it.
+                    list.add(piece(false, version.substring(start, i), true));
+                    start = i;
+                    List<Object> nested = new ArrayList<>();
+                    list.add(nested);
+                    list = nested;
+                    lists.add(nested);
+                }
+                digit = true;
+            } else {
+                if (digit && i > start) {
+                    list.add(piece(true, version.substring(start, i), false));
+                    start = i;
+                    List<Object> nested = new ArrayList<>();
+                    list.add(nested);
+                    list = nested;
+                    lists.add(nested);
+                }
+                digit = false;
+            }
+        }
+        if (version.length() > start)
+            list.add(piece(digit, version.substring(start), false));
+
+        // Trailing zeros and release qualifiers don't count, innermost first, so "1.0-ga" is "1".
+        for (int i = lists.size() - 1; i >= 0; i--)
+            normalize(lists.get(i));
+        return compact(top);
+    }
+
+    /**
+     * @return The pieces in immutable lists that are no larger than they need to be, as versions are kept for good.
+     */
+    private static List<Object> compact(List<Object> pieces) {
+        Object[] compacted = new Object[pieces.size()];
+        for (int i = 0; i < compacted.length; i++) {
+            Object piece = pieces.get(i);
+            if (piece instanceof List<?> list) {
+                @SuppressWarnings("unchecked")
+                List<Object> nested = (List<Object>) list;
+                piece = compact(nested);
+            }
+            compacted[i] = piece;
+        }
+        return List.of(compacted);
+    }
+
+    private static Object piece(boolean digit, String text, boolean followedByDigit) {
+        if (digit)
+            // Small numbers are shared.
+            return text.length() < 10 ? BigInteger.valueOf(Integer.parseInt(text)) : new BigInteger(text);
+        if (followedByDigit && text.length() == 1) {
+            switch (text.charAt(0)) {
+                case 'a' -> text = "alpha";
+                case 'b' -> text = "beta";
+                case 'm' -> text = "milestone";
+            }
+        }
+        return ALIASES.getOrDefault(text, text);
+    }
+
+    private static void normalize(List<Object> list) {
+        for (int i = list.size() - 1; i >= 0; i--) {
+            Object piece = list.get(i);
+            if (isNull(piece))
+                list.remove(i);
+            else if (!(piece instanceof List))
+                break;
+        }
+    }
+
+    private static boolean isNull(Object piece) {
+        if (piece instanceof BigInteger number)
+            return number.signum() == 0;
+        if (piece instanceof String qualifier)
+            return qualifier.isEmpty();
+        return ((List<?>) piece).isEmpty();
+    }
+
+    /**
+     * Compare two pieces. Either may be null, which is what a shorter version has where the longer has a piece.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare(Object left, Object right) {
+        if (left == null)
+            return right == null ? 0 : -compare(right, null);
+
+        if (left instanceof BigInteger number) {
+            if (right == null)
+                return number.signum() == 0 ? 0 : 1;
+            return right instanceof BigInteger other ? number.compareTo(other) : 1;
+        }
+
+        if (left instanceof String qualifier) {
+            if (right == null)
+                return Integer.compare(rank(qualifier), RELEASE);
+            if (right instanceof String other) {
+                int result = Integer.compare(rank(qualifier), rank(other));
+                return result != 0 || rank(qualifier) < QUALIFIERS.size() ? result : qualifier.compareTo(other);
+            }
+            return -1;
+        }
+
+        List<Object> list = (List<Object>) left;
+        if (right == null)
+            return list.isEmpty() ? 0 : compare(list.get(0), null);
+        if (right instanceof List<?> other)
+            return compareList(list, (List<Object>) other);
+        return right instanceof BigInteger ? -1 : 1;
+    }
+
+    private static int compareList(List<Object> left, List<Object> right) {
+        for (int i = 0; i < Math.max(left.size(), right.size()); i++) {
+            int result = compare(i < left.size() ? left.get(i) : null, i < right.size() ? right.get(i) : null);
+            if (result != 0)
+                return result;
+        }
+        return 0;
+    }
+
+    /**
+     * @return Where a qualifier goes among the well-known ones. Unknown qualifiers go after all of them.
+     */
+    private static int rank(String qualifier) {
+        int index = QUALIFIERS.indexOf(qualifier);
+        return index >= 0 ? index : QUALIFIERS.size();
+    }
+}
@@ -0,0 +1,180 @@
+package uk.gemwire.waitress.web.repository;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parts of an artifact's maven-metadata.xml that Waitress cares about: which versions there are, and which of them
+ *  is the latest.
+ *
+ * SNAPSHOT build listings (the metadata in a SNAPSHOT version folder) aren't modelled, as they're never merged. Builds
+ *  can only be taken out of one. See {@link #withoutBuilds(InputStream, Set)}.
+ *
+ * @author Curle
+ */
+public record Metadata(String groupID, String artifactID, String latest, String release, List<String> versions, String lastUpdated) {
+
+    /**
+     * Read the given maven-metadata.xml file.
+     * @param stream The content of the file. Not closed.
+     * @return The parsed metadata. Anything missing from the file is null, or empty for the versions.
+     * @throws IOException if the file can't be read, or is not valid XML.
+     */
+    public static Metadata parse(InputStream stream) throws IOException {
+        Element root = document(stream).getDocumentElement();
+        Element versioning = child(root, "versioning");
+        List<String> versions = new ArrayList<>();
+        if (versioning != null) {
+            Element list = child(versioning, "versions");
+            if (list != null)
+                for (Element version : children(list))
+                    if (version.getTagName().equals("version") && !version.getTextContent().isBlank())
+                        versions.add(version.getTextContent().strip());
+        }
+
+        return new Metadata(text(root, "groupId"), text(root, "artifactId"),
+                versioning == null ? null : text(versioning, "latest"),
+                versioning == null ? null : text(versioning, "release"),
+                versions,
+                versioning == null ? null : text(versioning, "lastUpdated"));
+    }
+
+    /**
+     * Take builds out of the listing in a SNAPSHOT version folder's maven-metadata.xml. Everything else is kept as it is.
+     * @param stream The content of the file. Not closed.
+     * @param builds The timestamped versions of the builds to take out, ie. "1.0-20210101.120000-1".
+     * @return The file without them.
+     * @throws IOException if the file can't be read, or is not valid XML.
+     */
+    public static byte[] withoutBuilds(InputStream stream, Set<String> builds) throws IOException {
+        Document document = document(stream);
+        Element versioning = child(document.getDocumentElement(), "versioning");
+        Element list = versioning == null ? null : child(versioning, "snapshotVersions");
+        if (list != null) {
+            for (Element build : children(list)) {
+                if (!builds.contains(text(build, "value")))
+                    continue;
+                // The indent in front of it goes too, so the file still lines up.
+                Node before = build.getPreviousSibling();
+                if (before != null && before.getNodeType() == Node.TEXT_NODE && before.getTextContent().isBlank())
+                    list.removeChild(before);
+                list.removeChild(build);
+            }
+        }
+
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            // Written by hand, as the transformer's declaration has no line break after it.
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n".getBytes(StandardCharsets.UTF_8));
+            transformer.transform(new DOMSource(document), new StreamResult(out));
+            out.write('\n');
+            return out.toByteArray();
+        } catch (TransformerException e) {
+            throw new IOException("Metadata can't be written: " + e.getMessage(), e);
+        }
+    }
+
+    private static Document document(InputStream stream) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            // Metadata comes from untrusted upstreams, so external entities must never be resolved.
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder().parse(stream);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Metadata is not valid: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write this metadata out as a maven-metadata.xml file.
+     * Anything that is null is left out.
+     */
+    public byte[] render() {
+        StringBuilder out = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata>\n");
+        element(out, "  ", "groupId", groupID);
+        element(out, "  ", "artifactId", artifactID);
+        out.append("  <versioning>\n");
+        element(out, "    ", "latest", latest);
+        element(out, "    ", "release", release);
+        out.append("    <versions>\n");
+        for (String version : versions)
+            element(out, "      ", "version", version);
+        out.append("    </versions>\n");
+        element(out, "    ", "lastUpdated", lastUpdated);
+        out.append("  </versioning>\n</metadata>\n");
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void element(StringBuilder out, String indent, String name, String value) {
+        if (value == null)
+            return;
+        out.append(indent).append('<').append(name).append('>');
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                default -> out.append(c);
+            }
+        }
+        out.append("</").append(name).append(">\n");
+    }
+
+    /**
+     * @return The text of the named direct child of the given element, or null if there is none.
+     */
+    private static String text(Element parent, String name) {
+        Element child = child(parent, name);
+        if (child == null)
+            return null;
+        String text = child.getTextContent().strip();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * @return The named direct child of the given element, or null if there is none.
+     */
+    private static Element child(Element parent, String name) {
+        for (Element child : children(parent))
+            if (child.getTagName().equals(name))
+                return child;
+        return null;
+    }
+
+    /**
+     * @return Every direct child element of the given element. Text and comments are skipped.
+     */
+    private static List<Element> children(Element parent) {
+        List<Element> result = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++)
+            if (nodes.item(i).getNodeType() == Node.ELEMENT_NODE)
+                result.add((Element) nodes.item(i));
+        return result;
+    }
+}
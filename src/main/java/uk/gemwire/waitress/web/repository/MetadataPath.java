@@ -0,0 +1,64 @@
+package uk.gemwire.waitress.web.repository;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Data class for describing a maven-metadata.xml file, or one of its checksums.
+ *
+ * These live either in the artifact folder (listing every version), or in a SNAPSHOT version folder (listing every
+ *  timestamped build). They don't fit the coordinate scheme, so they're handled separately from {@link MavenCoordinate}.
+ *
+ * The group and artifact are only used to check permissions.
+ *
+ * @author Curle
+ */
+public record MetadataPath(
+        @NotNull String groupID,
+        @NotNull String artifactID,
+        @NotNull String version,
+        @NotNull String path
+) {
+
+    private static final Pattern METADATA_PATTERN = Pattern.compile("^/(?<folders>(\\w[\\w.\\-]*\\/)+)maven-metadata\\.xml(\\.\\w+)?$");
+
+    /**
+     * Parse a request path into a metadata file.
+     * @param path The path to parse. Must start with a forward slash.
+     * @return The metadata file, or null if the path isn't a metadata file.
+     */
+    @Nullable
+    public static MetadataPath parse(String path) {
+        final Matcher matcher = METADATA_PATTERN.matcher(path);
+        if (!matcher.matches())
+            return null;
+
+        String[] folders = matcher.group("folders").split("/");
+
+        // A SNAPSHOT folder is a version folder. Anything else is taken to be an artifact folder.
+        String version = "";
+        int artifactIndex = folders.length - 1;
+        if (folders[artifactIndex].endsWith("-SNAPSHOT")) {
+            version = folders[artifactIndex];
+            artifactIndex--;
+        }
+
+        // There must be at least one group folder.
+        if (artifactIndex < 1)
+            return null;
+
+        String group = String.join("/", Arrays.copyOfRange(folders, 0, artifactIndex));
+        return new MetadataPath(group, folders[artifactIndex], version, path.substring(1));
+    }
+
+    /**
+     * @return Whether this metadata describes the builds of a SNAPSHOT, rather than the versions of an artifact.
+     */
+    public boolean isSnapshot() {
+        return !version.isEmpty();
+    }
+}
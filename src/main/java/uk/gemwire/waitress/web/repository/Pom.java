@@ -0,0 +1,292 @@
+package uk.gemwire.waitress.web.repository;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a Maven POM that Waitress cares about.
+ *
+ * This is not a full model of the POM format. Only the packaging, the parent, the properties, the declared
+ *  dependencies and the dependencyManagement are read.
+ * Properties are substituted where they are defined in the same file. Anything else is left as it is written, as it
+ *  may be defined by a parent, and versions may be left out entirely for the dependencyManagement to fill in.
+ *  See {@link Dependency#isResolved()}.
+ *
+ * @author Curle
+ */
+public record Pom(MavenCoordinate coordinate, String packaging, MavenCoordinate parent, Map<String, String> properties,
+                  List<Dependency> dependencies, List<Dependency> management) {
+
+    /**
+     * A single entry in the dependencies or dependencyManagement block of a POM.
+     * The group is written with dots, as it is in the POM. The classifier is stored with its leading dash, to match
+     *  {@link MavenCoordinate}. The version and scope are null if they're left out.
+     * Exclusions are written as group:artifact, either of which may be *.
+     */
+    public record Dependency(String groupID, String artifactID, String version, String classifier, String type, String scope,
+                             boolean optional, List<String> exclusions) {
+
+        /**
+         * @return The coordinate of the POM that describes this dependency.
+         */
+        public MavenCoordinate pom() {
+            return new MavenCoordinate(groupID.replace('.', '/'), artifactID, version, "", "pom");
+        }
+
+        /**
+         * @return Whether the group, artifact and version are all known, so that the dependency can be found.
+         */
+        public boolean isResolved() {
+            return version != null && !groupID.contains("${") && !artifactID.contains("${") && !version.contains("${");
+        }
+
+        /**
+         * @return The scope, or the default scope if it was left out.
+         */
+        public String scopeOrDefault() {
+            return scope == null ? "compile" : scope;
+        }
+
+        /**
+         * @return What a dependencyManagement entry for this dependency is found by.
+         */
+        public String managementKey() {
+            return groupID + ":" + artifactID + ":" + type + ":" + classifier;
+        }
+
+        /**
+         * @return This dependency with ${property} references substituted, where the property is known.
+         */
+        public Dependency interpolate(Map<String, String> properties) {
+            return new Dependency(substitute(groupID, properties), substitute(artifactID, properties), substitute(version, properties),
+                    substitute(classifier, properties), substitute(type, properties), substitute(scope, properties), optional, exclusions);
+        }
+
+        /**
+         * @return This dependency with the version, scope and exclusions of its dependencyManagement entry filled in,
+         *  where they were left out.
+         */
+        public Dependency manage(Dependency managed) {
+            return new Dependency(groupID, artifactID, version == null ? managed.version : version, classifier, type,
+                    scope == null ? managed.scope : scope, optional, exclusions.isEmpty() ? managed.exclusions : exclusions);
+        }
+
+        /**
+         * @return Whether the given exclusions remove this dependency.
+         */
+        public boolean isExcludedBy(List<String> exclusions) {
+            for (String exclusion : exclusions) {
+                int colon = exclusion.indexOf(':');
+                String group = exclusion.substring(0, colon);
+                String artifact = exclusion.substring(colon + 1);
+                if ((group.equals("*") || group.equals(groupID)) && (artifact.equals("*") || artifact.equals(artifactID)))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Read the given POM file.
+     * @param stream The content of the POM. Not closed.
+     * @return The parsed POM.
+     * @throws IOException if the file can't be read, or is not valid XML.
+     */
+    public static Pom parse(InputStream stream) throws IOException {
+        final Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            // POMs come from untrusted upstreams, so external entities must never be resolved.
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(stream);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("POM is not valid: " + e.getMessage(), e);
+        }
+
+        Element project = document.getDocumentElement();
+        Element parentElement = child(project, "parent");
+
+        String parentGroup = parentElement == null ? null : text(parentElement, "groupId");
+        String parentVersion = parentElement == null ? null : text(parentElement, "version");
+
+        // Group and version may be inherited from the parent.
+        String groupID = orElse(text(project, "groupId"), parentGroup);
+        String artifactID = text(project, "artifactId");
+        String version = orElse(text(project, "version"), parentVersion);
+        String packaging = orElse(text(project, "packaging"), "jar");
+
+        Map<String, String> declared = new HashMap<>();
+        Element propertiesElement = child(project, "properties");
+        if (propertiesElement != null)
+            for (Element property : children(propertiesElement))
+                declared.put(property.getTagName(), property.getTextContent().strip());
+        Map<String, String> properties = new HashMap<>(declared);
+        properties.put("project.groupId", groupID);
+        properties.put("project.version", version);
+        properties.put("project.artifactId", artifactID);
+        properties.put("pom.groupId", groupID);
+        properties.put("pom.version", version);
+        if (parentElement != null) {
+            properties.put("project.parent.groupId", parentGroup);
+            properties.put("project.parent.version", parentVersion);
+        }
+
+        MavenCoordinate parent = null;
+        if (parentElement != null) {
+            String group = interpolate(parentGroup, properties);
+            String artifact = interpolate(text(parentElement, "artifactId"), properties);
+            String parentVer = interpolate(parentVersion, properties);
+            if (group != null && artifact != null && parentVer != null)
+                parent = new MavenCoordinate(group.replace('.', '/'), artifact, parentVer, "", "pom");
+        }
+
+        List<Dependency> dependencies = dependencies(child(project, "dependencies"), properties);
+        Element managementElement = child(project, "dependencyManagement");
+        List<Dependency> management = managementElement == null ? List.of() : dependencies(child(managementElement, "dependencies"), properties);
+
+        MavenCoordinate self = groupID == null || artifactID == null || version == null ? null :
+                new MavenCoordinate(groupID.replace('.', '/'), artifactID, version, "", "pom");
+        return new Pom(self, packaging, parent, declared, dependencies, management);
+    }
+
+    /**
+     * Read a dependencies block.
+     * Dependencies without a group or artifact can't be anything, and are skipped.
+     */
+    private static List<Dependency> dependencies(Element block, Map<String, String> properties) {
+        List<Dependency> dependencies = new ArrayList<>();
+        if (block == null)
+            return dependencies;
+
+        for (Element dependency : children(block)) {
+            String group = text(dependency, "groupId");
+            String artifact = text(dependency, "artifactId");
+            if (group == null || artifact == null)
+                continue;
+
+            List<String> exclusions = new ArrayList<>();
+            Element exclusionsElement = child(dependency, "exclusions");
+            if (exclusionsElement != null)
+                for (Element exclusion : children(exclusionsElement))
+                    exclusions.add(orElse(text(exclusion, "groupId"), "*") + ":" + orElse(text(exclusion, "artifactId"), "*"));
+
+            String classifier = text(dependency, "classifier");
+            dependencies.add(new Dependency(group, artifact, text(dependency, "version"),
+                    classifier == null ? "" : "-" + classifier,
+                    orElse(text(dependency, "type"), "jar"),
+                    text(dependency, "scope"),
+                    Boolean.parseBoolean(text(dependency, "optional")),
+                    exclusions).interpolate(properties));
+        }
+        return dependencies;
+    }
+
+    /**
+     * Substitute ${property} references in the given value, leaving unknown references as they are.
+     * @return The substituted value, or null if the value is null.
+     */
+    private static String substitute(String value, Map<String, String> properties) {
+        if (value == null || !value.contains("${"))
+            return value;
+
+        // Properties may refer to other properties. Guard against cycles with a fixed limit.
+        for (int pass = 0; pass < 8; pass++) {
+            StringBuilder out = new StringBuilder();
+            int from = 0;
+            boolean changed = false;
+            int start;
+            while ((start = value.indexOf("${", from)) >= 0) {
+                int end = value.indexOf('}', start);
+                if (end < 0)
+                    break;
+                String replacement = properties.get(value.substring(start + 2, end));
+                out.append(value, from, start).append(replacement != null ? replacement : value.substring(start, end + 1));
+                changed |= replacement != null;
+                from = end + 1;
+            }
+            out.append(value.substring(from));
+            value = out.toString();
+            if (!changed)
+                break;
+        }
+        return value;
+    }
+
+    /**
+     * Substitute ${property} references in the given value.
+     * @return The substituted value, or null if any reference is unknown.
+     */
+    private static String interpolate(String value, Map<String, String> properties) {
+        if (value == null)
+            return null;
+
+        // Properties may refer to other properties. Guard against cycles with a fixed limit.
+        for (int pass = 0; pass < 8 && value.contains("${"); pass++) {
+            int start = value.indexOf("${");
+            int end = value.indexOf('}', start);
+            if (end < 0)
+                return null;
+
+            String replacement = properties.get(value.substring(start + 2, end));
+            if (replacement == null)
+                return null;
+            value = value.substring(0, start) + replacement + value.substring(end + 1);
+        }
+
+        return value.contains("${") ? null : value;
+    }
+
+    private static String orElse(String value, String fallback) {
+        return value == null ? fallback : value;
+    }
+
+    /**
+     * @return The text of the named direct child of the given element, or null if there is none.
+     */
+    private static String text(Element parent, String name) {
+        Element child = child(parent, name);
+        if (child == null)
+            return null;
+        String text = child.getTextContent().strip();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * @return The named direct child of the given element, or null if there is none.
+     */
+    private static Element child(Element parent, String name) {
+        for (Element child : children(parent))
+            if (child.getTagName().equals(name))
+                return child;
+        return null;
+    }
+
+    /**
+     * @return Every direct child element of the given element. Text and comments are skipped.
+     */
+    private static List<Element> children(Element parent) {
+        List<Element> result = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++)
+            if (nodes.item(i).getNodeType() == Node.ELEMENT_NODE)
+                result.add((Element) nodes.item(i));
+        return result;
+    }
+}
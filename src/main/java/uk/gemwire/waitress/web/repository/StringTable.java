@@ -0,0 +1,73 @@
+package uk.gemwire.waitress.web.repository;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A dictionary of strings, each given a small number the first time it is seen.
+ *
+ * The index sees the same few strings over and over, ie. "jar" or "sources", or the group of every artifact in a
+ *  project. Keeping one copy of each, and a number in its place where it's stored many times, is most of what keeps
+ *  the index small.
+ * Strings are never removed, so a number always means the same string.
+ *
+ * Looking up a string that is already known takes no lock, so it may be done from any number of threads at once.
+ *
+ * @author Curle
+ */
+public final class StringTable {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // Id -> string. Replaced with a larger copy when it fills up, so it is only written under the lock.
+    private volatile String[] strings = new String[16];
+    private int size = 0;
+
+    /**
+     * @return The number of the string, giving it one if it doesn't have one yet.
+     */
+    public int id(String string) {
+        Integer id = ids.get(string);
+        if (id != null)
+            return id;
+
+        synchronized (this) {
+            id = ids.get(string);
+            if (id != null)
+                return id;
+            String[] current = strings;
+            if (size == current.length)
+                strings = current = Arrays.copyOf(current, size * 2);
+            current[size] = string;
+            // Stored only once the string is in the array, so anyone who finds the id can find the string.
+            ids.put(string, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @return The number of the string, or -1 if it doesn't have one.
+     */
+    public int find(String string) {
+        Integer id = ids.get(string);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id A number given out by {@link #id(String)}.
+     */
+    public String get(int id) {
+        return strings[id];
+    }
+
+    /**
+     * @return The copy of the string that is kept in the table, adding it if need be.
+     */
+    public String intern(String string) {
+        return get(id(string));
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
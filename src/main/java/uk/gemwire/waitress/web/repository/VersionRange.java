@@ -0,0 +1,100 @@
+package uk.gemwire.waitress.web.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Maven version range, ie. "[1.2,2.0)", "(,1.0]", "[1.5]" or several of them, as "(,1.0],[1.2,)".
+ * A plain version, without brackets, only matches itself.
+ *
+ * Each part is kept as the versions at either end, so the matching stored versions can be found in a sorted set
+ *  without looking at the ones outside of it.
+ *
+ * @param restrictions The parts of the range, in the order they were written.
+ * @author Curle
+ */
+public record VersionRange(List<Restriction> restrictions) {
+
+    /**
+     * One part of a range.
+     * @param lower The lowest version it may match, or null if there is none.
+     * @param upper The highest version it may match, or null if there is none.
+     */
+    public record Restriction(MavenVersion lower, boolean lowerInclusive, MavenVersion upper, boolean upperInclusive) {
+
+        public boolean contains(MavenVersion version) {
+            if (lower != null) {
+                int result = version.compareTo(lower);
+                if (result < 0 || (result == 0 && !lowerInclusive))
+                    return false;
+            }
+            if (upper != null) {
+                int result = version.compareTo(upper);
+                if (result > 0 || (result == 0 && !upperInclusive))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the range isn't valid.
+     */
+    public static VersionRange parse(String range) {
+        range = range.strip();
+        if (range.isEmpty())
+            throw new IllegalArgumentException("The range is empty.");
+
+        if (range.charAt(0) != '[' && range.charAt(0) != '(') {
+            // The bounds are the same version however it's written, so only compare how Maven would.
+            return new VersionRange(List.of(new Restriction(MavenVersion.lowest(range), true, MavenVersion.highest(range), true)));
+        }
+
+        List<Restriction> restrictions = new ArrayList<>();
+        int start = 0;
+        while (start < range.length()) {
+            char open = range.charAt(start);
+            if (open != '[' && open != '(')
+                throw new IllegalArgumentException("Expected '[' or '(' at " + start + " of \"" + range + "\".");
+            int end = start + 1;
+            while (end < range.length() && range.charAt(end) != ']' && range.charAt(end) != ')')
+                end++;
+            if (end == range.length())
+                throw new IllegalArgumentException("Unclosed range in \"" + range + "\".");
+
+            restrictions.add(restriction(open == '[', range.substring(start + 1, end).strip(), range.charAt(end) == ']'));
+
+            start = end + 1;
+            if (start < range.length()) {
+                if (range.charAt(start) != ',')
+                    throw new IllegalArgumentException("Expected ',' at " + start + " of \"" + range + "\".");
+                start++;
+            }
+        }
+        return new VersionRange(restrictions);
+    }
+
+    private static Restriction restriction(boolean lowerInclusive, String bounds, boolean upperInclusive) {
+        int comma = bounds.indexOf(',');
+        if (comma < 0) {
+            // "[1.0]" is exactly that version.
+            if (!lowerInclusive || !upperInclusive || bounds.isEmpty())
+                throw new IllegalArgumentException("A single version must be in [], not \"" + bounds + "\".");
+            return new Restriction(MavenVersion.lowest(bounds), true, MavenVersion.highest(bounds), true);
+        }
+
+        String lower = bounds.substring(0, comma).strip();
+        String upper = bounds.substring(comma + 1).strip();
+        // The ends are placed before or after every way of writing their version, so they include or exclude them all.
+        return new Restriction(
+                lower.isEmpty() ? null : lowerInclusive ? MavenVersion.lowest(lower) : MavenVersion.highest(lower), lowerInclusive,
+                upper.isEmpty() ? null : upperInclusive ? MavenVersion.highest(upper) : MavenVersion.lowest(upper), upperInclusive);
+    }
+
+    public boolean contains(MavenVersion version) {
+        for (Restriction restriction : restrictions)
+            if (restriction.contains(version))
+                return true;
+        return false;
+    }
+}
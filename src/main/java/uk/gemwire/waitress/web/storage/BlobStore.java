@@ -0,0 +1,291 @@
+package uk.gemwire.waitress.web.storage;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Content-addressed storage for {@link FileStorage}.
+ *
+ * If the blob store is enabled, the content of every file is stored once, named by its SHA-256, in a hidden folder in
+ *  the data directory. The file in the repository tree is then a hardlink to that blob, so identical files (ie. the same
+ *  jar republished under a relocated group, or uploaded and proxied) only take up space once.
+ * Since every file is hashed on the way in anyway, the sha1, md5 and sha256 checksums are written next to it, so
+ *  clients asking for them never have to wait on the proxy.
+ *
+ * The number of links to a blob is its reference count. A background collector removes blobs that are no longer
+ *  linked from anywhere in the repository tree.
+ *
+ * @author Curle
+ */
+public class BlobStore {
+
+    // The hidden folder in the data directory that blobs are kept in.
+    private static final String BLOB_DIR = ".blobs/";
+
+    // The checksums written next to every stored file, in the order they're computed.
+    private static final String[] CHECKSUMS = { "sha256", "sha1", "md5" };
+    private static final String[] ALGORITHMS = { "SHA-256", "SHA-1", "MD5" };
+
+    // Blobs younger than this are never collected, so that a file being linked right now can't lose its blob.
+    private static final long COLLECTION_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // Linking takes the read side, so any number of writes can happen at once.
+    // Collecting takes the write side, so a blob can't be deleted between being found and being linked.
+    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Set if the file system can't hardlink, so that we only complain about it once.
+    private static volatile boolean linksUnsupported = false;
+
+    /**
+     * Store the given stream as a blob, and link the destination to it.
+     * @param destination The file in the repository tree.
+     * @param content The content of the file. Not closed.
+     * @return The checksums of the content, in the order of {@link #CHECKSUMS}.
+     */
+    static String[] store(Path destination, InputStream content) throws IOException {
+        final Path blobs = Paths.get(Config.DATA_DIR + BLOB_DIR);
+        Files.createDirectories(blobs.resolve("tmp"));
+        final Path temporary = Files.createTempFile(blobs.resolve("tmp"), "", ".part");
+
+        String[] hashes = new String[CHECKSUMS.length];
+        try {
+            // Hash while copying, so the content is only read once.
+            MessageDigest[] digests = digests();
+            InputStream stream = content;
+            for (MessageDigest digest : digests)
+                stream = new DigestInputStream(stream, digest);
+            Files.copy(stream, temporary, StandardCopyOption.REPLACE_EXISTING);
+            for (int i = 0; i < digests.length; i++)
+                hashes[i] = HexFormat.of().formatHex(digests[i].digest());
+
+            final Path blob = blobPath(hashes[0]);
+            lock.readLock().lock();
+            try {
+                // If it is already stored, it is left as it is. Its time is shared with every file linked to it, and
+                //  the collector can't remove it while we hold the lock.
+                if (!Files.exists(blob)) {
+                    Files.createDirectories(blob.getParent());
+                    Files.move(temporary, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                link(blob, destination);
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        return hashes;
+    }
+
+    /**
+     * @return The checksums of the given content, in the order of {@link #CHECKSUMS}.
+     */
+    static String[] checksums(byte[] content) {
+        MessageDigest[] digests = digests();
+        String[] hashes = new String[digests.length];
+        for (int i = 0; i < digests.length; i++)
+            hashes[i] = HexFormat.of().formatHex(digests[i].digest(content));
+        return hashes;
+    }
+
+    /**
+     * Write the checksum files for the given path, replacing any that are already there.
+     * They're always rewritten, as the file may have replaced an older one with different content.
+     * @param storage Where to write the checksums.
+     * @param path The path that the checksums are of.
+     * @param hashes The checksums, in the order of {@link #CHECKSUMS}.
+     * @return The paths of the checksum files that were written.
+     */
+    static List<String> writeChecksums(Storage storage, String path, String[] hashes) throws IOException {
+        // Checksums of checksums, or of Waitress' own files, aren't useful to anyone.
+        List<String> written = new ArrayList<>();
+        if (isChecksum(path) || path.startsWith("."))
+            return written;
+
+        for (int i = 0; i < CHECKSUMS.length; i++) {
+            storage.write(path + "." + CHECKSUMS[i], new ByteArrayInputStream(hashes[i].getBytes(StandardCharsets.US_ASCII)));
+            written.add(path + "." + CHECKSUMS[i]);
+        }
+        return written;
+    }
+
+    /**
+     * Start a background thread that periodically removes blobs that nothing links to any more.
+     * Does nothing if the blob store is disabled.
+     */
+    public static void startCollector() {
+        if (!Config.BLOB_STORE)
+            return;
+
+        Thread collector = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(Config.BLOB_GC_MINUTES));
+                    collect();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | UnsupportedOperationException e) {
+                    Waitress.LOGGER.warn("Blob collection failed: " + e.getMessage());
+                }
+            }
+        }, "blob collector");
+        collector.setDaemon(true);
+        collector.setPriority(Thread.MIN_PRIORITY);
+        collector.start();
+    }
+
+    /**
+     * Remove every blob whose only link is the blob itself, and any temporary files left behind by a crash.
+     * @return The number of blobs removed.
+     */
+    public static int collect() throws IOException {
+        final Path blobs = Paths.get(Config.DATA_DIR + BLOB_DIR);
+        if (!Files.isDirectory(blobs))
+            return 0;
+
+        long cutoff = System.currentTimeMillis() - COLLECTION_GRACE_MILLIS;
+        int removed = 0;
+        long freed = 0;
+
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(blobs)) {
+            for (Path prefix : prefixes) {
+                if (!Files.isDirectory(prefix))
+                    continue;
+
+                boolean temporaries = prefix.getFileName().toString().equals("tmp");
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(prefix)) {
+                    for (Path entry : entries) {
+                        if (Files.getLastModifiedTime(entry).toMillis() > cutoff)
+                            continue;
+
+                        if (temporaries) {
+                            Files.deleteIfExists(entry);
+                            continue;
+                        }
+
+                        // One folder at a time, so writers are only ever held up briefly.
+                        lock.writeLock().lock();
+                        try {
+                            if ((int) Files.getAttribute(entry, "unix:nlink") > 1)
+                                continue;
+                            freed += Files.size(entry);
+                            Files.delete(entry);
+                            removed++;
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    }
+                }
+            }
+        }
+
+        if (removed > 0)
+            Waitress.LOGGER.info("Blob collection removed " + removed + " unreferenced blobs, freeing " + freed + " bytes.");
+        return removed;
+    }
+
+    /**
+     * Point the destination at the blob.
+     * The link is made under a temporary name and moved into place, so the destination is replaced atomically.
+     * If the file system doesn't support hardlinks, the blob is copied instead.
+     */
+    private static void link(Path blob, Path destination) throws IOException {
+        final Path temporary = destination.resolveSibling("." + destination.getFileName() + "." + Thread.currentThread().getId() + ".link");
+        Files.deleteIfExists(temporary);
+        try {
+            if (linksUnsupported) {
+                Files.copy(blob, temporary);
+            } else {
+                try {
+                    Files.createLink(temporary, blob);
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    linksUnsupported = true;
+                    Waitress.LOGGER.warn("The data directory does not support hardlinks (" + e.getMessage() + "). Blobs will be copied, so files are not deduplicated.");
+                    Files.copy(blob, temporary);
+                }
+            }
+            Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return Whether the path is a checksum that the blob store writes alongside every file it stores. Signatures aren't.
+     */
+    public static boolean writesChecksum(String path) {
+        for (String checksum : CHECKSUMS)
+            if (path.endsWith("." + checksum))
+                return true;
+        return false;
+    }
+
+    /**
+     * @param path The path of a checksum that the blob store wrote. See {@link #writesChecksum(String)}.
+     * @param uploaded The content of a checksum uploaded for the same path.
+     * @return Whether the uploaded checksum is the same as the stored one. Anything after the hash (ie. a file name) and
+     *  the case of the hash are ignored.
+     */
+    public static boolean agrees(String path, byte[] uploaded) throws IOException {
+        final String stored;
+        try (InputStream stream = Waitress.storage.read(path)) {
+            stored = new String(stream.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+        return hashOf(stored).equalsIgnoreCase(hashOf(new String(uploaded, StandardCharsets.US_ASCII)));
+    }
+
+    private static String hashOf(String checksum) {
+        String[] parts = checksum.strip().split("\\s+", 2);
+        return parts[0];
+    }
+
+    /**
+     * @return Whether the path is itself a checksum or signature file.
+     */
+    public static boolean isChecksum(String path) {
+        for (String checksum : CHECKSUMS)
+            if (path.endsWith("." + checksum))
+                return true;
+        return path.endsWith(".asc");
+    }
+
+    private static MessageDigest[] digests() {
+        try {
+            MessageDigest[] digests = new MessageDigest[ALGORITHMS.length];
+            for (int i = 0; i < ALGORITHMS.length; i++)
+                digests[i] = MessageDigest.getInstance(ALGORITHMS[i]);
+            return digests;
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to have these.
+            throw new IllegalStateException("Checksum algorithm is not available", e);
+        }
+    }
+
+    /**
+     * Blobs are split into folders by the first two characters of their hash, so no folder gets too big.
+     */
+    private static Path blobPath(String hash) {
+        return Paths.get(Config.DATA_DIR + BLOB_DIR + hash.substring(0, 2) + "/" + hash);
+    }
+}
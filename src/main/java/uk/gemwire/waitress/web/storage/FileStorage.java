@@ -0,0 +1,131 @@
+package uk.gemwire.waitress.web.storage;
+
+import uk.gemwire.waitress.config.Config;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Stores every file as-is in the data directory, the same layout as any other Maven repository.
+ *
+ * If the blob store is enabled, files are content-addressed. See {@link BlobStore}.
+ *
+ * @author Curle
+ */
+public class FileStorage implements Storage {
+
+    // Where the checksums of stored files are written. Usually this storage, unless it's used by another.
+    private final Storage checksums;
+
+    public FileStorage() {
+        this.checksums = this;
+    }
+
+    FileStorage(Storage checksums) {
+        this.checksums = checksums;
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return Files.isRegularFile(resolve(path));
+    }
+
+    @Override
+    public long size(String path) throws IOException {
+        try {
+            return Files.size(resolve(path));
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(path);
+        }
+    }
+
+    @Override
+    public long lastModified(String path) {
+        return resolve(path).toFile().lastModified();
+    }
+
+    @Override
+    public InputStream read(String path) throws IOException {
+        return new FileInputStream(resolve(path).toFile());
+    }
+
+    /**
+     * The file is written to a temporary file next to its destination and then moved into place, so a reader never
+     *  sees half of a file, and a failed write never leaves one behind.
+     */
+    @Override
+    public List<String> write(String path, InputStream content) throws IOException {
+        final Path destination = resolve(path);
+        Files.createDirectories(destination.getParent());
+
+        // Checksums are too small to be worth deduplicating.
+        if (Config.BLOB_STORE && !BlobStore.isChecksum(path))
+            return BlobStore.writeChecksums(checksums, path, BlobStore.store(destination, content));
+
+        final Path temporary = Files.createTempFile(destination.getParent(), "." + destination.getFileName(), ".part");
+        try {
+            Files.copy(content, temporary, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return List.of();
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        return Files.deleteIfExists(resolve(path));
+    }
+
+    /**
+     * Hidden files and folders are Waitress' own, or temporary files from a write in progress, so they're skipped.
+     */
+    @Override
+    public void enumerate(Consumer<String> consumer) throws IOException {
+        enumerate("", consumer);
+    }
+
+    @Override
+    public void enumerate(String prefix, Consumer<String> consumer) throws IOException {
+        final Path root = Paths.get(Config.DATA_DIR);
+        // Only the folder the prefix names has to be walked.
+        final Path start = root.resolve(prefix);
+        if (!Files.isDirectory(start))
+            return;
+
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                if (!dir.equals(root) && dir.getFileName().toString().startsWith("."))
+                    return FileVisitResult.SKIP_SUBTREE;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && !file.getFileName().toString().startsWith(".")) {
+                    String path = root.relativize(file).toString().replace('\\', '/');
+                    if (path.startsWith(prefix))
+                        consumer.accept(path);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Path resolve(String path) {
+        return Paths.get(Config.DATA_DIR + path);
+    }
+}
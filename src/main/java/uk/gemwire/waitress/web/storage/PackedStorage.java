@@ -0,0 +1,455 @@
+package uk.gemwire.waitress.web.storage;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Stores small files (poms, checksums, signatures, metadata) packed together in large segment files, rather than as a
+ *  file each. A repository is mostly made of these, and a file each costs an inode, a directory entry and a syscall or
+ *  three per request, no matter how small it is.
+ *
+ * Files over {@link Config#PACKED_MAX_FILE_SIZE} are left to a {@link FileStorage} in the data directory as normal.
+ *
+ * Segments are append-only. Each has a data file, and an index file recording where every file in it starts and ends.
+ * The index files are replayed in order on startup, so the latest record for a path wins, and a record with a negative
+ *  length (a tombstone) removes the path.
+ * Replacing or removing a file leaves its old copy in the segment as garbage. A background compactor copies the files
+ *  that are still live out of mostly-garbage segments, then deletes them.
+ *
+ * Sealed segments are memory mapped, and files in them are streamed straight out of the mapping, so reads never copy
+ *  them onto the heap. The segment being appended to is read with positional reads until it is sealed.
+ *
+ * @author Curle
+ */
+public class PackedStorage implements Storage {
+
+    // The hidden folder in the data directory that segments are kept in.
+    private static final String SEGMENT_DIR = ".segments/";
+
+    // Segments with less than this fraction of live data are compacted.
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    // Where a file is, and when it was written.
+    private record Entry(Segment segment, int offset, int length, long lastModified) {}
+
+    // Path -> where it is. Paths that aren't here are in the data directory, if anywhere.
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+
+    // Segment ID -> segment. Segments are removed from here once they've been compacted.
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+
+    // Large files. Checksums of large files are small, so they come back here.
+    private final FileStorage files = new FileStorage(this);
+
+    // Held while appending, and while compaction moves a file, so that the index only ever moves forwards.
+    private final Object appendLock = new Object();
+
+    // The segment currently being appended to.
+    private Segment active;
+
+    /**
+     * Open the segments in the data directory, replay their indexes, and start a new segment to append to.
+     */
+    public PackedStorage() throws IOException {
+        final Path directory = Paths.get(Config.DATA_DIR + SEGMENT_DIR);
+        Files.createDirectories(directory);
+
+        // Replay in the order they were written.
+        Map<Integer, Path> found = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.idx")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                found.put(Integer.parseInt(name.substring("segment-".length(), name.length() - ".idx".length())), path);
+            }
+        }
+
+        int next = 0;
+        for (int id : found.keySet()) {
+            Segment segment = new Segment(id);
+            segments.put(id, segment);
+            replay(segment);
+            segment.seal();
+            next = id + 1;
+        }
+
+        active = new Segment(next);
+        segments.put(next, active);
+
+        long bytes = 0;
+        for (Segment segment : segments.values())
+            bytes += segment.live.get();
+        Waitress.LOGGER.info("Packed storage holds " + index.size() + " files (" + bytes + " bytes) in " + found.size() + " segments.");
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return index.containsKey(path) || files.exists(path);
+    }
+
+    @Override
+    public long size(String path) throws IOException {
+        Entry entry = index.get(path);
+        return entry != null ? entry.length() : files.size(path);
+    }
+
+    @Override
+    public long lastModified(String path) {
+        Entry entry = index.get(path);
+        return entry != null ? entry.lastModified() : files.lastModified(path);
+    }
+
+    @Override
+    public InputStream read(String path) throws IOException {
+        Entry entry = index.get(path);
+        if (entry == null)
+            return files.read(path);
+
+        return entry.segment().stream(entry.offset(), entry.length());
+    }
+
+    /**
+     * Small files are buffered in memory in full. Anything that turns out to be larger is streamed to the data directory.
+     */
+    @Override
+    public List<String> write(String path, InputStream content) throws IOException {
+        byte[] head = content.readNBytes(Config.PACKED_MAX_FILE_SIZE + 1);
+
+        if (head.length > Config.PACKED_MAX_FILE_SIZE) {
+            List<String> written = files.write(path, new SequenceInputStream(new ByteArrayInputStream(head), content));
+            // Only forget the packed copy once the new one is in place, so the file never goes missing.
+            synchronized (appendLock) {
+                if (index.containsKey(path))
+                    remove(path);
+            }
+            return written;
+        }
+
+        synchronized (appendLock) {
+            append(path, head, System.currentTimeMillis());
+        }
+        files.delete(path);
+
+        if (Config.BLOB_STORE)
+            return BlobStore.writeChecksums(this, path, BlobStore.checksums(head));
+        return List.of();
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        boolean removed;
+        synchronized (appendLock) {
+            removed = index.containsKey(path);
+            if (removed)
+                remove(path);
+        }
+        return files.delete(path) || removed;
+    }
+
+    @Override
+    public void enumerate(Consumer<String> consumer) throws IOException {
+        for (String path : index.keySet())
+            if (!path.startsWith("."))
+                consumer.accept(path);
+        files.enumerate(consumer);
+    }
+
+    @Override
+    public void enumerate(String prefix, Consumer<String> consumer) throws IOException {
+        for (String path : index.keySet())
+            if (path.startsWith(prefix) && !path.startsWith("."))
+                consumer.accept(path);
+        files.enumerate(prefix, consumer);
+    }
+
+    /**
+     * Start a background thread that periodically compacts segments that are mostly garbage.
+     */
+    public void startCompactor() {
+        Thread compactor = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(Config.COMPACTION_MINUTES));
+                    compact();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    Waitress.LOGGER.warn("Segment compaction failed: " + e.getMessage());
+                }
+            }
+        }, "segment compactor");
+        compactor.setDaemon(true);
+        compactor.setPriority(Thread.MIN_PRIORITY);
+        compactor.start();
+    }
+
+    /**
+     * Copy the live files out of every sealed segment that is mostly garbage, then delete those segments.
+     * @return The number of segments removed.
+     */
+    public int compact() throws IOException {
+        int removed = 0;
+        long freed = 0;
+
+        for (Segment segment : new TreeMap<>(segments).values()) {
+            if (!segment.sealed || segment.live.get() > segment.end * COMPACTION_THRESHOLD)
+                continue;
+
+            // Move every file that still lives here. One at a time, so writers are only ever held up briefly.
+            for (Map.Entry<String, Entry> file : index.entrySet()) {
+                Entry entry = file.getValue();
+                if (entry.segment() != segment)
+                    continue;
+
+                byte[] content = segment.read(entry.offset(), entry.length());
+                synchronized (appendLock) {
+                    // It may have been replaced since we looked.
+                    if (index.get(file.getKey()) == entry)
+                        append(file.getKey(), content, entry.lastModified());
+                }
+            }
+
+            synchronized (appendLock) {
+                // A tombstone only matters while an older segment could still bring the file back.
+                boolean older = segments.keySet().stream().anyMatch(id -> id < segment.id);
+                if (older)
+                    for (String path : segment.tombstones)
+                        if (!index.containsKey(path))
+                            remove(path);
+
+                segments.remove(segment.id);
+            }
+
+            freed += segment.end;
+            segment.delete();
+            removed++;
+        }
+
+        if (removed > 0)
+            Waitress.LOGGER.info("Segment compaction removed " + removed + " segments, freeing " + freed + " bytes.");
+        return removed;
+    }
+
+    /**
+     * Append a file to the active segment, and point the index at it. Must hold the append lock.
+     */
+    private void append(String path, byte[] content, long lastModified) throws IOException {
+        if (active.end > 0 && active.end + content.length > Config.SEGMENT_SIZE) {
+            active.seal();
+            active = new Segment(active.id + 1);
+            segments.put(active.id, active);
+        }
+
+        int offset = active.append(content);
+        active.record(path, offset, content.length, lastModified);
+        replace(path, new Entry(active, offset, content.length, lastModified));
+    }
+
+    /**
+     * Tombstone a file in the active segment, and remove it from the index. Must hold the append lock.
+     */
+    private void remove(String path) throws IOException {
+        active.record(path, 0, -1, 0);
+        active.tombstones.add(path);
+        replace(path, null);
+    }
+
+    /**
+     * Point the index at the new location of a file, and keep track of how much of each segment is still live.
+     */
+    private void replace(String path, Entry entry) {
+        Entry previous = entry == null ? index.remove(path) : index.put(path, entry);
+        if (previous != null)
+            previous.segment().live.addAndGet(-previous.length());
+        if (entry != null)
+            entry.segment().live.addAndGet(entry.length());
+    }
+
+    /**
+     * Read a segment's index into the index.
+     * A record cut short by a crash ends the replay, and anything after it in the data file is cut off.
+     */
+    private void replay(Segment segment) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment.indexFile)))) {
+            while (true) {
+                String path = input.readUTF();
+                int offset = input.readInt();
+                int length = input.readInt();
+                long lastModified = input.readLong();
+
+                if (length < 0) {
+                    segment.tombstones.add(path);
+                    replace(path, null);
+                } else if (offset + (long) length <= segment.channel.size()) {
+                    segment.tombstones.remove(path);
+                    segment.end = Math.max(segment.end, offset + length);
+                    replace(path, new Entry(segment, offset, length, lastModified));
+                }
+            }
+        } catch (EOFException e) {
+            // End of the index.
+        }
+        segment.channel.truncate(segment.end);
+    }
+
+    /**
+     * A data file and its index.
+     */
+    private static class Segment {
+        final int id;
+        final Path dataFile;
+        final Path indexFile;
+        final FileChannel channel;
+        final DataOutputStream indexOutput;
+
+        // Paths removed by this segment.
+        final Set<String> tombstones = ConcurrentHashMap.newKeySet();
+        // Bytes of this segment the index still points at.
+        final AtomicLong live = new AtomicLong();
+
+        // Where the next file is appended. Only changes under the append lock.
+        volatile int end = 0;
+        // Set once the segment will never be appended to again.
+        volatile boolean sealed = false;
+        volatile ByteBuffer mapped;
+
+        Segment(int id) throws IOException {
+            this.id = id;
+            String name = Config.DATA_DIR + SEGMENT_DIR + String.format("segment-%08d", id);
+            this.dataFile = Paths.get(name + ".dat");
+            this.indexFile = Paths.get(name + ".idx");
+            this.channel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.indexOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile.toFile(), true)));
+        }
+
+        int append(byte[] content) throws IOException {
+            int offset = end;
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            long position = offset;
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            end = offset + content.length;
+            return offset;
+        }
+
+        /**
+         * The data is always written before the record that points at it, so a crash never leaves a record pointing at nothing.
+         */
+        void record(String path, int offset, int length, long lastModified) throws IOException {
+            indexOutput.writeUTF(path);
+            indexOutput.writeInt(offset);
+            indexOutput.writeInt(length);
+            indexOutput.writeLong(lastModified);
+            indexOutput.flush();
+        }
+
+        /**
+         * Read straight out of the mapping if the segment is sealed, or into a copy on the heap if it isn't.
+         */
+        InputStream stream(int offset, int length) throws IOException {
+            ByteBuffer map = mapped;
+            if (map != null)
+                return new BufferStream(map.slice(offset, length));
+            return new ByteArrayInputStream(read(offset, length));
+        }
+
+        byte[] read(int offset, int length) throws IOException {
+            byte[] content = new byte[length];
+            ByteBuffer map = mapped;
+            if (map != null) {
+                map.get(offset, content);
+                return content;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0)
+                    throw new FileNotFoundException("Segment " + id + " is shorter than its index says.");
+                position += read;
+            }
+            return content;
+        }
+
+        void seal() throws IOException {
+            indexOutput.close();
+            if (end > 0)
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            sealed = true;
+        }
+
+        void delete() throws IOException {
+            // Readers that already hold the mapping can keep using it. It goes away once they're done with it.
+            channel.close();
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(indexFile);
+        }
+    }
+
+    /**
+     * Streams the bytes of a buffer, ie. a slice of a segment's mapping.
+     */
+    private static final class BufferStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long count) {
+            int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package uk.gemwire.waitress.web.storage;
+
+import uk.gemwire.waitress.Waitress;
+import uk.gemwire.waitress.config.Config;
+import uk.gemwire.waitress.metrics.Trace;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressed copies of text files (POMs, Gradle module files, metadata), made once when the file is stored, so that
+ *  clients on slow links can be sent a fraction of the bytes without the server compressing the file on every request.
+ *
+ * The copies live in storage, in a hidden folder, under the path of the file they're a copy of. ie.
+ *  ".compressed/group/artifact/version/artifact-version.pom.gz".
+ * They're served by {@link #negotiate(String, String)}ing with the client's Accept-Encoding header.
+ *
+ * @author Curle
+ */
+public class Precompressed {
+
+    // The hidden folder in storage that compressed copies are kept in.
+    private static final String COMPRESSED_DIR = ".compressed/";
+
+    // The encodings that are stored, in order of preference, and the extension their copies are stored with.
+    private static final String[] ENCODINGS = { "gzip", "deflate" };
+    private static final String[] EXTENSIONS = { ".gz", ".deflate" };
+
+    // The extensions of files that are worth compressing. Anything else is assumed to be compressed already (ie. jars).
+    private static final String[] COMPRESSIBLE = { ".pom", ".xml", ".module", ".json", ".txt", ".properties", ".html" };
+
+    // Files smaller than this fit in a packet either way.
+    private static final int MIN_SIZE = 512;
+    // Files larger than this aren't read into memory to compress.
+    private static final int MAX_SIZE = 16 * 1024 * 1024;
+
+    // A copy must be at most this fraction of the original to be kept. Otherwise the client may as well have the original.
+    private static final double MAX_RATIO = 0.9;
+
+    /**
+     * Make the compressed copies of a file that was just stored.
+     * Copies of a previous version of the file are removed, even if the new version isn't worth compressing, or it
+     *  can't be compressed. Callers should also {@link #remove(String)} them before replacing the file, so that they're
+     *  never served alongside the new version.
+     * Does nothing if precompression is disabled, or the file isn't text.
+     * @param path The path of the file relative to the repository root.
+     */
+    public static void compress(String path) {
+        if (!Config.PRECOMPRESS || !isCompressible(path))
+            return;
+
+        long started = Trace.start();
+        try {
+            long size = Waitress.storage.size(path);
+            if (size < MIN_SIZE || size > MAX_SIZE) {
+                removeCopies(path);
+                return;
+            }
+
+            final byte[] content;
+            try (InputStream stream = Waitress.storage.read(path)) {
+                content = stream.readAllBytes();
+            }
+
+            for (int i = 0; i < ENCODINGS.length; i++) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+                try (OutputStream output = ENCODINGS[i].equals("gzip") ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed)) {
+                    output.write(content);
+                }
+
+                if (compressed.size() > content.length * MAX_RATIO)
+                    Waitress.storage.delete(copyPath(path, i));
+                else
+                    Waitress.storage.write(copyPath(path, i), new ByteArrayInputStream(compressed.toByteArray()));
+            }
+        } catch (IOException e) {
+            // The original is still there to be served, but a copy of an older version mustn't be.
+            Waitress.LOGGER.warn("Unable to precompress " + path + ": " + e.getMessage());
+            try {
+                removeCopies(path);
+            } catch (IOException removal) {
+                Waitress.LOGGER.error("Unable to remove the compressed copies of " + path + ": " + removal.getMessage());
+            }
+        } finally {
+            Trace.end(Trace.Phase.COMPRESS, started);
+        }
+    }
+
+    /**
+     * Pick the encoding to send a file with.
+     * @param acceptEncoding The Accept-Encoding header of the request, or null if it had none.
+     * @param path The path of the file relative to the repository root.
+     * @return The path of the compressed copy to send, or null if the original should be sent.
+     */
+    public static String negotiate(String acceptEncoding, String path) {
+        if (acceptEncoding == null || !Config.PRECOMPRESS || !isCompressible(path))
+            return null;
+
+        for (int i = 0; i < ENCODINGS.length; i++)
+            if (accepts(acceptEncoding, ENCODINGS[i]) && Waitress.storage.exists(copyPath(path, i)))
+                return copyPath(path, i);
+        return null;
+    }
+
+    /**
+     * @param copy A path returned by {@link #negotiate(String, String)}.
+     * @return The value of the Content-Encoding header to send it with.
+     */
+    public static String encodingOf(String copy) {
+        for (int i = 0; i < ENCODINGS.length; i++)
+            if (copy.endsWith(EXTENSIONS[i]))
+                return ENCODINGS[i];
+        throw new IllegalArgumentException(copy + " is not a compressed copy.");
+    }
+
+    /**
+     * @return Whether the file may have compressed copies, and so whether its responses depend on Accept-Encoding.
+     */
+    public static boolean isCompressible(String path) {
+        for (String extension : COMPRESSIBLE)
+            if (path.endsWith(extension))
+                return true;
+        return false;
+    }
+
+    /**
+     * Whether the encoding is listed in the header, and not refused with a q of 0.
+     */
+    private static boolean accepts(String acceptEncoding, String encoding) {
+        for (String part : acceptEncoding.split(",")) {
+            String[] parameters = part.trim().split(";");
+            if (!parameters[0].trim().equalsIgnoreCase(encoding))
+                continue;
+
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove the compressed copies of a file that is being removed or replaced.
+     * @param path The path of the file relative to the repository root.
+     */
+    public static void remove(String path) throws IOException {
+        if (isCompressible(path))
+            removeCopies(path);
+    }
+
+    private static void removeCopies(String path) throws IOException {
+        for (int i = 0; i < ENCODINGS.length; i++)
+            Waitress.storage.delete(copyPath(path, i));
+    }
+
+    private static String copyPath(String path, int encoding) {
+        return COMPRESSED_DIR + path + EXTENSIONS[encoding];
+    }
+}
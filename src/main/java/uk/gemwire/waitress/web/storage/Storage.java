@@ -0,0 +1,88 @@
+package uk.gemwire.waitress.web.storage;
+
+import uk.gemwire.waitress.config.Config;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Where the files of the repository live.
+ *
+ * Every path is relative to the root of the repository, without a leading slash, ie. "group/artifact/version/file".
+ * Anything that reads or writes repository files should go through here, rather than through the data directory.
+ *
+ * Waitress' own bookkeeping (validators, blobs, segments) is not repository content, and is never listed.
+ *
+ * @author Curle
+ */
+public interface Storage {
+
+    /**
+     * Create the storage named in the config.
+     * "file" stores every file as-is in the data directory. "packed" stores small files in segments.
+     */
+    static Storage create() throws IOException {
+        return switch (Config.STORAGE) {
+            case "file" -> new FileStorage();
+            case "packed" -> new PackedStorage();
+            default -> throw new IllegalArgumentException("Unknown storage " + Config.STORAGE + ". Expected file or packed.");
+        };
+    }
+
+    /**
+     * @return Whether a file is stored at the given path.
+     */
+    boolean exists(String path);
+
+    /**
+     * @return The size of the file at the given path in bytes.
+     * @throws FileNotFoundException if there is no such file.
+     */
+    long size(String path) throws IOException;
+
+    /**
+     * @return When the file at the given path was last written, in milliseconds since the epoch. 0 if there is no such file.
+     */
+    long lastModified(String path);
+
+    /**
+     * Open the file at the given path for reading. The caller must close the stream.
+     * @throws FileNotFoundException if there is no such file.
+     */
+    InputStream read(String path) throws IOException;
+
+    /**
+     * Store the given stream at the given path, replacing anything already there.
+     * Readers never see a half-written file.
+     * @param path The path to store at.
+     * @param content The content of the file. Not closed.
+     * @return The paths of any other files written alongside it (ie. checksums).
+     */
+    List<String> write(String path, InputStream content) throws IOException;
+
+    /**
+     * Remove the file at the given path.
+     * @return Whether there was a file to remove.
+     */
+    boolean delete(String path) throws IOException;
+
+    /**
+     * Pass the path of every stored file to the consumer.
+     * Paths starting with a dot are Waitress' own (ie. compressed copies), and are not passed.
+     */
+    void enumerate(Consumer<String> consumer) throws IOException;
+
+    /**
+     * Pass the path of every stored file that starts with the given prefix to the consumer, as {@link #enumerate(Consumer)}.
+     * @param prefix The start of the paths to pass, ie. "com/example/" for everything in a group.
+     */
+    default void enumerate(String prefix, Consumer<String> consumer) throws IOException {
+        enumerate(path -> {
+            if (path.startsWith(prefix))
+                consumer.accept(path);
+        });
+    }
+}
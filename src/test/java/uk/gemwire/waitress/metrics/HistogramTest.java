@@ -0,0 +1,39 @@
+package uk.gemwire.waitress.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    @Test
+    void bucketTest() {
+        Histogram histogram = new Histogram();
+        histogram.observe(TimeUnit.MICROSECONDS.toNanos(50));
+        // On a bound counts towards that bound.
+        histogram.observe(TimeUnit.MILLISECONDS.toNanos(1));
+        histogram.observe(TimeUnit.MINUTES.toNanos(5));
+
+        long[] counts = histogram.cumulativeCounts();
+        assertEquals(1, counts[0]);
+        assertEquals(2, counts[3]);
+        assertEquals(2, counts[Histogram.BOUNDS.length - 1]);
+        assertEquals(3, counts[Histogram.BOUNDS.length]);
+        assertEquals(300.00105, histogram.sumSeconds(), 1e-9);
+    }
+
+    @Test
+    void mergeTest() {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        first.observe(TimeUnit.MILLISECONDS.toNanos(3));
+        second.observe(TimeUnit.MILLISECONDS.toNanos(3));
+        second.observe(TimeUnit.SECONDS.toNanos(2));
+
+        first.merge(second);
+        assertEquals(3, first.cumulativeCounts()[Histogram.BOUNDS.length]);
+        assertEquals(2, first.cumulativeCounts()[5]);
+    }
+}
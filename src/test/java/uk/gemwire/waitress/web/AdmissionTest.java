@@ -0,0 +1,62 @@
+package uk.gemwire.waitress.web;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void bucketTest() {
+        // Two a second, up to four at once.
+        TokenBucket bucket = new TokenBucket(2, 4, 0);
+        for (int i = 0; i < 4; i++)
+            assertEquals(0, bucket.take(0));
+        // Empty. The next token comes in half a second.
+        assertEquals(SECOND / 2, bucket.take(0));
+        assertEquals(0, bucket.take(SECOND / 2));
+        assertFalse(bucket.isFull(SECOND / 2));
+        // A long wait only fills it back up to the burst.
+        assertTrue(bucket.isFull(100 * SECOND));
+        for (int i = 0; i < 4; i++)
+            assertEquals(0, bucket.take(100 * SECOND));
+        assertNotEquals(0, bucket.take(100 * SECOND));
+        // A token given back can be taken again, but never past the burst.
+        bucket.giveBack();
+        assertEquals(0, bucket.take(100 * SECOND));
+        for (int i = 0; i < 10; i++)
+            bucket.giveBack();
+        assertTrue(bucket.isFull(100 * SECOND));
+        for (int i = 0; i < 4; i++)
+            assertEquals(0, bucket.take(100 * SECOND));
+        assertNotEquals(0, bucket.take(100 * SECOND));
+    }
+
+    @Test
+    void adaptiveLimitTest() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1000, 1.5);
+        int initial = limiter.limit();
+
+        // Busy and no slower than usual: grows.
+        for (int i = 0; i < 100; i++)
+            limiter.sample(TimeUnit.MILLISECONDS.toNanos(1), limiter.limit());
+        int grown = limiter.limit();
+        assertTrue(grown > initial);
+
+        // Quiet: nothing to learn.
+        limiter.sample(TimeUnit.MILLISECONDS.toNanos(1), 1);
+        assertEquals(grown, limiter.limit());
+
+        // Ten times slower than usual: shrinks, down to the minimum but no further.
+        for (int i = 0; i < 100; i++)
+            limiter.sample(TimeUnit.MILLISECONDS.toNanos(10), limiter.limit());
+        assertTrue(limiter.limit() < grown);
+        for (int i = 0; i < 1000; i++)
+            limiter.sample(TimeUnit.MILLISECONDS.toNanos(100), limiter.limit());
+        assertEquals(8, limiter.limit());
+    }
+}
@@ -0,0 +1,49 @@
+package uk.gemwire.waitress.web;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+
+    private static final List<String> NODES = List.of("http://a/", "http://b/", "http://c/");
+
+    @Test
+    void spreadTest() {
+        HashRing ring = new HashRing(NODES);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30000; i++)
+            counts.merge(ring.owner("com/example/lib" + i + "/1.0"), 1, Integer::sum);
+
+        assertEquals(3, counts.size());
+        for (int count : counts.values())
+            assertTrue(count > 7000 && count < 13000, "Uneven spread " + counts);
+    }
+
+    @Test
+    void stabilityTest() {
+        // Order doesn't matter, so every node agrees.
+        HashRing ring = new HashRing(NODES);
+        HashRing reordered = new HashRing(List.of("http://c/", "http://a/", "http://b/"));
+        HashRing grown = new HashRing(List.of("http://a/", "http://b/", "http://c/", "http://d/"));
+
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String key = "org/example/lib" + i + "/2.0";
+            assertEquals(ring.owner(key), reordered.owner(key));
+            String owner = grown.owner(key);
+            if (!owner.equals(ring.owner(key))) {
+                // Keys only move to the new node.
+                assertEquals("http://d/", owner);
+                moved++;
+            }
+        }
+        // About a quarter of the keys.
+        assertTrue(moved > 1500 && moved < 3500, moved + " keys moved");
+        assertNull(new HashRing(List.of()).owner("anything"));
+    }
+}
@@ -0,0 +1,63 @@
+package uk.gemwire.waitress.web;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import uk.gemwire.waitress.config.Config;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoriesTest {
+
+    @AfterEach
+    void reset() {
+        Config.REPOSITORIES = "";
+        Repositories.setup();
+    }
+
+    @Test
+    void routingTest() {
+        Config.REPOSITORIES = "releases:hosted,snapshots:hosted,all:virtual:public,public:virtual:releases+snapshots+root";
+        Repositories.setup();
+        Repository all = Repositories.get("all");
+        Repository releases = Repositories.get("releases");
+        Repository snapshots = Repositories.get("snapshots");
+        Repository root = Repositories.get(Repositories.ROOT);
+        assertEquals(List.of(releases, snapshots, root), all.members());
+
+        // Nothing can fetch, so a group nobody has goes nowhere.
+        assertEquals(List.of(), all.route("com/routing/none"));
+
+        RepoCache.track("repository/snapshots/com/routing/lib/1.0-SNAPSHOT/lib-1.0-SNAPSHOT.jar");
+        assertEquals(List.of(snapshots), all.route("com/routing"));
+
+        RepoCache.track("repository/releases/com/routing/lib/1.0/lib-1.0.jar");
+        RepoCache.track("com/routing/other/1.0/other-1.0.jar");
+        assertEquals(List.of(releases, snapshots, root), all.route("com/routing"));
+        assertEquals(List.of(releases), releases.route("com/routing"));
+    }
+
+    @Test
+    void mergedMetadataTest() {
+        Config.REPOSITORIES = "first:hosted,second:hosted,group:virtual:first+second";
+        Repositories.setup();
+        RepoCache.track("repository/first/com/merging/lib/1.0/lib-1.0.jar");
+        RepoCache.track("repository/second/com/merging/lib/2.0/lib-2.0.jar");
+        RepoCache.track("repository/second/com/merging/lib/1.0/lib-1.0.pom");
+
+        MergedMetadata merged = Repositories.get("group").metadata("com/merging", "lib", false);
+        String xml = new String(merged.render(""), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<groupId>com.merging</groupId>"));
+        assertEquals(2, xml.split("<version>").length - 1, xml);
+        assertTrue(xml.contains("<latest>1.0</latest>"), xml);
+
+        // Stored afterwards, so it's added to what was built rather than building again.
+        RepoCache.track("repository/first/com/merging/lib/3.0/lib-3.0.jar");
+        assertSame(merged, Repositories.get("group").metadata("com/merging", "lib", false));
+        xml = new String(merged.render(""), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<latest>3.0</latest>") && xml.contains("<version>3.0</version>"), xml);
+        assertEquals(40, merged.render(".sha1").length);
+    }
+}
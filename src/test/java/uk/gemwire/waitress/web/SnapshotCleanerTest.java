@@ -0,0 +1,36 @@
+package uk.gemwire.waitress.web;
+
+import org.junit.jupiter.api.Test;
+import uk.gemwire.waitress.config.Config;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotCleanerTest {
+
+    private static final long NOW = LocalDateTime.of(2021, 1, 31, 0, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+
+    private static final List<String> BUILDS = List.of(
+            "1.0-20210102.120000-2", "1.0-20210130.120000-4", "1.0-20210101.120000-1", "1.0-20210102.120000-3");
+
+    @Test
+    void expiredTest() {
+        Config.SNAPSHOT_KEEP_BUILDS = 2;
+        Config.SNAPSHOT_MAX_AGE_DAYS = 0;
+        // Builds in the same second are told apart by their number.
+        assertEquals(List.of("1.0-20210102.120000-2", "1.0-20210101.120000-1"), SnapshotCleaner.expired(BUILDS, NOW));
+
+        Config.SNAPSHOT_KEEP_BUILDS = 0;
+        Config.SNAPSHOT_MAX_AGE_DAYS = 29;
+        assertEquals(List.of("1.0-20210101.120000-1"), SnapshotCleaner.expired(BUILDS, NOW));
+
+        // The newest is kept, however old.
+        Config.SNAPSHOT_MAX_AGE_DAYS = 1;
+        assertEquals(List.of("1.0-20210102.120000-3", "1.0-20210102.120000-2", "1.0-20210101.120000-1"),
+                SnapshotCleaner.expired(BUILDS, NOW + 10L * 24 * 60 * 60 * 1000));
+        Config.SNAPSHOT_MAX_AGE_DAYS = 0;
+    }
+}
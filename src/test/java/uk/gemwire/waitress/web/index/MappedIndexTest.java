@@ -0,0 +1,116 @@
+package uk.gemwire.waitress.web.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gemwire.waitress.web.repository.Artifact;
+import uk.gemwire.waitress.web.repository.MavenVersion;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void lookupTest() throws IOException {
+        MappedIndex index = new MappedIndex(directory);
+        assertFalse(index.isComplete());
+        assertTrue(index.add("com/example", "lib", "1.10", "", "jar"));
+        assertTrue(index.add("com/example", "lib", "1.2", "", "jar"));
+        assertTrue(index.add("com/example", "lib", "1.2", "-sources", "jar"));
+        assertFalse(index.add("com/example", "lib", "1.2", "", "jar"));
+
+        assertTrue(index.contains("com/example", "lib"));
+        assertTrue(index.contains("com/example", "lib", "1.2", "-sources", "jar"));
+        assertFalse(index.contains("com/example", "lib", "1.10", "-sources", "jar"));
+        assertFalse(index.contains("com/example", "other"));
+
+        Artifact artifact = index.get("com/example", "lib");
+        assertEquals(List.of("1.2", "1.10"), artifact.getVersions());
+        assertTrue(artifact.tracksVersion("1.2", "-sources", "jar"));
+        assertNull(index.get("com/example", "other"));
+        assertEquals(1, index.size());
+
+        // Copies handed out by get() are thrown away, so they don't keep their versions on the heap.
+        index.add("com/example", "once", "7.3.1-mapped", "", "jar");
+        assertTrue(index.get("com/example", "once").tracksVersion("7.3.1-mapped", "", "jar"));
+        assertNull(MavenVersion.findInterned("7.3.1-mapped"));
+        index.close();
+    }
+
+    @Test
+    void removeTest() throws IOException {
+        for (Index index : List.of(new HeapIndex(), new MappedIndex(directory))) {
+            index.add("com/example", "lib", "1.0", "", "jar");
+            index.add("com/example", "lib", "1.0", "", "pom");
+            index.add("com/example", "lib", "2.0-SNAPSHOT", "", "jar");
+
+            assertTrue(index.remove("com/example", "lib", "1.0", "", "jar"));
+            assertFalse(index.remove("com/example", "lib", "1.0", "", "jar"));
+            assertFalse(index.contains("com/example", "lib", "1.0", "", "jar"));
+            assertTrue(index.contains("com/example", "lib", "1.0", "", "pom"));
+
+            // The release goes with its last file.
+            assertTrue(index.remove("com/example", "lib", "1.0", "", "pom"));
+            Artifact artifact = index.get("com/example", "lib");
+            assertEquals(List.of("2.0-SNAPSHOT"), artifact.getVersions());
+            assertNull(artifact.getRelease());
+            List<String> versions = new ArrayList<>();
+            index.forEachVersion((groupID, artifactID, version) -> versions.add(version));
+            assertEquals(List.of("2.0-SNAPSHOT"), versions);
+
+            // And the artifact with its last version, until something is added again.
+            assertTrue(index.remove("com/example", "lib", "2.0-SNAPSHOT", "", "jar"));
+            assertFalse(index.contains("com/example", "lib"));
+            assertNull(index.get("com/example", "lib"));
+            assertEquals(0, index.size());
+            assertTrue(index.add("com/example", "lib", "1.0", "", "jar"));
+            assertEquals(List.of("1.0"), index.get("com/example", "lib").getVersions());
+            assertEquals(1, index.size());
+            index.close();
+        }
+    }
+
+    @Test
+    void reopenTest() throws IOException {
+        // Enough to grow the table a few times.
+        MappedIndex index = new MappedIndex(directory);
+        for (int i = 0; i < 50000; i++)
+            index.add("com/example" + i % 100, "lib" + i, "1." + i % 7, "", "jar");
+        assertEquals(50000, index.size());
+        index.markComplete();
+        index.close();
+
+        index = new MappedIndex(directory);
+        assertTrue(index.isComplete());
+        assertEquals(50000, index.size());
+        for (int i = 0; i < 50000; i += 997)
+            assertTrue(index.contains("com/example" + i % 100, "lib" + i, "1." + i % 7, "", "jar"));
+        List<String> versions = new ArrayList<>();
+        index.forEachVersion((groupID, artifactID, version) -> versions.add(version));
+        assertEquals(50000, versions.size());
+
+        // Closed part of the way through filling, so it can't be trusted.
+        MappedIndex partial = new MappedIndex(directory.resolve("partial"));
+        partial.add("com/example", "early", "1.0", "", "jar");
+        partial.close();
+        partial = new MappedIndex(directory.resolve("partial"));
+        assertFalse(partial.isComplete());
+        assertEquals(0, partial.size());
+        partial.close();
+
+        // Not closed, as if the server crashed, so it can't be trusted.
+        index.add("com/example", "late", "1.0", "", "jar");
+        index = new MappedIndex(directory);
+        assertFalse(index.isComplete());
+        assertEquals(0, index.size());
+        assertFalse(index.contains("com/example0", "lib0", "1.0", "", "jar"));
+        index.close();
+    }
+}
@@ -0,0 +1,35 @@
+package uk.gemwire.waitress.web.repository;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MavenCoordinateTest {
+
+    @Test
+    void parseTest() {
+        assertEquals(new MavenCoordinate("com/tmvkrpxl0", "test", "1.0", "", "zip"), MavenCoordinate.parse("/com/tmvkrpxl0/test/1.0/test-1.0.zip"));
+        assertEquals(new MavenCoordinate("uk/gemwire", "orbis-verto", "0.1.0", "-api", "txt"), MavenCoordinate.parse("/uk/gemwire/orbis-verto/0.1.0/orbis-verto-0.1.0-api.txt"));
+        assertEquals(new MavenCoordinate("g", "a", "1.0", "", "jar.sha1"), MavenCoordinate.parse("/g/a/1.0/a-1.0.jar.sha1"));
+
+        assertNull(MavenCoordinate.parse("/g/a/1.0/b-1.0.jar"));
+        assertNull(MavenCoordinate.parse("/a/1.0/a-1.0.jar"));
+        assertNull(MavenCoordinate.parse("/g/a/maven-metadata.xml"));
+    }
+
+    @Test
+    void snapshotTest() {
+        MavenCoordinate timestamped = MavenCoordinate.parse("/g/a/1.0-SNAPSHOT/a-1.0-20210101.120000-3-sources.jar");
+        assertNotNull(timestamped);
+        assertEquals("1.0-20210101.120000-3", timestamped.version());
+        assertEquals("-sources", timestamped.classifier());
+        assertEquals("1.0-SNAPSHOT", timestamped.baseVersion());
+        assertEquals("g/a/1.0-SNAPSHOT/a-1.0-20210101.120000-3-sources.jar", timestamped.path());
+        assertFalse(timestamped.isMutable());
+
+        MavenCoordinate snapshot = MavenCoordinate.parse("/g/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT.jar");
+        assertNotNull(snapshot);
+        assertTrue(snapshot.isMutable());
+        assertEquals("g/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT.jar", snapshot.path());
+    }
+}
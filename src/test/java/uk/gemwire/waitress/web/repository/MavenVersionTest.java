@@ -0,0 +1,47 @@
+package uk.gemwire.waitress.web.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MavenVersionTest {
+
+    @Test
+    void orderTest() {
+        List<String> ordered = List.of("1.0-alpha-1", "1.0-alpha2", "1.0-beta", "1.0-m1", "1.0-rc1", "1.0-20210101.120000-1",
+                "1.0-20210102.120000-2", "1.0-SNAPSHOT", "1.0", "1.0-sp", "1.0-foo", "1.0.1", "1.2", "1.10", "2");
+        for (int i = 1; i < ordered.size(); i++)
+            assertTrue(MavenVersion.parse(ordered.get(i - 1)).compareTo(MavenVersion.parse(ordered.get(i))) < 0,
+                    ordered.get(i - 1) + " < " + ordered.get(i));
+
+        assertTrue(MavenVersion.parse("1").matches(MavenVersion.parse("1.0.0")));
+        assertTrue(MavenVersion.parse("1.0-GA").matches(MavenVersion.parse("1-final")));
+        assertTrue(MavenVersion.parse("1.0-20210101.120000-1").isSnapshot());
+        assertFalse(MavenVersion.parse("1.0").isSnapshot());
+    }
+
+    @Test
+    void queryTest() {
+        Artifact artifact = new Artifact("g", "a");
+        for (String version : List.of("1.10", "1.2", "2.0-SNAPSHOT", "1.5", "2.0", "0.9", "2.1-SNAPSHOT"))
+            artifact.addVersion(version, "", "jar");
+        artifact.addVersion("1.5", "-sources", "jar");
+
+        assertEquals(List.of("0.9", "1.2", "1.5", "1.10", "2.0-SNAPSHOT", "2.0", "2.1-SNAPSHOT"), artifact.getVersions());
+        assertEquals("2.1-SNAPSHOT", artifact.getLatest());
+        assertEquals("2.0", artifact.getRelease());
+
+        assertEquals(List.of("1.2", "1.5", "1.10", "2.0-SNAPSHOT"), artifact.getVersions(VersionRange.parse("[1.2,2.0)")));
+        assertEquals(List.of("0.9", "2.0", "2.1-SNAPSHOT"), artifact.getVersions(VersionRange.parse("(,1.0],[2,)")));
+        assertEquals(List.of("1.10"), artifact.getVersions(VersionRange.parse("[1.10.0]")));
+        assertEquals("1.10", artifact.getLatest(VersionRange.parse("(1.2,2.0-SNAPSHOT)")));
+        assertNull(artifact.getLatest(VersionRange.parse("[3,)")));
+
+        assertTrue(artifact.tracksVersion("1.5", "-sources", "jar"));
+        assertFalse(artifact.tracksVersion("1.2", "-sources"));
+        assertThrows(IllegalArgumentException.class, () -> VersionRange.parse("[1.0,2.0"));
+        assertThrows(IllegalArgumentException.class, () -> VersionRange.parse("(1.0)"));
+    }
+}
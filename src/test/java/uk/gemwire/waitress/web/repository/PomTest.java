@@ -0,0 +1,66 @@
+package uk.gemwire.waitress.web.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PomTest {
+
+    private static final String POM = """
+            <project>
+              <parent><groupId>g</groupId><artifactId>parent</artifactId><version>1</version></parent>
+              <artifactId>a</artifactId>
+              <version>2.0</version>
+              <properties><local.version>1.2</local.version></properties>
+              <dependencyManagement><dependencies>
+                <dependency><groupId>g</groupId><artifactId>bom</artifactId><version>3</version><type>pom</type><scope>import</scope></dependency>
+              </dependencies></dependencyManagement>
+              <dependencies>
+                <dependency><groupId>g</groupId><artifactId>local</artifactId><version>${local.version}</version></dependency>
+                <dependency><groupId>g</groupId><artifactId>inherited</artifactId><version>${parent.only}</version></dependency>
+                <dependency>
+                  <groupId>g</groupId><artifactId>managed</artifactId><classifier>api</classifier>
+                  <exclusions><exclusion><groupId>x</groupId><artifactId>*</artifactId></exclusion></exclusions>
+                </dependency>
+              </dependencies>
+            </project>
+            """;
+
+    @Test
+    void parseTest() throws IOException {
+        Pom pom = Pom.parse(new ByteArrayInputStream(POM.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(new MavenCoordinate("g", "a", "2.0", "", "pom"), pom.coordinate());
+        assertEquals(new MavenCoordinate("g", "parent", "1", "", "pom"), pom.parent());
+        assertEquals(Map.of("local.version", "1.2"), pom.properties());
+
+        List<Pom.Dependency> dependencies = pom.dependencies();
+        assertEquals(3, dependencies.size());
+        assertEquals("1.2", dependencies.get(0).version());
+        assertTrue(dependencies.get(0).isResolved());
+        // Left for the parent to define.
+        assertEquals("${parent.only}", dependencies.get(1).version());
+        assertFalse(dependencies.get(1).isResolved());
+        assertEquals("1.5", dependencies.get(1).interpolate(Map.of("parent.only", "1.5")).version());
+
+        Pom.Dependency managed = dependencies.get(2);
+        assertNull(managed.version());
+        assertNull(managed.scope());
+        assertEquals("compile", managed.scopeOrDefault());
+        assertEquals("g:managed:jar:-api", managed.managementKey());
+        assertTrue(new Pom.Dependency("x", "anything", "1", "", "jar", null, false, List.of()).isExcludedBy(managed.exclusions()));
+
+        Pom.Dependency filled = managed.manage(new Pom.Dependency("g", "managed", "4.0", "-api", "jar", "runtime", false, List.of()));
+        assertEquals("4.0", filled.version());
+        assertEquals("runtime", filled.scope());
+        assertEquals(managed.exclusions(), filled.exclusions());
+
+        assertEquals(1, pom.management().size());
+        assertEquals("import", pom.management().get(0).scope());
+    }
+}
@@ -0,0 +1,86 @@
+package uk.gemwire.waitress.web.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gemwire.waitress.config.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedStorageTest {
+
+    @TempDir
+    Path data;
+
+    @BeforeEach
+    void setup() {
+        Config.DATA_DIR = data.toString() + "/";
+        Config.PACKED_MAX_FILE_SIZE = 16;
+        Config.SEGMENT_SIZE = 64;
+        Config.BLOB_STORE = false;
+    }
+
+    @Test
+    void replayTest() throws IOException {
+        PackedStorage storage = new PackedStorage();
+        write(storage, "g/a/1/a-1.pom", "small");
+        write(storage, "g/a/1/a-1.jar", "larger than sixteen bytes");
+        write(storage, "g/a/1/a-1.pom", "replaced");
+        write(storage, "g/a/2/a-2.pom", "removed");
+        assertTrue(storage.delete("g/a/2/a-2.pom"));
+
+        // A new instance only has the segments on disk to go on.
+        storage = new PackedStorage();
+        assertEquals("replaced", read(storage, "g/a/1/a-1.pom"));
+        assertEquals("larger than sixteen bytes", read(storage, "g/a/1/a-1.jar"));
+        assertEquals(8, storage.size("g/a/1/a-1.pom"));
+        assertFalse(storage.exists("g/a/2/a-2.pom"));
+
+        Set<String> paths = new HashSet<>();
+        storage.enumerate(paths::add);
+        assertEquals(Set.of("g/a/1/a-1.pom", "g/a/1/a-1.jar"), paths);
+
+        write(storage, "h/b/1/b-1.jar", "larger than sixteen bytes");
+        paths.clear();
+        storage.enumerate("g/", paths::add);
+        assertEquals(Set.of("g/a/1/a-1.pom", "g/a/1/a-1.jar"), paths);
+    }
+
+    @Test
+    void compactionTest() throws IOException {
+        PackedStorage storage = new PackedStorage();
+        // Fill a few segments, overwriting the same files so most of them is garbage.
+        for (int i = 0; i < 20; i++) {
+            write(storage, "g/a/1/a-1.pom", "pom " + i);
+            write(storage, "g/a/1/a-1.pom.sha1", "sha " + i);
+        }
+        write(storage, "g/a/2/a-2.pom", "gone");
+        storage.delete("g/a/2/a-2.pom");
+
+        assertTrue(storage.compact() > 0);
+        assertEquals("pom 19", read(storage, "g/a/1/a-1.pom"));
+        assertEquals("sha 19", read(storage, "g/a/1/a-1.pom.sha1"));
+
+        storage = new PackedStorage();
+        assertEquals("pom 19", read(storage, "g/a/1/a-1.pom"));
+        assertFalse(storage.exists("g/a/2/a-2.pom"));
+    }
+
+    private static void write(Storage storage, String path, String content) throws IOException {
+        storage.write(path, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String read(Storage storage, String path) throws IOException {
+        try (InputStream stream = storage.read(path)) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}